@@ -1,14 +1,24 @@
 package com.fklein.resources;
 
 import com.fklein.models.ChatMessage;
+import com.fklein.services.EmbeddingService;
 import com.fklein.services.RagService;
+import com.fklein.services.chat.TokenCoalescer;
+import com.fklein.services.http.UpstreamHttpClient;
+import com.fklein.services.llm.LlmRouter;
 import io.smallrye.mutiny.Multi;
+import jakarta.annotation.PostConstruct;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 import org.jboss.resteasy.reactive.RestStreamElementType;
 
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 @Path("/api/chat")
 @Produces(MediaType.APPLICATION_JSON)
 @Consumes(MediaType.APPLICATION_JSON)
@@ -19,6 +29,33 @@ public class ChatbotResource {
     @Inject
     RagService ragService;
 
+    @Inject
+    EmbeddingService embeddingService;
+
+    @Inject
+    UpstreamHttpClient upstreamHttpClient;
+
+    @Inject
+    LlmRouter llmRouter;
+
+    // How upstream deltas are merged into SSE frames: none, time, size, word or sentence.
+    // Typed, so an unknown value fails config validation at startup rather than on the first request
+    @ConfigProperty(name = "chat.sse.flush-policy", defaultValue = "word")
+    TokenCoalescer.FlushPolicy flushPolicy;
+
+    @ConfigProperty(name = "chat.sse.flush-max-delay", defaultValue = "50ms")
+    Duration flushMaxDelay;
+
+    @ConfigProperty(name = "chat.sse.flush-max-bytes", defaultValue = "256")
+    int flushMaxBytes;
+
+    private TokenCoalescer coalescer;
+
+    @PostConstruct
+    void init() {
+        coalescer = new TokenCoalescer(flushPolicy, flushMaxDelay, flushMaxBytes);
+    }
+
     /**
      * Stream chat response using Server-Sent Events
      */
@@ -33,7 +70,7 @@ public class ChatbotResource {
             return Multi.createFrom().item("Erreur: Message vide");
         }
 
-        return ragService.processQuery(message.getMessage());
+        return coalescer.coalesce(ragService.processQuery(message.getMessage()));
     }
 
     /**
@@ -72,4 +109,26 @@ public class ChatbotResource {
     public String health() {
         return "Chatbot is ready!";
     }
+
+    /**
+     * Counters of the chat pipeline's caches and upstream connections; disabled components are left out
+     */
+    @GET
+    @Path("/stats")
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        putIfEnabled(stats, "embeddingCache", embeddingService.cacheStats());
+        putIfEnabled(stats, "answerCache", ragService.answerCacheStats());
+        putIfEnabled(stats, "singleFlight", ragService.singleFlightStats());
+        stats.put("upstreamHosts", upstreamHttpClient.stats());
+        stats.put("llmRouter", llmRouter.stats());
+        stats.put("llmUsage", llmRouter.usageByProvider());
+        return stats;
+    }
+
+    private static void putIfEnabled(Map<String, Object> stats, String name, Object value) {
+        if (value != null) {
+            stats.put(name, value);
+        }
+    }
 }
@@ -1,28 +1,37 @@
 package com.fklein.services;
 
+import com.fklein.services.http.JsonFieldExtractor;
+import com.fklein.services.http.SseDecoder;
+import com.fklein.services.http.UpstreamHttpClient;
+import com.fklein.services.http.UpstreamStatusException;
+import com.fklein.services.llm.LlmProvider;
+import com.fklein.services.llm.Prompt;
+import com.fklein.services.llm.TokenUsage;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.rest.client.inject.RestClient;
 import org.jboss.logging.Logger;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.smallrye.mutiny.Multi;
 
 @ApplicationScoped
-public class ClaudeService {
+public class ClaudeService implements LlmProvider {
 
     private static final Logger LOG = Logger.getLogger(ClaudeService.class);
 
+    @Inject
+    UpstreamHttpClient http;
+
     @ConfigProperty(name = "claude.api.key")
     String apiKey;
 
@@ -37,94 +46,152 @@ public class ClaudeService {
 
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    // Only the fields the stream needs are read from each event, at these positions
+    private final JsonFieldExtractor eventFields = new JsonFieldExtractor(objectMapper.getFactory(),
+            "type", "delta.type", "delta.text", "error.message",
+            "message.usage.input_tokens", "message.usage.cache_read_input_tokens",
+            "message.usage.cache_creation_input_tokens", "usage.output_tokens");
+    private static final int TYPE = 0;
+    private static final int DELTA_TYPE = 1;
+    private static final int DELTA_TEXT = 2;
+    private static final int ERROR_MESSAGE = 3;
+    private static final int INPUT_TOKENS = 4;
+    private static final int CACHE_READ_TOKENS = 5;
+    private static final int CACHE_WRITE_TOKENS = 6;
+    private static final int OUTPUT_TOKENS = 7;
+
+    private final TokenUsage.Totals usageTotals = new TokenUsage.Totals();
+
+    @Override
+    public String name() {
+        return "claude";
+    }
+
+    @Override
+    public boolean isConfigured() {
+        return !apiKey.isBlank() && !UNSET_API_KEY.equals(apiKey);
+    }
+
     /**
      * Send a message to Claude and get a streaming response
      */
     public Multi<String> streamChatCompletion(String systemPrompt, String userMessage) {
-        return Multi.createFrom().emitter(emitter -> {
-            try {
-                URL url = new URL(CLAUDE_API_URL);
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("POST");
-                conn.setRequestProperty("Content-Type", "application/json");
-                conn.setRequestProperty("x-api-key", apiKey);
-                conn.setRequestProperty("anthropic-version", ANTHROPIC_VERSION);
-                conn.setDoOutput(true);
-
-                // Build request body
-                Map<String, Object> requestBody = Map.of(
-                        "model", model,
-                        "max_tokens", maxTokens,
-                        "stream", true,
-                        "system", systemPrompt,
-                        "messages", List.of(
-                                Map.of(
-                                        "role", "user",
-                                        "content", userMessage
-                                )
+        return streamChatCompletion(Prompt.of(systemPrompt, userMessage));
+    }
+
+    /**
+     * Send a prompt to Claude and get a streaming response.
+     * System blocks marked as cache breakpoints are sent with {@code cache_control}, so the prefix they end is
+     * served from Anthropic's prompt cache on later requests. The cache usage reported in the stream is
+     * logged and added to {@link #usageTotals()}.
+     * No thread is held while the answer streams; the upstream is read as fast as the subscriber consumes.
+     */
+    @Override
+    public Multi<String> streamChatCompletion(Prompt prompt) {
+        // Build request body
+        Map<String, Object> requestBody = Map.of(
+                "model", model,
+                "max_tokens", maxTokens,
+                "stream", true,
+                "system", systemBlocks(prompt),
+                "messages", List.of(
+                        Map.of(
+                                "role", "user",
+                                "content", prompt.user()
                         )
-                );
-
-                String jsonRequest = objectMapper.writeValueAsString(requestBody);
-                LOG.info("Sending request to Claude API: " + model);
-
-                try (OutputStream os = conn.getOutputStream()) {
-                    byte[] input = jsonRequest.getBytes(StandardCharsets.UTF_8);
-                    os.write(input, 0, input.length);
-                }
-
-                int responseCode = conn.getResponseCode();
-                if (responseCode != 200) {
-                    String error = new String(conn.getErrorStream().readAllBytes(), StandardCharsets.UTF_8);
-                    LOG.error("Claude API error: " + error);
-                    emitter.fail(new RuntimeException("Claude API error: " + responseCode + " - " + error));
-                    return;
-                }
-
-                // Read streaming response
-                try (BufferedReader br = new BufferedReader(
-                        new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
-                    String line;
-                    while ((line = br.readLine()) != null) {
-                        if (line.startsWith("data: ")) {
-                            String data = line.substring(6);
-                            if ("[DONE]".equals(data)) {
-                                break;
-                            }
-                            try {
-                                Map<String, Object> event = objectMapper.readValue(data, Map.class);
-                                String type = (String) event.get("type");
-
-                                if ("content_block_delta".equals(type)) {
-                                    Map<String, Object> delta = (Map<String, Object>) event.get("delta");
-                                    if (delta != null && "text_delta".equals(delta.get("type"))) {
-                                        String text = (String) delta.get("text");
-                                        if (text != null && !text.isEmpty()) {
-                                            emitter.emit(text);
-                                        }
-                                    }
-                                } else if ("message_stop".equals(type)) {
-                                    break;
-                                } else if ("error".equals(type)) {
-                                    Map<String, Object> error = (Map<String, Object>) event.get("error");
-                                    String errorMessage = (String) error.get("message");
-                                    emitter.fail(new RuntimeException("Claude API error: " + errorMessage));
-                                    return;
-                                }
-                            } catch (Exception e) {
-                                LOG.warn("Failed to parse event: " + data, e);
-                            }
+                )
+        );
+
+        String jsonRequest;
+        try {
+            jsonRequest = objectMapper.writeValueAsString(requestBody);
+        } catch (JsonProcessingException e) {
+            return Multi.createFrom().failure(e);
+        }
+        LOG.info("Sending request to Claude API: " + model);
+
+        return Multi.createFrom().deferred(() -> {
+            // input, cache read, cache write and output tokens, from message_start and message_delta
+            long[] usage = new long[4];
+            return SseDecoder.events(http.streamJson(CLAUDE_API_URL, jsonRequest,
+                            "x-api-key", apiKey, "anthropic-version", ANTHROPIC_VERSION))
+                    .onItem().transform(this::fieldsOf)
+                    .select().first(fields -> !"message_stop".equals(fields[TYPE]))
+                    .onItem().transform(fields -> {
+                        String type = fields[TYPE];
+                        if ("error".equals(type)) {
+                            throw new RuntimeException("Claude API error: " + fields[ERROR_MESSAGE]);
+                        }
+                        if ("message_start".equals(type)) {
+                            usage[0] = count(fields[INPUT_TOKENS]);
+                            usage[1] = count(fields[CACHE_READ_TOKENS]);
+                            usage[2] = count(fields[CACHE_WRITE_TOKENS]);
+                        } else if ("message_delta".equals(type)) {
+                            usage[3] = count(fields[OUTPUT_TOKENS]);
                         }
-                    }
-                }
+                        boolean text = "content_block_delta".equals(type) && "text_delta".equals(fields[DELTA_TYPE]);
+                        return text && fields[DELTA_TEXT] != null ? fields[DELTA_TEXT] : "";
+                    })
+                    .select().where(text -> !text.isEmpty())
+                    .onCompletion().invoke(() -> recordUsage(usageOf(usage[0], usage[1], usage[2], usage[3])));
+        }).onFailure().transform(e -> {
+            if (e instanceof UpstreamStatusException status) {
+                LOG.error("Claude API error: " + status.body());
+                return new RuntimeException("Claude API error: " + status.statusCode() + " - " + status.body());
+            }
+            LOG.error("Error calling Claude API", e);
+            return e;
+        });
+    }
 
-                emitter.complete();
+    /**
+     * Token usage summed over every completed response, prompt cache hits included
+     */
+    @Override
+    public TokenUsage usageTotals() {
+        return usageTotals.sum();
+    }
 
-            } catch (Exception e) {
-                LOG.error("Error calling Claude API", e);
-                emitter.fail(e);
+    // Request "system" field: one text block per prompt block, cache_control on the breakpoints only
+    static List<Map<String, Object>> systemBlocks(Prompt prompt) {
+        List<Map<String, Object>> blocks = new ArrayList<>(prompt.system().size());
+        for (Prompt.Block block : prompt.system()) {
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("type", "text");
+            json.put("text", block.text());
+            if (block.cacheBreakpoint()) {
+                json.put("cache_control", Map.of("type", "ephemeral"));
             }
-        });
+            blocks.add(json);
+        }
+        return blocks;
+    }
+
+    /**
+     * Usage from Anthropic's counters, whose input_tokens excludes the tokens read from or written to the
+     * prompt cache; the returned input count covers the whole prompt
+     */
+    static TokenUsage usageOf(long uncachedInput, long cacheRead, long cacheWrite, long output) {
+        return new TokenUsage(uncachedInput + cacheRead + cacheWrite, cacheRead, cacheWrite, output);
+    }
+
+    private void recordUsage(TokenUsage usage) {
+        usageTotals.add(usage);
+        LOG.info("Claude usage: " + usage);
+    }
+
+    private static long count(Object value) {
+        return value == null ? 0 : Long.parseLong(value.toString());
+    }
+
+    // The extracted event fields; all null when the event cannot be parsed
+    private String[] fieldsOf(SseDecoder.Event event) {
+        try {
+            return eventFields.extract(event.data());
+        } catch (IOException e) {
+            LOG.warn("Failed to parse event: " + event.data(), e);
+            return new String[OUTPUT_TOKENS + 1];
+        }
     }
 
     /**
@@ -132,14 +199,6 @@ public class ClaudeService {
      */
     public String chatCompletion(String systemPrompt, String userMessage) {
         try {
-            URL url = new URL(CLAUDE_API_URL);
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("Content-Type", "application/json");
-            conn.setRequestProperty("x-api-key", apiKey);
-            conn.setRequestProperty("anthropic-version", ANTHROPIC_VERSION);
-            conn.setDoOutput(true);
-
             Map<String, Object> requestBody = Map.of(
                     "model", model,
                     "max_tokens", maxTokens,
@@ -155,20 +214,20 @@ public class ClaudeService {
 
             String jsonRequest = objectMapper.writeValueAsString(requestBody);
 
-            try (OutputStream os = conn.getOutputStream()) {
-                byte[] input = jsonRequest.getBytes(StandardCharsets.UTF_8);
-                os.write(input, 0, input.length);
+            HttpResponse<String> response = http.postJson(CLAUDE_API_URL, jsonRequest,
+                    "x-api-key", apiKey, "anthropic-version", ANTHROPIC_VERSION);
+            if (response.statusCode() != 200) {
+                LOG.error("Claude API error: " + response.body());
+                throw new RuntimeException("Claude API error: " + response.statusCode());
             }
 
-            int responseCode = conn.getResponseCode();
-            if (responseCode != 200) {
-                String error = new String(conn.getErrorStream().readAllBytes(), StandardCharsets.UTF_8);
-                LOG.error("Claude API error: " + error);
-                throw new RuntimeException("Claude API error: " + responseCode);
-            }
+            Map<String, Object> responseMap = objectMapper.readValue(response.body(), Map.class);
 
-            String response = new String(conn.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
-            Map<String, Object> responseMap = objectMapper.readValue(response, Map.class);
+            Map<String, Object> usage = (Map<String, Object>) responseMap.get("usage");
+            if (usage != null) {
+                recordUsage(usageOf(count(usage.get("input_tokens")), count(usage.get("cache_read_input_tokens")),
+                        count(usage.get("cache_creation_input_tokens")), count(usage.get("output_tokens"))));
+            }
 
             List<Map<String, Object>> content = (List<Map<String, Object>>) responseMap.get("content");
             if (content != null && !content.isEmpty()) {
@@ -1,15 +1,36 @@
 package com.fklein.services;
 
+import com.fklein.services.embedding.BulkEmbedder;
+import com.fklein.services.embedding.DimensionReduction;
+import com.fklein.services.embedding.EmbeddingCache;
+import com.fklein.services.embedding.EmbeddingCoalescer;
+import com.fklein.services.embedding.EmbeddingResponseDecoder;
+import com.fklein.services.embedding.EmbeddingStore;
+import com.fklein.services.embedding.LocalEmbeddingModel;
+import com.fklein.services.embedding.TokenBucket;
+import com.fklein.services.http.UpstreamHttpClient;
+import com.fklein.services.http.UpstreamStatusException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -18,6 +39,10 @@ public class EmbeddingService {
 
     private static final Logger LOG = Logger.getLogger(EmbeddingService.class);
 
+    @Inject
+    UpstreamHttpClient http;
+
+    // "voyageai", "openai", or "local" (in-process, no network)
     @ConfigProperty(name = "embeddings.provider", defaultValue = "voyageai")
     String provider;
 
@@ -27,161 +52,347 @@ public class EmbeddingService {
     @ConfigProperty(name = "embeddings.model", defaultValue = "voyage-3")
     String model;
 
+    // Target vector size (Matryoshka-style shortening) for remote providers; unset keeps the native size
+    @ConfigProperty(name = "embeddings.dimensions")
+    Optional<Integer> dimensions;
+
+    // Log the recall of the shortened vectors against full-size ones after indexing
+    @ConfigProperty(name = "embeddings.dimensions.verify", defaultValue = "false")
+    boolean verifyDimensions;
+
+    @ConfigProperty(name = "embeddings.local.dimension", defaultValue = "512")
+    int localDimension;
+
+    @ConfigProperty(name = "embeddings.cache.enabled", defaultValue = "true")
+    boolean cacheEnabled;
+
+    // Memory bound of the query cache, keys and vectors included
+    @ConfigProperty(name = "embeddings.cache.max-bytes", defaultValue = "16777216")
+    long cacheMaxBytes;
+
+    @ConfigProperty(name = "embeddings.cache.ttl")
+    Optional<Duration> cacheTtl;
+
+    // Persistent content-addressed cache of document embeddings, so unchanged texts are never re-embedded
+    @ConfigProperty(name = "embeddings.store.enabled", defaultValue = "true")
+    boolean storeEnabled;
+
+    @ConfigProperty(name = "embeddings.store.directory", defaultValue = ".cache/embeddings")
+    String storeDirectory;
+
+    // Single-text calls wait at most this long for others to share a batch request with
+    @ConfigProperty(name = "embeddings.coalesce.max-wait", defaultValue = "5ms")
+    Duration coalesceMaxWait;
+
+    // A batch is sent as soon as it holds this many texts; 1 disables coalescing
+    @ConfigProperty(name = "embeddings.coalesce.max-batch", defaultValue = "64")
+    int coalesceMaxBatch;
+
+    // Provider request limits: larger inputs are split into sub-batches within both
+    @ConfigProperty(name = "embeddings.bulk.max-items", defaultValue = "128")
+    int bulkMaxItems;
+
+    @ConfigProperty(name = "embeddings.bulk.max-tokens", defaultValue = "50000")
+    int bulkMaxTokens;
+
+    // Sub-batch requests in flight at once
+    @ConfigProperty(name = "embeddings.bulk.concurrency", defaultValue = "4")
+    int bulkConcurrency;
+
+    // Estimated tokens sent per minute; 0 disables rate limiting
+    @ConfigProperty(name = "embeddings.bulk.tokens-per-minute", defaultValue = "0")
+    long bulkTokensPerMinute;
+
+    @ConfigProperty(name = "embeddings.bulk.max-attempts", defaultValue = "3")
+    int bulkMaxAttempts;
+
+    @ConfigProperty(name = "embeddings.bulk.retry-backoff", defaultValue = "500ms")
+    Duration bulkRetryBackoff;
+
     private static final String VOYAGE_API_URL = "https://api.voyageai.com/v1/embeddings";
     private static final String OPENAI_API_URL = "https://api.openai.com/v1/embeddings";
 
     private final ObjectMapper objectMapper = new ObjectMapper();
+    private final EmbeddingResponseDecoder responseDecoder = new EmbeddingResponseDecoder(objectMapper.getFactory());
+
+    // Query embeddings by normalized text; null when disabled
+    private EmbeddingCache cache;
+    // Document embeddings on disk; null when disabled or unavailable
+    private EmbeddingStore store;
+    // In-process model when the provider is "local"; the remote pipeline below is then unused
+    private LocalEmbeddingModel localModel;
+    // Splits, parallelizes, rate-limits and retries provider requests
+    private BulkEmbedder bulkEmbedder;
+    // Same pipeline without embeddings.dimensions, for the recall check; null unless that check is on
+    private BulkEmbedder fullSizeEmbedder;
+    // Batches concurrent single-text calls into one request
+    private EmbeddingCoalescer coalescer;
+
+    @PostConstruct
+    void init() {
+        if ("local".equals(provider)) {
+            localModel = new LocalEmbeddingModel(localDimension);
+            LOG.info("Using local " + localModel.name() + " embeddings, no embedding API calls will be made");
+            return;
+        }
+        TokenBucket rateLimit = bulkTokensPerMinute > 0
+                ? new TokenBucket(bulkTokensPerMinute, Duration.ofMinutes(1)) : null;
+        bulkEmbedder = new BulkEmbedder(this::requestEmbeddings, bulkMaxItems, bulkMaxTokens, bulkConcurrency,
+                rateLimit, bulkMaxAttempts, bulkRetryBackoff);
+        if (verifyDimensions && dimensions.isPresent()) {
+            // Shares the rate limit, so the extra requests count against the same provider quota
+            fullSizeEmbedder = new BulkEmbedder(texts -> requestEmbeddings(texts, false), bulkMaxItems,
+                    bulkMaxTokens, bulkConcurrency, rateLimit, bulkMaxAttempts, bulkRetryBackoff);
+        }
+        coalescer = new EmbeddingCoalescer(bulkEmbedder::embedAll, coalesceMaxWait, coalesceMaxBatch);
+        if (cacheEnabled) {
+            cache = new EmbeddingCache(cacheMaxBytes, cacheTtl.orElse(null));
+        }
+        if (storeEnabled) {
+            Path file = Path.of(storeDirectory, "embeddings.log");
+            try {
+                store = EmbeddingStore.open(file);
+                LOG.info("Embedding store " + file.toAbsolutePath() + " holds " + store.size() + " vectors");
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("Embedding store " + file.toAbsolutePath() + " unavailable, every text will be embedded: "
+                        + e.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    void close() {
+        if (coalescer != null) {
+            coalescer.close();
+            bulkEmbedder.close();
+        }
+        if (fullSizeEmbedder != null) {
+            fullSizeEmbedder.close();
+        }
+        if (store != null) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                LOG.warn("Failed to close embedding store: " + e.getMessage());
+            }
+        }
+    }
 
     /**
-     * Generate embeddings for a single text
+     * Generate embeddings for a single text, served from the query cache when possible
      */
     public float[] generateEmbedding(String text) {
-        try {
-            String apiUrl = getApiUrl();
-            URL url = new URL(apiUrl);
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("Content-Type", "application/json");
-
-            if ("voyageai".equals(provider)) {
-                conn.setRequestProperty("Authorization", "Bearer " + apiKey);
-            } else if ("openai".equals(provider)) {
-                conn.setRequestProperty("Authorization", "Bearer " + apiKey);
-            }
-
-            conn.setDoOutput(true);
+        if (localModel != null) {
+            return localModel.embed(text);
+        }
+        float[] cached = cachedEmbedding(text);
+        return cached != null ? cached : fetchEmbedding(text);
+    }
 
-            Map<String, Object> requestBody = Map.of(
-                    "input", text,
-                    "model", model
-            );
+    /**
+     * The cached embedding of a text, or null if it has to be fetched
+     */
+    public float[] cachedEmbedding(String text) {
+        if (cache == null) {
+            return null;
+        }
+        float[] cached = cache.get(EmbeddingCache.normalize(text));
+        if (cached != null) {
+            LOG.debug("Embedding cache hit");
+        }
+        return cached;
+    }
 
-            String jsonRequest = objectMapper.writeValueAsString(requestBody);
+    /**
+     * Query cache counters, or null when the cache is disabled
+     */
+    public EmbeddingCache.Stats cacheStats() {
+        return cache == null ? null : cache.stats();
+    }
 
-            try (OutputStream os = conn.getOutputStream()) {
-                byte[] input = jsonRequest.getBytes(StandardCharsets.UTF_8);
-                os.write(input, 0, input.length);
+    /**
+     * Embed a single text through the coalescer, bypassing the cache lookup but populating it.
+     * Concurrent calls within the coalescing window share one batch request.
+     */
+    public CompletableFuture<float[]> fetchEmbeddingAsync(String text) {
+        if (localModel != null) {
+            return CompletableFuture.completedFuture(localModel.embed(text));
+        }
+        return coalescer.submit(text).thenApply(embedding -> {
+            if (cache != null) {
+                cache.put(EmbeddingCache.normalize(text), embedding);
             }
+            return embedding.clone();
+        });
+    }
 
-            int responseCode = conn.getResponseCode();
-            if (responseCode != 200) {
-                String error = new String(conn.getErrorStream().readAllBytes(), StandardCharsets.UTF_8);
-                LOG.error("Embedding API error: " + error);
-                throw new RuntimeException("Embedding API error: " + responseCode);
+    private float[] fetchEmbedding(String text) {
+        try {
+            return fetchEmbeddingAsync(text).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
             }
+            throw new RuntimeException("Failed to generate embedding", e.getCause());
+        }
+    }
 
-            String response = new String(conn.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
-            Map<String, Object> responseMap = objectMapper.readValue(response, Map.class);
+    /**
+     * Generate embeddings for multiple texts (batch).
+     * Texts already in the embedding store are served from disk; only the misses are sent to the provider,
+     * split into concurrent, rate-limited sub-batches.
+     */
+    public List<float[]> generateEmbeddings(List<String> texts) {
+        if (localModel != null) {
+            return texts.stream().map(localModel::embed).toList();
+        }
+        if (store == null) {
+            return bulkEmbedder.embedAll(texts);
+        }
 
-            List<Map<String, Object>> data = (List<Map<String, Object>>) responseMap.get("data");
-            if (data != null && !data.isEmpty()) {
-                List<Double> embeddingList = (List<Double>) data.get(0).get("embedding");
+        float[][] embeddings = new float[texts.size()][];
+        String[] keys = new String[texts.size()];
+        // Missing texts, deduplicated, mapped to their store key
+        Map<String, String> missing = new LinkedHashMap<>();
+        String space = fingerprint();
+        int stored = 0;
+        for (int i = 0; i < texts.size(); i++) {
+            keys[i] = EmbeddingStore.key(space, texts.get(i));
+            embeddings[i] = store.get(keys[i]);
+            if (embeddings[i] == null) {
+                missing.put(texts.get(i), keys[i]);
+            } else {
+                stored++;
+            }
+        }
 
-                // Convert List<Double> to float[]
-                float[] embedding = new float[embeddingList.size()];
-                for (int i = 0; i < embeddingList.size(); i++) {
-                    embedding[i] = embeddingList.get(i).floatValue();
+        if (!missing.isEmpty()) {
+            List<String> missingTexts = new ArrayList<>(missing.keySet());
+            List<float[]> fetched = bulkEmbedder.embedAll(missingTexts);
+            Map<String, float[]> records = new LinkedHashMap<>();
+            for (int i = 0; i < missingTexts.size(); i++) {
+                records.put(missing.get(missingTexts.get(i)), fetched.get(i));
+            }
+            for (int i = 0; i < texts.size(); i++) {
+                if (embeddings[i] == null) {
+                    embeddings[i] = records.get(keys[i]).clone();
                 }
-
-                LOG.info("Generated embedding of size: " + embedding.length);
-                return embedding;
             }
-
-            throw new RuntimeException("No embedding returned from API");
-
-        } catch (Exception e) {
-            LOG.error("Error generating embedding", e);
-            throw new RuntimeException("Failed to generate embedding", e);
+            try {
+                store.putAll(records);
+            } catch (IOException e) {
+                LOG.warn("Failed to persist embeddings: " + e.getMessage());
+            }
         }
+        LOG.info("Embeddings for " + texts.size() + " texts: " + stored + " from the embedding store, "
+                + missing.size() + " requested");
+        return Arrays.asList(embeddings);
     }
 
     /**
-     * Generate embeddings for multiple texts (batch)
+     * Retire stored embeddings of every text not in {@code texts}, the complete current document set,
+     * so the embeddings of edited-away CV content are compacted out of the store on a later start
      */
-    public List<float[]> generateEmbeddings(List<String> texts) {
+    public void retainStoredEmbeddings(List<String> texts) {
+        if (store == null) {
+            return;
+        }
+        String space = fingerprint();
+        List<String> keys = texts.stream().map(text -> EmbeddingStore.key(space, text)).toList();
         try {
-            String apiUrl = getApiUrl();
-            URL url = new URL(apiUrl);
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("Content-Type", "application/json");
-
-            if ("voyageai".equals(provider)) {
-                conn.setRequestProperty("Authorization", "Bearer " + apiKey);
-            } else if ("openai".equals(provider)) {
-                conn.setRequestProperty("Authorization", "Bearer " + apiKey);
-            }
-
-            conn.setDoOutput(true);
-
-            Map<String, Object> requestBody = Map.of(
-                    "input", texts,
-                    "model", model
-            );
+            store.retainOnly(keys);
+        } catch (IOException e) {
+            LOG.warn("Failed to retire stale embeddings: " + e.getMessage());
+        }
+    }
 
-            String jsonRequest = objectMapper.writeValueAsString(requestBody);
+    private List<float[]> requestEmbeddings(List<String> texts) {
+        return requestEmbeddings(texts, true);
+    }
 
-            try (OutputStream os = conn.getOutputStream()) {
-                byte[] input = jsonRequest.getBytes(StandardCharsets.UTF_8);
-                os.write(input, 0, input.length);
+    /**
+     * @param reduced whether to apply embeddings.dimensions; false fetches full-size vectors
+     */
+    private List<float[]> requestEmbeddings(List<String> texts, boolean reduced) {
+        try {
+            Map<String, Object> requestBody = new LinkedHashMap<>();
+            requestBody.put("input", texts);
+            requestBody.put("model", model);
+            Integer target = reduced ? dimensions.orElse(null) : null;
+            if (target != null && supportsDimensionsParameter()) {
+                requestBody.put("dimensions", target);
             }
 
-            int responseCode = conn.getResponseCode();
-            if (responseCode != 200) {
-                String error = new String(conn.getErrorStream().readAllBytes(), StandardCharsets.UTF_8);
-                LOG.error("Embedding API error: " + error);
-                throw new RuntimeException("Embedding API error: " + responseCode);
-            }
+            String jsonRequest = objectMapper.writeValueAsString(requestBody);
 
-            String response = new String(conn.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
-            Map<String, Object> responseMap = objectMapper.readValue(response, Map.class);
-
-            List<Map<String, Object>> data = (List<Map<String, Object>>) responseMap.get("data");
-            if (data != null && !data.isEmpty()) {
-                return data.stream().map(item -> {
-                    List<Double> embeddingList = (List<Double>) item.get("embedding");
-                    float[] embedding = new float[embeddingList.size()];
-                    for (int i = 0; i < embeddingList.size(); i++) {
-                        embedding[i] = embeddingList.get(i).floatValue();
-                    }
-                    return embedding;
-                }).toList();
+            // Both supported providers authenticate with a bearer token
+            HttpResponse<InputStream> response = http.postJsonStreaming(getApiUrl(), jsonRequest,
+                    "Authorization", "Bearer " + apiKey);
+            try (InputStream body = response.body()) {
+                if (response.statusCode() != 200) {
+                    String error = new String(body.readAllBytes(), StandardCharsets.UTF_8);
+                    // Kept as the cause so the bulk embedder can tell transient statuses from permanent ones
+                    throw new UpstreamStatusException(response.statusCode(), error);
+                }
+                // Decoded while it streams in, straight into float[] without boxing
+                List<float[]> embeddings = responseDecoder.decode(body);
+                if (embeddings.size() != texts.size()) {
+                    throw new RuntimeException("Expected " + texts.size() + " embeddings but got "
+                            + embeddings.size());
+                }
+                if (target == null) {
+                    return embeddings;
+                }
+                // Providers without a dimensions parameter return full vectors: shorten them here
+                List<float[]> shortened = new ArrayList<>(embeddings.size());
+                for (float[] embedding : embeddings) {
+                    shortened.add(DimensionReduction.truncate(embedding, target));
+                }
+                return shortened;
             }
 
-            throw new RuntimeException("No embeddings returned from API");
-
         } catch (Exception e) {
-            LOG.error("Error generating embeddings", e);
+            // Logged once by the bulk embedder, after its retries give up
             throw new RuntimeException("Failed to generate embeddings", e);
         }
     }
 
-    private String getApiUrl() {
-        return switch (provider) {
-            case "voyageai" -> VOYAGE_API_URL;
-            case "openai" -> OPENAI_API_URL;
-            default -> throw new IllegalArgumentException("Unsupported embeddings provider: " + provider);
-        };
+    /**
+     * Identifies the embedding space: vectors from different fingerprints are not comparable
+     */
+    public String fingerprint() {
+        if (localModel != null) {
+            return provider + "/" + localModel.name();
+        }
+        return provider + "/" + model + dimensions.map(target -> "/" + target).orElse("");
     }
 
     /**
-     * Calculate cosine similarity between two embeddings
+     * Recall@k of nearest-neighbour search with the reduced-dimension vectors of {@code texts} against
+     * their full-size vectors, when embeddings.dimensions.verify is on (costs extra embedding requests for
+     * up to 200 texts, split and rate-limited like any bulk call). NaN when disabled or when no reduction
+     * is configured.
      */
-    public double cosineSimilarity(float[] a, float[] b) {
-        if (a.length != b.length) {
-            throw new IllegalArgumentException("Embeddings must have the same length");
+    public double reducedDimensionRecall(List<String> texts, int k) {
+        if (fullSizeEmbedder == null || texts.size() < 2) {
+            return Double.NaN;
         }
+        List<String> sample = texts.subList(0, Math.min(texts.size(), 200));
+        List<float[]> full = fullSizeEmbedder.embedAll(sample);
+        List<float[]> reduced = generateEmbeddings(sample);
+        return DimensionReduction.recallAtK(full, reduced, k);
+    }
 
-        double dotProduct = 0.0;
-        double normA = 0.0;
-        double normB = 0.0;
-
-        for (int i = 0; i < a.length; i++) {
-            dotProduct += a[i] * b[i];
-            normA += a[i] * a[i];
-            normB += b[i] * b[i];
-        }
+    // OpenAI's text-embedding-3 models shorten natively; everything else is truncated after the fact
+    private boolean supportsDimensionsParameter() {
+        return "openai".equals(provider) && model.startsWith("text-embedding-3");
+    }
 
-        return dotProduct / (Math.sqrt(normA) * Math.sqrt(normB));
+    private String getApiUrl() {
+        return switch (provider) {
+            case "voyageai" -> VOYAGE_API_URL;
+            case "openai" -> OPENAI_API_URL;
+            default -> throw new IllegalArgumentException("Unsupported embeddings provider: " + provider);
+        };
     }
 }
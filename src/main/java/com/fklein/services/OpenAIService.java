@@ -1,26 +1,34 @@
 package com.fklein.services;
 
+import com.fklein.services.http.JsonFieldExtractor;
+import com.fklein.services.http.SseDecoder;
+import com.fklein.services.http.UpstreamHttpClient;
+import com.fklein.services.http.UpstreamStatusException;
+import com.fklein.services.llm.LlmProvider;
+import com.fklein.services.llm.Prompt;
+import com.fklein.services.llm.TokenUsage;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.net.http.HttpResponse;
 import java.util.List;
 import java.util.Map;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.smallrye.mutiny.Multi;
 
 @ApplicationScoped
-public class OpenAIService {
+public class OpenAIService implements LlmProvider {
 
     private static final Logger LOG = Logger.getLogger(OpenAIService.class);
 
+    @Inject
+    UpstreamHttpClient http;
+
     @ConfigProperty(name = "openai.api.key")
     String apiKey;
 
@@ -34,97 +42,109 @@ public class OpenAIService {
 
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    // Only the fields the stream needs are read from each chunk: the delta, and usage on the final one
+    private final JsonFieldExtractor chunkFields = new JsonFieldExtractor(objectMapper.getFactory(),
+            "choices.0.delta.content", "usage.prompt_tokens", "usage.prompt_tokens_details.cached_tokens",
+            "usage.completion_tokens");
+
+    private final TokenUsage.Totals usageTotals = new TokenUsage.Totals();
+
+    @Override
+    public String name() {
+        return "openai";
+    }
+
+    @Override
+    public boolean isConfigured() {
+        return !apiKey.isBlank() && !UNSET_API_KEY.equals(apiKey);
+    }
+
     /**
      * Send a message to OpenAI and get a streaming response
      */
     public Multi<String> streamChatCompletion(String systemPrompt, String userMessage) {
-        return Multi.createFrom().emitter(emitter -> {
-            try {
-                URL url = new URL(OPENAI_API_URL);
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("POST");
-                conn.setRequestProperty("Content-Type", "application/json");
-                conn.setRequestProperty("Authorization", "Bearer " + apiKey);
-                conn.setDoOutput(true);
-
-                // Build request body
-                Map<String, Object> requestBody = Map.of(
-                        "model", model,
-                        "max_tokens", maxTokens,
-                        "stream", true,
-                        "messages", List.of(
-                                Map.of(
-                                        "role", "system",
-                                        "content", systemPrompt
-                                ),
-                                Map.of(
-                                        "role", "user",
-                                        "content", userMessage
-                                )
+        return streamChatCompletion(Prompt.of(systemPrompt, userMessage));
+    }
+
+    /**
+     * Send a prompt to OpenAI and get a streaming response.
+     * OpenAI caches long prompt prefixes automatically, so the system blocks are sent as one message in their
+     * stable-first order; the cache usage reported at the end of the stream is logged and added to
+     * {@link #usageTotals()}.
+     * No thread is held while the answer streams; the upstream is read as fast as the subscriber consumes.
+     */
+    @Override
+    public Multi<String> streamChatCompletion(Prompt prompt) {
+        // Build request body
+        Map<String, Object> requestBody = Map.of(
+                "model", model,
+                "max_tokens", maxTokens,
+                "stream", true,
+                "stream_options", Map.of("include_usage", true),
+                "messages", List.of(
+                        Map.of(
+                                "role", "system",
+                                "content", prompt.systemText()
+                        ),
+                        Map.of(
+                                "role", "user",
+                                "content", prompt.user()
                         )
-                );
-
-                String jsonRequest = objectMapper.writeValueAsString(requestBody);
-                LOG.info("Sending request to OpenAI API: " + model);
-
-                try (OutputStream os = conn.getOutputStream()) {
-                    byte[] input = jsonRequest.getBytes(StandardCharsets.UTF_8);
-                    os.write(input, 0, input.length);
-                }
-
-                int responseCode = conn.getResponseCode();
-                if (responseCode != 200) {
-                    String error = new String(conn.getErrorStream().readAllBytes(), StandardCharsets.UTF_8);
-                    LOG.error("OpenAI API error: " + error);
-                    emitter.fail(new RuntimeException("OpenAI API error: " + responseCode + " - " + error));
-                    return;
-                }
-
-                // Read streaming response
-                try (BufferedReader br = new BufferedReader(
-                        new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
-                    String line;
-                    while ((line = br.readLine()) != null) {
-                        if (line.startsWith("data: ")) {
-                            String data = line.substring(6);
-                            if ("[DONE]".equals(data)) {
-                                break;
-                            }
-                            try {
-                                Map<String, Object> event = objectMapper.readValue(data, Map.class);
-                                List<Map<String, Object>> choices = (List<Map<String, Object>>) event.get("choices");
-
-                                if (choices != null && !choices.isEmpty()) {
-                                    Map<String, Object> choice = choices.get(0);
-                                    Map<String, Object> delta = (Map<String, Object>) choice.get("delta");
-
-                                    if (delta != null && delta.containsKey("content")) {
-                                        String content = (String) delta.get("content");
-                                        if (content != null && !content.isEmpty()) {
-                                            emitter.emit(content);
-                                        }
-                                    }
-
-                                    // Check for finish reason
-                                    String finishReason = (String) choice.get("finish_reason");
-                                    if ("stop".equals(finishReason)) {
-                                        break;
-                                    }
-                                }
-                            } catch (Exception e) {
-                                LOG.warn("Failed to parse event: " + data, e);
-                            }
-                        }
+                )
+        );
+
+        String jsonRequest;
+        try {
+            jsonRequest = objectMapper.writeValueAsString(requestBody);
+        } catch (JsonProcessingException e) {
+            return Multi.createFrom().failure(e);
+        }
+        LOG.info("Sending request to OpenAI API: " + model);
+
+        return SseDecoder.events(http.streamJson(OPENAI_API_URL, jsonRequest, "Authorization", "Bearer " + apiKey))
+                .select().first(event -> !"[DONE]".equals(event.data()))
+                .onItem().transform(this::contentOf)
+                .select().where(content -> !content.isEmpty())
+                .onFailure().transform(e -> {
+                    if (e instanceof UpstreamStatusException status) {
+                        LOG.error("OpenAI API error: " + status.body());
+                        return new RuntimeException("OpenAI API error: " + status.statusCode() + " - " + status.body());
                     }
-                }
+                    LOG.error("Error calling OpenAI API", e);
+                    return e;
+                });
+    }
 
-                emitter.complete();
+    /**
+     * Token usage summed over every completed response, prompt cache hits included
+     */
+    @Override
+    public TokenUsage usageTotals() {
+        return usageTotals.sum();
+    }
 
-            } catch (Exception e) {
-                LOG.error("Error calling OpenAI API", e);
-                emitter.fail(e);
+    // Delta text of one stream chunk, empty when it carries none or cannot be parsed.
+    // The usage chunk sent before [DONE] is recorded here.
+    private String contentOf(SseDecoder.Event event) {
+        try {
+            String[] fields = chunkFields.extract(event.data());
+            if (fields[1] != null) {
+                recordUsage(new TokenUsage(count(fields[1]), count(fields[2]), 0, count(fields[3])));
             }
-        });
+            return fields[0] != null ? fields[0] : "";
+        } catch (IOException e) {
+            LOG.warn("Failed to parse event: " + event.data(), e);
+            return "";
+        }
+    }
+
+    private void recordUsage(TokenUsage usage) {
+        usageTotals.add(usage);
+        LOG.info("OpenAI usage: " + usage);
+    }
+
+    private static long count(Object value) {
+        return value == null ? 0 : Long.parseLong(value.toString());
     }
 
     /**
@@ -132,13 +152,6 @@ public class OpenAIService {
      */
     public String chatCompletion(String systemPrompt, String userMessage) {
         try {
-            URL url = new URL(OPENAI_API_URL);
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("Content-Type", "application/json");
-            conn.setRequestProperty("Authorization", "Bearer " + apiKey);
-            conn.setDoOutput(true);
-
             Map<String, Object> requestBody = Map.of(
                     "model", model,
                     "max_tokens", maxTokens,
@@ -157,20 +170,22 @@ public class OpenAIService {
 
             String jsonRequest = objectMapper.writeValueAsString(requestBody);
 
-            try (OutputStream os = conn.getOutputStream()) {
-                byte[] input = jsonRequest.getBytes(StandardCharsets.UTF_8);
-                os.write(input, 0, input.length);
+            HttpResponse<String> response = http.postJson(OPENAI_API_URL, jsonRequest,
+                    "Authorization", "Bearer " + apiKey);
+            if (response.statusCode() != 200) {
+                LOG.error("OpenAI API error: " + response.body());
+                throw new RuntimeException("OpenAI API error: " + response.statusCode());
             }
 
-            int responseCode = conn.getResponseCode();
-            if (responseCode != 200) {
-                String error = new String(conn.getErrorStream().readAllBytes(), StandardCharsets.UTF_8);
-                LOG.error("OpenAI API error: " + error);
-                throw new RuntimeException("OpenAI API error: " + responseCode);
-            }
+            Map<String, Object> responseMap = objectMapper.readValue(response.body(), Map.class);
 
-            String response = new String(conn.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
-            Map<String, Object> responseMap = objectMapper.readValue(response, Map.class);
+            Map<String, Object> usage = (Map<String, Object>) responseMap.get("usage");
+            if (usage != null) {
+                Map<String, Object> details = (Map<String, Object>) usage.get("prompt_tokens_details");
+                recordUsage(new TokenUsage(count(usage.get("prompt_tokens")),
+                        details == null ? 0 : count(details.get("cached_tokens")), 0,
+                        count(usage.get("completion_tokens"))));
+            }
 
             List<Map<String, Object>> choices = (List<Map<String, Object>>) responseMap.get("choices");
             if (choices != null && !choices.isEmpty()) {
@@ -2,16 +2,31 @@ package com.fklein.services;
 
 import com.fklein.models.DocumentChunk;
 import com.fklein.models.ProfileData;
+import com.fklein.services.chat.AnswerCache;
+import com.fklein.services.chat.SingleFlight;
+import com.fklein.services.embedding.EmbeddingCache;
+import com.fklein.services.llm.LlmRouter;
+import com.fklein.services.llm.Prompt;
+import com.fklein.services.llm.PromptBuilder;
+import com.fklein.services.vector.Filter;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.quarkus.runtime.StartupEvent;
 import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.enterprise.event.Observes;
 import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
 import java.util.*;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 @ApplicationScoped
@@ -20,7 +35,7 @@ public class RagService {
     private static final Logger LOG = Logger.getLogger(RagService.class);
 
     @Inject
-    OpenAIService openAIService;
+    LlmRouter llmRouter;
 
     @Inject
     EmbeddingService embeddingService;
@@ -28,8 +43,89 @@ public class RagService {
     @Inject
     VectorStoreService vectorStoreService;
 
+    private static final String PERSONA =
+            "You are an assistant representing Frédéric Klein, Senior Solution Architect at Red Hat. " +
+                    "You answer questions professionally and concisely using information from his CV.";
+
+    private static final String INSTRUCTIONS =
+            "Instructions:\n" +
+                    "- IMPORTANT: Always respond in the SAME LANGUAGE as the user's question (French if question is in French, English if in English)\n" +
+                    "- Use the CV context information to answer precisely\n" +
+                    "- If the question is about Frédéric, respond in first person\n" +
+                    "- If the information is not in the context, say so honestly\n" +
+                    "- Keep responses concise (2-3 paragraphs maximum)";
+
+    // Chunk "type" metadata -> French/English words that identify questions about that CV section;
+    // a trailing '*' matches any word starting with the stem
+    private static final Map<String, Pattern> SECTION_PATTERNS = new LinkedHashMap<>();
+
+    static {
+        SECTION_PATTERNS.put("education", section(
+                "étudi*", "etudi*", "study", "studied", "studies", "education", "formation", "diplôm*", "diplom*",
+                "degree*", "universit*", "école*", "ecole*", "school*", "master", "masters", "bachelor*"));
+        SECTION_PATTERNS.put("certifications", section("certif*"));
+        SECTION_PATTERNS.put("languages", section("langue*", "language*", "speak*", "parle*"));
+        SECTION_PATTERNS.put("projects", section("projet*", "project*", "github"));
+        SECTION_PATTERNS.put("skills", section(
+                "compétence*", "competence*", "skill*", "technolog*", "stack", "outil*", "tool", "tools",
+                "savoir-faire"));
+        SECTION_PATTERNS.put("experience", section(
+                "expérience*", "experience*", "travaill*", "work", "works", "worked", "working", "job", "jobs",
+                "poste", "postes", "employ*", "career*", "carrière*", "entreprise*", "company", "companies"));
+    }
+
+    // Chunks sent to the model
+    private static final int CONTEXT_CHUNKS = 5;
+
+    // Chunk type of the profile summary, searched alongside whichever section a question targets
+    private static final String PERSONAL_TYPE = "personal";
+
+    private static Pattern section(String... words) {
+        String alternation = Arrays.stream(words)
+                .map(word -> word.endsWith("*")
+                        ? Pattern.quote(word.substring(0, word.length() - 1)) + "[\\w-]*"
+                        : Pattern.quote(word))
+                .collect(Collectors.joining("|"));
+        return Pattern.compile("\\b(?:" + alternation + ")\\b",
+                Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE | Pattern.UNICODE_CHARACTER_CLASS);
+    }
+
+    // Semantic cache of completed answers, keyed by query embedding and vector store generation
+    @ConfigProperty(name = "chat.answer-cache.enabled", defaultValue = "true")
+    boolean answerCacheEnabled;
+
+    @ConfigProperty(name = "chat.answer-cache.max-entries", defaultValue = "256")
+    int answerCacheMaxEntries;
+
+    @ConfigProperty(name = "chat.answer-cache.ttl")
+    Optional<Duration> answerCacheTtl;
+
+    // Minimum cosine similarity between two questions for one to reuse the other's answer
+    @ConfigProperty(name = "chat.answer-cache.similarity-threshold", defaultValue = "0.95")
+    double answerCacheThreshold;
+
+    // Delay between replayed words of a cached answer; zero sends it in one piece
+    @ConfigProperty(name = "chat.answer-cache.replay-interval", defaultValue = "0ms")
+    Duration answerCacheReplayInterval;
+
+    // Concurrent identical questions (same normalized text and store generation) share one upstream stream
+    @ConfigProperty(name = "chat.single-flight.enabled", defaultValue = "true")
+    boolean singleFlightEnabled;
+
     private ProfileData profileData;
     private final ObjectMapper objectMapper = new ObjectMapper();
+    private AnswerCache answerCache;
+    private SingleFlight<FlightKey, String> singleFlight;
+
+    @PostConstruct
+    void init() {
+        if (answerCacheEnabled) {
+            answerCache = new AnswerCache(answerCacheMaxEntries, answerCacheTtl.orElse(null), answerCacheThreshold);
+        }
+        if (singleFlightEnabled) {
+            singleFlight = new SingleFlight<>();
+        }
+    }
 
     /**
      * Initialize the RAG system on application startup
@@ -75,21 +171,40 @@ public class RagService {
         List<DocumentChunk> chunks = createSemanticChunks(profileData);
         LOG.info("Created " + chunks.size() + " semantic chunks");
 
+        // Reuse the persisted vectors when neither the chunks nor the embedding model changed
+        String sourceHash = sourceHash(chunks);
+        if (vectorStoreService.loadSnapshot(sourceHash)) {
+            LOG.info("Indexed " + chunks.size() + " chunks from snapshot, no embedding calls needed");
+            return;
+        }
+
         // Generate embeddings for all chunks
         List<String> chunkTexts = chunks.stream()
                 .map(DocumentChunk::getContent)
                 .collect(Collectors.toList());
 
         List<float[]> embeddings = embeddingService.generateEmbeddings(chunkTexts);
+        embeddingService.retainStoredEmbeddings(chunkTexts);
 
         // Assign embeddings to chunks
         for (int i = 0; i < chunks.size(); i++) {
             chunks.get(i).setEmbedding(embeddings.get(i));
         }
 
-        // Store chunks in vector store
-        vectorStoreService.addChunks(chunks);
+        // Publish as a new store generation; searches keep using the previous one until the swap
+        vectorStoreService.replaceAll(chunks);
         LOG.info("Indexed " + chunks.size() + " chunks in vector store");
+        vectorStoreService.writeSnapshot(sourceHash, chunks);
+
+        double dimensionRecall = embeddingService.reducedDimensionRecall(chunkTexts, 5);
+        if (!Double.isNaN(dimensionRecall)) {
+            LOG.info(String.format("Reduced-dimension embeddings recall@5 against full size: %.3f", dimensionRecall));
+        }
+
+        if (vectorStoreService.isApproximate()) {
+            LOG.info(String.format("Approximate index recall@5 against exact scan: %.3f",
+                    vectorStoreService.measureRecall(100, 5)));
+        }
     }
 
     /**
@@ -117,7 +232,7 @@ public class RagService {
                 profile.getSummary()
         );
         chunks.add(createChunk("chunk-" + chunkId++, personalChunk,
-                Map.of("type", "personal", "name", profile.getPersonalInfo().getName())));
+                Map.of("type", PERSONAL_TYPE, "name", profile.getPersonalInfo().getName())));
 
         // Experience chunks
         if (profile.getExperience() != null) {
@@ -212,52 +327,166 @@ public class RagService {
         return chunks;
     }
 
+    /**
+     * SHA-256 over the embedding model and every chunk's id, content and metadata
+     */
+    private String sourceHash(List<DocumentChunk> chunks) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(embeddingService.fingerprint().getBytes(StandardCharsets.UTF_8));
+        for (DocumentChunk chunk : chunks) {
+            digest.update((byte) 0);
+            digest.update(chunk.getId().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(chunk.getContent().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(new TreeMap<>(chunk.getMetadata()).toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
     private DocumentChunk createChunk(String id, String content, Map<String, String> metadata) {
         DocumentChunk chunk = new DocumentChunk(id, content, metadata);
         return chunk;
     }
 
     /**
-     * Process a user query using RAG
+     * Process a user query using RAG.
+     * Retrieval may block on the embedding call, so it runs on a worker thread rather than the caller's event
+     * loop; the answer then streams from the upstream connection without holding any thread.
      */
     public Multi<String> processQuery(String userQuery) {
+        if (singleFlight == null) {
+            return answerQuery(userQuery);
+        }
+        // Identical questions arriving while one is being answered share its upstream stream
+        FlightKey key = new FlightKey(EmbeddingCache.normalize(userQuery), vectorStoreService.generation());
+        return singleFlight.join(key, () -> answerQuery(userQuery));
+    }
+
+    /**
+     * Single-flight counters, or null when coalescing is disabled
+     */
+    public SingleFlight.Stats singleFlightStats() {
+        return singleFlight == null ? null : singleFlight.stats();
+    }
+
+    private Multi<String> answerQuery(String userQuery) {
+        return Uni.createFrom().item(() -> prepare(userQuery))
+                .runSubscriptionOn(Infrastructure.getDefaultWorkerPool())
+                .onItem().transformToMulti(this::answer);
+    }
+
+    /**
+     * Answer cache counters, or null when the cache is disabled
+     */
+    public AnswerCache.Stats answerCacheStats() {
+        return answerCache == null ? null : answerCache.stats();
+    }
+
+    private Turn prepare(String userQuery) {
         LOG.info("Processing query: " + userQuery);
 
-        // Search for relevant chunks
-        List<DocumentChunk> relevantChunks = vectorStoreService.searchByText(userQuery, 5);
+        // Read before retrieval: an answer built while a reindex lands is stored under the older generation
+        long generation = vectorStoreService.generation();
+        // Null when the embedding provider is slow or down: retrieval then runs on BM25 alone
+        float[] queryEmbedding = vectorStoreService.embedQuery(userQuery);
+        if (answerCache != null && queryEmbedding != null) {
+            String cached = answerCache.get(queryEmbedding, generation);
+            if (cached != null) {
+                LOG.info("Answer cache hit");
+                return new Turn(queryEmbedding, generation, cached, null);
+            }
+        }
+        return new Turn(queryEmbedding, generation, null, buildPrompt(userQuery, queryEmbedding));
+    }
+
+    private Multi<String> answer(Turn turn) {
+        if (turn.cachedAnswer() != null) {
+            return AnswerCache.replay(turn.cachedAnswer(), answerCacheReplayInterval);
+        }
+        Multi<String> stream = llmRouter.streamChatCompletion(turn.prompt());
+        if (answerCache == null || turn.queryEmbedding() == null) {
+            return stream;
+        }
+        // Only answers streamed to completion are cached, never failed or cancelled ones
+        StringBuilder answer = new StringBuilder();
+        return stream
+                .onItem().invoke(answer::append)
+                .onCompletion().invoke(() ->
+                        answerCache.put(turn.queryEmbedding(), turn.generation(), answer.toString()));
+    }
+
+    private Prompt buildPrompt(String userQuery, float[] queryEmbedding) {
+        List<DocumentChunk> relevantChunks = retrieveContext(userQuery, queryEmbedding);
 
         if (relevantChunks.isEmpty()) {
             LOG.warn("No relevant chunks found for query");
-            return openAIService.streamChatCompletion(
-                    "You are an assistant representing Frédéric Klein, Senior Solution Architect at Red Hat. " +
-                            "IMPORTANT: Always respond in the SAME LANGUAGE as the user's question (French if question is in French, English if in English).",
-                    userQuery + "\n\n(Note: No specific information found in the CV for this question)"
-            );
+            return new PromptBuilder()
+                    .stable(PERSONA)
+                    .stable(INSTRUCTIONS)
+                    .build(userQuery + "\n\n(Note: No specific information found in the CV for this question)");
         }
 
-        // Build context from relevant chunks
+        // Chunks arrive best first; their scores are left out because hybrid scores are rank-fusion values,
+        // not similarities the model could interpret
         String context = relevantChunks.stream()
-                .map(chunk -> String.format("[Score: %.3f] %s", chunk.getScore(), chunk.getContent()))
+                .map(DocumentChunk::getContent)
                 .collect(Collectors.joining("\n\n---\n\n"));
 
         LOG.info("Found " + relevantChunks.size() + " relevant chunks");
 
-        // Build system prompt with context
-        String systemPrompt = String.format(
-                "You are an assistant representing Frédéric Klein, Senior Solution Architect at Red Hat. " +
-                        "You answer questions professionally and concisely using information from his CV.\n\n" +
-                        "CV CONTEXT:\n%s\n\n" +
-                        "Instructions:\n" +
-                        "- IMPORTANT: Always respond in the SAME LANGUAGE as the user's question (French if question is in French, English if in English)\n" +
-                        "- Use the context information to answer precisely\n" +
-                        "- If the question is about Frédéric, respond in first person\n" +
-                        "- If the information is not in the context, say so honestly\n" +
-                        "- Keep responses concise (2-3 paragraphs maximum)",
-                context
-        );
+        // Fixed persona and instructions first so they form a cacheable prefix, retrieved context after
+        return new PromptBuilder()
+                .stable(PERSONA)
+                .stable(INSTRUCTIONS)
+                .variable("CV CONTEXT:\n" + context)
+                .build(userQuery);
+    }
+
+    /**
+     * Top chunks for the question. A question that targets one CV section is answered from that section
+     * and the personal summary only; the unfiltered search runs just when those fill fewer than
+     * {@link #CONTEXT_CHUNKS} slots, and tops the context up with the best remaining chunks.
+     */
+    private List<DocumentChunk> retrieveContext(String userQuery, float[] queryEmbedding) {
+        Filter sectionFilter = inferSectionFilter(userQuery);
+        if (sectionFilter == null) {
+            return vectorStoreService.retrieve(userQuery, queryEmbedding, CONTEXT_CHUNKS, null);
+        }
+        List<DocumentChunk> context = new ArrayList<>(
+                vectorStoreService.retrieve(userQuery, queryEmbedding, CONTEXT_CHUNKS, sectionFilter));
+        if (context.size() >= CONTEXT_CHUNKS) {
+            return context;
+        }
+        Set<String> seen = new HashSet<>();
+        context.forEach(chunk -> seen.add(chunk.getId()));
+        for (DocumentChunk chunk : vectorStoreService.retrieve(userQuery, queryEmbedding, CONTEXT_CHUNKS, null)) {
+            if (context.size() >= CONTEXT_CHUNKS) {
+                break;
+            }
+            if (seen.add(chunk.getId())) {
+                context.add(chunk);
+            }
+        }
+        return context;
+    }
 
-        // Stream response from OpenAI
-        return openAIService.streamChatCompletion(systemPrompt, userQuery);
+    /**
+     * Filter for the chunk type a question clearly targets plus the personal summary, e.g. "where did he
+     * study?" targets education. Returns null when no section or more than one section is recognized,
+     * since the question is then too broad to restrict.
+     */
+    static Filter inferSectionFilter(String query) {
+        String target = null;
+        for (Map.Entry<String, Pattern> section : SECTION_PATTERNS.entrySet()) {
+            if (section.getValue().matcher(query).find()) {
+                if (target != null) {
+                    return null;
+                }
+                target = section.getKey();
+            }
+        }
+        return target == null ? null : Filter.where("type", target, PERSONAL_TYPE);
     }
 
     /**
@@ -268,16 +497,26 @@ public class RagService {
     }
 
     /**
-     * Reload and reindex the CV (useful for updates)
+     * Reload and reindex the CV (useful for updates).
+     * The store keeps serving the previous contents until the new ones are fully indexed.
      */
     public void reindexCV() {
         try {
-            vectorStoreService.clear();
             loadAndIndexCV();
+            if (answerCache != null) {
+                answerCache.clear();
+            }
             LOG.info("CV reindexed successfully");
         } catch (Exception e) {
             LOG.error("Failed to reindex CV", e);
             throw new RuntimeException("Failed to reindex CV", e);
         }
     }
+
+    private record FlightKey(String normalizedQuery, long generation) {
+    }
+
+    // Either a cached answer to replay or a prompt to send
+    private record Turn(float[] queryEmbedding, long generation, String cachedAnswer, Prompt prompt) {
+    }
 }
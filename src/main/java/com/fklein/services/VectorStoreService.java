@@ -1,108 +1,365 @@
 package com.fklein.services;
 
 import com.fklein.models.DocumentChunk;
+import com.fklein.services.lexical.Bm25Index;
+import com.fklein.services.vector.EmbeddingMatrix;
+import com.fklein.services.vector.Filter;
+import com.fklein.services.vector.FlatIndex;
+import com.fklein.services.vector.HnswIndex;
+import com.fklein.services.vector.MatrixScan;
+import com.fklein.services.vector.MetadataIndex;
+import com.fklein.services.vector.QuantizedIndex;
+import com.fklein.services.vector.Recall;
+import com.fklein.services.vector.SearchHit;
+import com.fklein.services.vector.SimilarityKernel;
+import com.fklein.services.vector.SimilarityKernels;
+import com.fklein.services.vector.TopK;
+import com.fklein.services.vector.VectorIndex;
+import com.fklein.services.vector.VectorMath;
+import com.fklein.services.vector.VectorSnapshot;
+import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * In-memory vector store. The contents are published as immutable, versioned generations behind an
+ * atomic reference: readers load the current generation and search it without locks, writers build
+ * the next generation (a copy of the current one, or a fresh one for {@link #replaceAll}) and publish
+ * it with a single swap. A superseded generation is reclaimed once the searches still using it finish.
+ */
 @ApplicationScoped
 public class VectorStoreService {
 
     private static final Logger LOG = Logger.getLogger(VectorStoreService.class);
 
+    // Candidates taken from each ranking before fusion
+    private static final int FUSION_DEPTH = 50;
+
+    // Expected norm of the noise added to stored vectors to form recall queries, relative to a unit vector
+    private static final double RECALL_QUERY_NOISE = 0.5;
+    private static final long RECALL_SEED = 42L;
+
     @Inject
     EmbeddingService embeddingService;
 
-    // In-memory storage for document chunks
-    private final Map<String, DocumentChunk> vectorStore = new ConcurrentHashMap<>();
+    @ConfigProperty(name = "vectors.simd.enabled", defaultValue = "true")
+    boolean simdEnabled;
+
+    // Stores with at least this many rows are scanned in parallel fork-join partitions
+    @ConfigProperty(name = "vectors.search.parallel-threshold", defaultValue = "32768")
+    int parallelThreshold;
+
+    // "flat" (exact scan), "hnsw" (approximate graph search) or "int8" (quantized scan with re-ranking)
+    @ConfigProperty(name = "vectors.index.type", defaultValue = "flat")
+    String indexType;
+
+    @ConfigProperty(name = "vectors.hnsw.m", defaultValue = "16")
+    int hnswM;
+
+    @ConfigProperty(name = "vectors.hnsw.ef-construction", defaultValue = "200")
+    int hnswEfConstruction;
+
+    @ConfigProperty(name = "vectors.hnsw.ef-search", defaultValue = "64")
+    int hnswEfSearch;
+
+    // int8 candidates scored per requested result before re-ranking against the floats
+    @ConfigProperty(name = "vectors.int8.oversample", defaultValue = "4")
+    int int8Oversample;
+
+    // With false, only the int8 codes are kept in memory and int8 scores are final
+    @ConfigProperty(name = "vectors.int8.keep-floats", defaultValue = "true")
+    boolean int8KeepFloats;
+
+    // "hybrid" (BM25 + vector, fused), "vector" or "lexical"
+    @ConfigProperty(name = "retrieval.mode", defaultValue = "hybrid")
+    String retrievalMode;
+
+    // Beyond this, query embedding is abandoned and retrieval falls back to BM25 alone
+    @ConfigProperty(name = "retrieval.embedding-timeout", defaultValue = "2s")
+    Duration embeddingTimeout;
+
+    @ConfigProperty(name = "retrieval.rrf-k", defaultValue = "60")
+    int rrfK;
+
+    @ConfigProperty(name = "vectors.snapshot.enabled", defaultValue = "true")
+    boolean snapshotEnabled;
+
+    @ConfigProperty(name = "vectors.snapshot.path", defaultValue = ".cache/vector-store.snapshot")
+    String snapshotPath;
+
+    // The published generation; replaced, never mutated
+    private final AtomicReference<Generation> current = new AtomicReference<>();
+    // Serializes writers only; readers never take it
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // Writes waiting for the lock holder to apply them, see commit()
+    private final Queue<PendingWrite> pendingWrites = new ConcurrentLinkedQueue<>();
+
+    private SimilarityKernel kernel;
+
+    @PostConstruct
+    void init() {
+        kernel = SimilarityKernels.select(simdEnabled);
+        Generation empty = emptyGeneration(0);
+        current.set(empty);
+        LOG.info("Vector store using " + empty.index.name() + " index with " + kernel.name() + " similarity kernel");
+    }
 
     /**
      * Add a document chunk to the vector store
      */
     public void addChunk(DocumentChunk chunk) {
-        if (chunk.getEmbedding() == null || chunk.getEmbedding().length == 0) {
-            throw new IllegalArgumentException("Chunk must have an embedding");
-        }
-        vectorStore.put(chunk.getId(), chunk);
-        LOG.info("Added chunk to vector store: " + chunk.getId());
+        addChunks(List.of(chunk));
     }
 
     /**
-     * Add multiple document chunks to the vector store
+     * Add multiple document chunks to the vector store.
+     * Writes copy the current generation, so batches are much cheaper than repeated single adds;
+     * concurrent writers are group-committed into one copy (see {@link #commit}).
      */
     public void addChunks(List<DocumentChunk> chunks) {
-        chunks.forEach(this::addChunk);
-        LOG.info("Added " + chunks.size() + " chunks to vector store");
+        commit(PendingWrite.add(chunks, normalizeAll(chunks)));
+        LOG.info("Added " + chunks.size() + (chunks.size() == 1 ? " chunk" : " chunks") + " to vector store");
+    }
+
+    /**
+     * Replace the whole store contents. The new generation is built off to the side while searches keep
+     * running against the current one, then published in a single swap, so no reader ever sees an empty
+     * or partially indexed store.
+     */
+    public void replaceAll(List<DocumentChunk> chunks) {
+        List<float[]> normalized = normalizeAll(chunks);
+        Generation next = emptyGeneration(0);
+        append(next, chunks, normalized);
+
+        long version;
+        writeLock.lock();
+        try {
+            version = current.get().version + 1;
+            current.set(next.withVersion(version));
+        } finally {
+            writeLock.unlock();
+        }
+        LOG.info("Published vector store generation " + version + " with " + chunks.size() + " chunks");
     }
 
     /**
-     * Search for similar chunks based on query embedding
+     * Version of the published generation; changes on every write
+     */
+    public long generation() {
+        return current.get().version;
+    }
+
+    /**
+     * Search for similar chunks based on query embedding.
+     * Results carry id, content, metadata and score; embeddings stay in the matrix.
      */
     public List<DocumentChunk> search(float[] queryEmbedding, int topK) {
-        if (vectorStore.isEmpty()) {
-            LOG.warn("Vector store is empty");
+        return search(queryEmbedding, topK, null);
+    }
+
+    /**
+     * Search among the chunks whose metadata matches the filter (all chunks when null).
+     * Non-matching chunks are excluded before any similarity is computed.
+     */
+    public List<DocumentChunk> search(float[] queryEmbedding, int topK, Filter filter) {
+        Generation generation = current.get();
+        TopK heap = scan(generation, queryEmbedding, topK, filter);
+        if (heap == null) {
             return Collections.emptyList();
         }
+        List<DocumentChunk> results = toChunks(generation, heap);
+        LOG.info("Search returned " + results.size() + " results");
+        return results;
+    }
 
-        // Calculate similarity scores for all chunks
-        List<DocumentChunk> results = vectorStore.values().stream()
-                .map(chunk -> {
-                    double score = embeddingService.cosineSimilarity(queryEmbedding, chunk.getEmbedding());
-                    DocumentChunk result = new DocumentChunk();
-                    result.setId(chunk.getId());
-                    result.setContent(chunk.getContent());
-                    result.setMetadata(chunk.getMetadata());
-                    result.setEmbedding(chunk.getEmbedding());
-                    result.setScore(score);
-                    return result;
-                })
-                .sorted((a, b) -> Double.compare(b.getScore(), a.getScore())) // Sort by score descending
-                .limit(topK)
-                .collect(Collectors.toList());
+    /**
+     * Search for similar chunks, returning only ids and scores
+     */
+    public List<SearchHit> searchHits(float[] queryEmbedding, int topK) {
+        return searchHits(queryEmbedding, topK, null);
+    }
 
-        LOG.info("Search returned " + results.size() + " results");
+    /**
+     * Filtered variant of {@link #searchHits(float[], int)}
+     */
+    public List<SearchHit> searchHits(float[] queryEmbedding, int topK, Filter filter) {
+        Generation generation = current.get();
+        TopK heap = scan(generation, queryEmbedding, topK, filter);
+        if (heap == null) {
+            return Collections.emptyList();
+        }
+        int[] rows = new int[heap.size()];
+        float[] scores = new float[heap.size()];
+        int found = heap.drainDescending(rows, scores);
+        List<SearchHit> hits = new ArrayList<>(found);
+        for (int i = 0; i < found; i++) {
+            hits.add(new SearchHit(generation.matrix.id(rows[i]), scores[i]));
+        }
+        return hits;
+    }
+
+    /**
+     * Search many query vectors at once. With float storage every query is scored exactly in a single
+     * cache-blocked pass over the store, which is far cheaper than one scan per query; otherwise each
+     * query goes through the index.
+     *
+     * @return top-K chunks per query, in query order
+     */
+    public List<List<DocumentChunk>> searchBatch(float[][] queries, int topK) {
+        Generation generation = current.get();
+        EmbeddingMatrix matrix = generation.matrix;
+        int k = Math.min(topK, matrix.size());
+        if (queries.length == 0 || k <= 0) {
+            return Collections.nCopies(queries.length, Collections.emptyList());
+        }
+        float[][] normalized = new float[queries.length][];
+        for (int q = 0; q < queries.length; q++) {
+            if (queries[q].length != matrix.dimension()) {
+                throw new IllegalArgumentException("Embeddings must have the same length");
+            }
+            normalized[q] = VectorMath.normalize(queries[q]);
+        }
+
+        TopK[] heaps;
+        if (matrix.retainsFloats()) {
+            heaps = MatrixScan.topKBatch(matrix, normalized, k, kernel, parallelThreshold);
+        } else {
+            heaps = new TopK[normalized.length];
+            for (int q = 0; q < normalized.length; q++) {
+                heaps[q] = generation.index.search(normalized[q], k);
+            }
+        }
+
+        List<List<DocumentChunk>> results = new ArrayList<>(heaps.length);
+        for (TopK heap : heaps) {
+            results.add(toChunks(generation, heap));
+        }
+        LOG.info("Batch search over " + queries.length + " queries");
         return results;
     }
 
     /**
-     * Search for similar chunks based on query text
+     * Search for relevant chunks based on query text, using the configured retrieval mode
      */
     public List<DocumentChunk> searchByText(String queryText, int topK) {
-        LOG.info("Searching for: " + queryText);
-        float[] queryEmbedding = embeddingService.generateEmbedding(queryText);
-        return search(queryEmbedding, topK);
+        return searchByText(queryText, topK, null);
+    }
+
+    /**
+     * Search for relevant chunks based on query text, restricted by a metadata filter
+     */
+    public List<DocumentChunk> searchByText(String queryText, int topK, Filter filter) {
+        LOG.info("Searching for: " + queryText + (filter != null ? " with " + filter : ""));
+        return retrieve(queryText, embedQuery(queryText), topK, filter);
     }
 
     /**
-     * Get a chunk by ID
+     * Embed a query for retrieval, from the embedding cache or waiting at most retrieval.embedding-timeout.
+     * Returns null in lexical mode, or when the embedding provider is slow or failing,
+     * in which case {@link #retrieve} serves lexical results.
+     */
+    public float[] embedQuery(String queryText) {
+        if ("lexical".equals(retrievalMode)) {
+            return null;
+        }
+        // Repeated questions skip the remote round trip entirely
+        float[] cached = embeddingService.cachedEmbedding(queryText);
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            return embeddingService.fetchEmbeddingAsync(queryText)
+                    .get(embeddingTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            LOG.warn("Query embedding took longer than " + embeddingTimeout.toMillis()
+                    + " ms, falling back to lexical retrieval");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOG.warn("Query embedding failed, falling back to lexical retrieval: " + e.getCause().getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Retrieve chunks for a query according to retrieval.mode:
+     * - hybrid: BM25 and vector rankings fused with reciprocal-rank fusion
+     * - vector: similarity search only
+     * - lexical: BM25 only, no embedding needed
+     * Without a query embedding every mode degrades to lexical. Results are best first; a chunk's score is
+     * the value it was ranked by (fused RRF value, cosine similarity or BM25) and is only comparable within
+     * one result list.
+     */
+    public List<DocumentChunk> retrieve(String queryText, float[] queryEmbedding, int topK, Filter filter) {
+        if (queryEmbedding != null && "vector".equals(retrievalMode)) {
+            return search(queryEmbedding, topK, filter);
+        }
+        Generation generation = current.get();
+        int k = Math.min(topK, generation.matrix.size());
+        BitSet candidates = candidatesFor(generation, filter);
+        if (k <= 0 || (candidates != null && candidates.isEmpty())) {
+            return Collections.emptyList();
+        }
+        if (queryEmbedding != null && queryEmbedding.length != generation.matrix.dimension()) {
+            throw new IllegalArgumentException("Embeddings must have the same length");
+        }
+        TopK lexical = generation.lexicalIndex.search(queryText, queryEmbedding == null ? k : FUSION_DEPTH,
+                candidates);
+        if (queryEmbedding == null) {
+            return toChunks(generation, lexical);
+        }
+        TopK semantic = generation.index.search(VectorMath.normalize(queryEmbedding), FUSION_DEPTH, candidates);
+        List<DocumentChunk> results = toChunks(generation, reciprocalRankFusion(k, lexical, semantic));
+        LOG.info("Hybrid search returned " + results.size() + " results");
+        return results;
+    }
+
+    /**
+     * Get a chunk by ID (its embedding is returned unit-normalized)
      */
     public Optional<DocumentChunk> getChunk(String id) {
-        return Optional.ofNullable(vectorStore.get(id));
+        EmbeddingMatrix matrix = current.get().matrix;
+        int row = matrix.rowOf(id);
+        return row < 0 ? Optional.empty() : Optional.of(matrix.toChunk(row, true));
     }
 
     /**
      * Get all chunks
      */
     public List<DocumentChunk> getAllChunks() {
-        return new ArrayList<>(vectorStore.values());
+        return current.get().matrix.toChunks();
     }
 
     /**
      * Get the number of chunks in the store
      */
     public int size() {
-        return vectorStore.size();
+        return current.get().matrix.size();
     }
 
     /**
      * Clear the vector store
      */
     public void clear() {
-        vectorStore.clear();
+        writeLock.lock();
+        try {
+            current.set(emptyGeneration(current.get().version + 1));
+        } finally {
+            writeLock.unlock();
+        }
         LOG.info("Vector store cleared");
     }
 
@@ -110,17 +367,365 @@ public class VectorStoreService {
      * Remove a chunk by ID
      */
     public boolean removeChunk(String id) {
-        boolean removed = vectorStore.remove(id) != null;
-        if (removed) {
+        if (current.get().matrix.rowOf(id) < 0) {
+            return false;
+        }
+        PendingWrite removal = PendingWrite.remove(id);
+        commit(removal);
+        if (removal.removed) {
             LOG.info("Removed chunk: " + id);
         }
-        return removed;
+        return removal.removed;
     }
 
     /**
      * Check if the store contains a chunk with the given ID
      */
     public boolean containsChunk(String id) {
-        return vectorStore.containsKey(id);
+        return current.get().matrix.rowOf(id) >= 0;
+    }
+
+    /**
+     * Replace the store contents with the on-disk snapshot, if it was built from the given source.
+     *
+     * @return true if the snapshot matched and was loaded
+     */
+    public boolean loadSnapshot(String sourceHash) {
+        if (!snapshotEnabled) {
+            return false;
+        }
+        Path path = Path.of(snapshotPath);
+        try {
+            String snapshotHash = VectorSnapshot.readSourceHash(path);
+            if (!sourceHash.equals(snapshotHash)) {
+                LOG.info("No matching vector store snapshot at " + path.toAbsolutePath());
+                return false;
+            }
+            long start = System.nanoTime();
+            List<DocumentChunk> chunks = VectorSnapshot.read(path);
+            replaceAll(chunks);
+            LOG.info("Loaded " + chunks.size() + " chunks from vector store snapshot in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+            return true;
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Failed to load vector store snapshot " + path.toAbsolutePath() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Persist the embedded source chunks, tagged with the hash of the source they were computed from.
+     * The chunks are written instead of the matrix so int8 stores without floats never persist decoded vectors.
+     */
+    public void writeSnapshot(String sourceHash, List<DocumentChunk> chunks) {
+        if (!snapshotEnabled) {
+            return;
+        }
+        Path path = Path.of(snapshotPath);
+        try {
+            VectorSnapshot.write(path, chunks, sourceHash);
+            LOG.info("Wrote vector store snapshot to " + path.toAbsolutePath());
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Failed to write vector store snapshot " + path.toAbsolutePath() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Whether searches go through an approximate index
+     */
+    public boolean isApproximate() {
+        return current.get().index.isApproximate();
+    }
+
+    /**
+     * Recall@k of the configured index against an exact scan, using up to {@code sampleSize} queries
+     * drawn near stored vectors. Always 1.0 for the flat index, NaN when no float vectors are kept
+     * to compare against.
+     */
+    public double measureRecall(int sampleSize, int k) {
+        Generation generation = current.get();
+        EmbeddingMatrix matrix = generation.matrix;
+        VectorIndex index = generation.index;
+        int live = matrix.size();
+        if (live == 0 || !index.isApproximate()) {
+            return 1.0;
+        }
+        if (!matrix.retainsFloats()) {
+            return Double.NaN;
+        }
+        int queries = Math.min(sampleSize, live);
+        int stride = Math.max(1, matrix.rowCount() / queries);
+        Random random = new Random(RECALL_SEED);
+        Recall recall = new Recall();
+        int sampled = 0;
+        for (int row = 0; row < matrix.rowCount() && sampled < queries; row += stride) {
+            if (!matrix.isLive(row)) {
+                continue;
+            }
+            float[] query = perturb(matrix.embedding(row), random);
+            recall.add(MatrixScan.topK(matrix, query, k, kernel, parallelThreshold).drainRows(),
+                    index.search(query, k).drainRows());
+            sampled++;
+        }
+        return recall.value();
+    }
+
+    // A stored vector plus Gaussian noise. Querying with the stored vector itself would make its own
+    // row the exact top-1, which any graph index finds trivially and which inflates the measured recall.
+    private static float[] perturb(float[] vector, Random random) {
+        float scale = (float) (RECALL_QUERY_NOISE / Math.sqrt(vector.length));
+        float[] query = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            query[i] = vector[i] + scale * (float) random.nextGaussian();
+        }
+        return VectorMath.normalize(query);
+    }
+
+    // Returns null when there is nothing to search
+    private TopK scan(Generation generation, float[] queryEmbedding, int topK, Filter filter) {
+        EmbeddingMatrix matrix = generation.matrix;
+        if (matrix.size() == 0) {
+            LOG.warn("Vector store is empty");
+            return null;
+        }
+        if (queryEmbedding.length != matrix.dimension()) {
+            throw new IllegalArgumentException("Embeddings must have the same length");
+        }
+        int k = Math.min(topK, matrix.size());
+        if (k <= 0) {
+            return null;
+        }
+        BitSet candidates = candidatesFor(generation, filter);
+        if (candidates != null && candidates.isEmpty()) {
+            return null;
+        }
+        return generation.index.search(VectorMath.normalize(queryEmbedding), k, candidates);
+    }
+
+    // Null when unfiltered; an empty bitmap when nothing matches
+    private static BitSet candidatesFor(Generation generation, Filter filter) {
+        return filter == null ? null : generation.metadataIndex.candidates(filter);
+    }
+
+    // Score each row by the sum of 1 / (rrfK + rank) over the rankings it appears in
+    private TopK reciprocalRankFusion(int k, TopK... rankings) {
+        Map<Integer, Float> fused = new HashMap<>();
+        for (TopK ranking : rankings) {
+            int[] rows = new int[ranking.size()];
+            int count = ranking.drainDescending(rows, new float[rows.length]);
+            for (int rank = 0; rank < count; rank++) {
+                fused.merge(rows[rank], 1f / (rrfK + rank + 1), Float::sum);
+            }
+        }
+        TopK result = new TopK(k);
+        fused.forEach(result::offer);
+        return result;
+    }
+
+    // Only the final top-K are materialized as chunks, best first
+    private static List<DocumentChunk> toChunks(Generation generation, TopK heap) {
+        int[] rows = new int[heap.size()];
+        float[] scores = new float[heap.size()];
+        int found = heap.drainDescending(rows, scores);
+        List<DocumentChunk> results = new ArrayList<>(found);
+        for (int i = 0; i < found; i++) {
+            DocumentChunk result = generation.matrix.toChunk(rows[i], false);
+            result.setScore(scores[i]);
+            results.add(result);
+        }
+        return results;
+    }
+
+    // Normalized once here so every query scores with a single dot product
+    private static List<float[]> normalizeAll(List<DocumentChunk> chunks) {
+        List<float[]> normalized = new ArrayList<>(chunks.size());
+        for (DocumentChunk chunk : chunks) {
+            if (chunk.getEmbedding() == null || chunk.getEmbedding().length == 0) {
+                throw new IllegalArgumentException("Chunk must have an embedding");
+            }
+            normalized.add(VectorMath.normalize(chunk.getEmbedding()));
+        }
+        return normalized;
+    }
+
+    // Write chunks into an unpublished generation
+    private static void append(Generation generation, List<DocumentChunk> chunks, List<float[]> normalized) {
+        EmbeddingMatrix matrix = generation.matrix;
+        generation.index.prepareBatch(normalized);
+        for (int i = 0; i < chunks.size(); i++) {
+            DocumentChunk chunk = chunks.get(i);
+            int previous = matrix.rowOf(chunk.getId());
+            int row = matrix.add(chunk.getId(), chunk.getContent(), chunk.getMetadata(), normalized.get(i));
+            if (previous >= 0) {
+                generation.index.remove(previous);
+                generation.metadataIndex.remove(previous, matrix.metadata(previous));
+                generation.lexicalIndex.remove(previous);
+            }
+            generation.index.add(row, normalized.get(i));
+            generation.metadataIndex.add(row, chunk.getMetadata());
+            generation.lexicalIndex.add(row, chunk.getContent());
+        }
+    }
+
+    /**
+     * Apply a write and publish the result. Writers queue their write and then take the lock; the holder
+     * drains every queued write into a single copy of the current generation, so N concurrent single-chunk
+     * writes cost one O(store) copy instead of N. A write that fails validation is rejected on its own;
+     * any other failure rejects the whole batch. Nothing is published unless some write changed the store.
+     */
+    private void commit(PendingWrite write) {
+        pendingWrites.add(write);
+        writeLock.lock();
+        try {
+            if (!write.applied) {
+                List<PendingWrite> batch = new ArrayList<>();
+                for (PendingWrite pending = pendingWrites.poll(); pending != null; pending = pendingWrites.poll()) {
+                    batch.add(pending);
+                }
+                applyBatch(batch);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        if (write.failure != null) {
+            throw write.failure;
+        }
+    }
+
+    // Called with the write lock held
+    private void applyBatch(List<PendingWrite> batch) {
+        Generation next = null;
+        boolean changed = false;
+        try {
+            for (PendingWrite pending : batch) {
+                if (next == null) {
+                    next = current.get().copy();
+                }
+                changed |= pending.applyTo(next);
+            }
+            if (changed) {
+                compactIfSparse(next);
+                current.set(next);
+            }
+        } catch (RuntimeException e) {
+            for (PendingWrite pending : batch) {
+                pending.failure = e;
+            }
+        } finally {
+            for (PendingWrite pending : batch) {
+                pending.applied = true;
+            }
+        }
+    }
+
+    // Reclaim tombstoned rows once they outnumber live ones, so scans stay dense
+    private static void compactIfSparse(Generation generation) {
+        EmbeddingMatrix matrix = generation.matrix;
+        if (matrix.deletedCount() > matrix.size()) {
+            matrix.compact();
+            generation.index.rebuild();
+            generation.metadataIndex.rebuild(matrix);
+            generation.lexicalIndex.rebuild(matrix);
+        }
+    }
+
+    private Generation emptyGeneration(long version) {
+        boolean quantized = "int8".equals(indexType);
+        EmbeddingMatrix matrix = new EmbeddingMatrix(!quantized || int8KeepFloats, quantized);
+        VectorIndex index = switch (indexType) {
+            case "flat" -> new FlatIndex(matrix, kernel, parallelThreshold);
+            case "hnsw" -> new HnswIndex(matrix, kernel, hnswM, hnswEfConstruction, hnswEfSearch);
+            case "int8" -> new QuantizedIndex(matrix, kernel, int8Oversample, parallelThreshold);
+            default -> throw new IllegalArgumentException("Unsupported vector index type: " + indexType);
+        };
+        return new Generation(version, matrix, index, new MetadataIndex(), new Bm25Index());
+    }
+
+    /**
+     * An add or a removal waiting to be group-committed. Its fields are written and read under the write lock.
+     */
+    private static final class PendingWrite {
+
+        final List<DocumentChunk> chunks;
+        final List<float[]> normalized;
+        final String removedId;
+        boolean applied;
+        boolean removed;
+        RuntimeException failure;
+
+        private PendingWrite(List<DocumentChunk> chunks, List<float[]> normalized, String removedId) {
+            this.chunks = chunks;
+            this.normalized = normalized;
+            this.removedId = removedId;
+        }
+
+        static PendingWrite add(List<DocumentChunk> chunks, List<float[]> normalized) {
+            return new PendingWrite(chunks, normalized, null);
+        }
+
+        static PendingWrite remove(String id) {
+            return new PendingWrite(List.of(), List.of(), id);
+        }
+
+        // Returns whether the generation changed
+        boolean applyTo(Generation next) {
+            if (removedId != null) {
+                int row = next.matrix.remove(removedId);
+                if (row >= 0) {
+                    next.index.remove(row);
+                    next.metadataIndex.remove(row, next.matrix.metadata(row));
+                    next.lexicalIndex.remove(row);
+                    removed = true;
+                }
+                return removed;
+            }
+            // Checked before anything is written, so a bad write cannot leave the shared copy half-applied
+            int dimension = next.matrix.dimension();
+            for (float[] vector : normalized) {
+                if (dimension != 0 && vector.length != dimension) {
+                    failure = new IllegalArgumentException("Embedding dimension mismatch: expected " + dimension
+                            + " but got " + vector.length);
+                    return false;
+                }
+                dimension = vector.length;
+            }
+            append(next, chunks, normalized);
+            return !chunks.isEmpty();
+        }
+    }
+
+    /**
+     * One state of the store: the matrix of unit-normalized embeddings plus every index over its rows.
+     * Mutated only while being built by a writer, immutable once published.
+     */
+    private static final class Generation {
+
+        final long version;
+        final EmbeddingMatrix matrix;
+        final VectorIndex index;
+        // Bitmap per metadata key/value, for filtered search
+        final MetadataIndex metadataIndex;
+        // BM25 postings over chunk contents, for hybrid and lexical retrieval
+        final Bm25Index lexicalIndex;
+
+        Generation(long version, EmbeddingMatrix matrix, VectorIndex index, MetadataIndex metadataIndex,
+                   Bm25Index lexicalIndex) {
+            this.version = version;
+            this.matrix = matrix;
+            this.index = index;
+            this.metadataIndex = metadataIndex;
+            this.lexicalIndex = lexicalIndex;
+        }
+
+        // Deep copy under the next version, for copy-on-write updates
+        Generation copy() {
+            EmbeddingMatrix copiedMatrix = matrix.copy();
+            return new Generation(version + 1, copiedMatrix, index.copyFor(copiedMatrix), metadataIndex.copy(),
+                    lexicalIndex.copy());
+        }
+
+        Generation withVersion(long newVersion) {
+            return new Generation(newVersion, matrix, index, metadataIndex, lexicalIndex);
+        }
     }
 }
@@ -0,0 +1,148 @@
+package com.fklein.services.chat;
+
+import com.fklein.services.vector.VectorMath;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Semantic cache of completed chat answers, keyed by the embedding of the question.
+ *
+ * A lookup hits when a cached question is at least {@code threshold} cosine-similar to the new one and was
+ * answered against the same vector store generation, so paraphrases share an answer while any reindex makes
+ * every older entry stale. Entries are evicted LRU beyond {@code maxEntries} and optionally expire after a
+ * TTL. Lookups compare against every entry; the bound keeps that to a few hundred dot products. Thread-safe.
+ */
+public final class AnswerCache {
+
+    // Split after whitespace so replayed chunks concatenate back to the exact answer
+    private static final Pattern WORD_BOUNDARY = Pattern.compile("(?<=\\s)(?=\\S)");
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final double threshold;
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long nextId;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param ttl entry lifetime; null, zero or negative disables expiry
+     */
+    public AnswerCache(int maxEntries, Duration ttl, double threshold) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl == null || ttl.isNegative() || ttl.isZero() ? 0 : ttl.toNanos();
+        this.threshold = threshold;
+    }
+
+    /**
+     * The answer cached for the most similar question above the threshold, or null
+     */
+    public String get(float[] queryEmbedding, long generation) {
+        float[] query = VectorMath.normalize(queryEmbedding);
+        long now = System.nanoTime();
+        synchronized (entries) {
+            Long bestId = null;
+            double bestSimilarity = threshold;
+            Iterator<Map.Entry<Long, Entry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Long, Entry> candidate = iterator.next();
+                Entry entry = candidate.getValue();
+                // Entries of older generations can never hit again; newer ones may, for requests started later
+                if (entry.generation < generation || (ttlNanos > 0 && now - entry.storedAt > ttlNanos)) {
+                    iterator.remove();
+                    continue;
+                }
+                if (entry.generation != generation) {
+                    continue;
+                }
+                double similarity = dot(query, entry.query);
+                if (similarity >= bestSimilarity) {
+                    bestSimilarity = similarity;
+                    bestId = candidate.getKey();
+                }
+            }
+            if (bestId == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return entries.get(bestId).answer;
+        }
+    }
+
+    public void put(float[] queryEmbedding, long generation, String answer) {
+        Entry entry = new Entry(VectorMath.normalize(queryEmbedding), generation, answer, System.nanoTime());
+        synchronized (entries) {
+            entries.put(nextId++, entry);
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (entries.size() > maxEntries && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public Stats stats() {
+        synchronized (entries) {
+            return new Stats(hits.sum(), misses.sum(), evictions.sum(), entries.size());
+        }
+    }
+
+    /**
+     * Stream a cached answer like a live one: all at once, or word by word with the given interval
+     */
+    public static Multi<String> replay(String answer, Duration interval) {
+        if (interval == null || interval.isZero() || interval.isNegative()) {
+            return Multi.createFrom().item(answer);
+        }
+        return Multi.createFrom().items(WORD_BOUNDARY.split(answer))
+                .onItem().call(word -> Uni.createFrom().voidItem().onItem().delayIt().by(interval));
+    }
+
+    private static double dot(float[] a, float[] b) {
+        if (a.length != b.length) {
+            return -1.0;
+        }
+        double sum = 0.0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    private record Entry(float[] query, long generation, String answer, long storedAt) {
+    }
+
+    /**
+     * Point-in-time counters
+     */
+    public record Stats(long hits, long misses, long evictions, int entries) {
+
+        public double hitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0.0 : (double) hits / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d entries, hit rate %.2f (%d hits, %d misses), %d evictions",
+                    entries, hitRate(), hits, misses, evictions);
+        }
+    }
+}
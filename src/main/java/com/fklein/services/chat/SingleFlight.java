@@ -0,0 +1,311 @@
+package com.fklein.services.chat;
+
+import io.smallrye.mutiny.Multi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Collapses concurrent identical streams into one.
+ *
+ * The first subscriber for a key opens the source stream and, while alone, drives it directly: its demand is
+ * forwarded upstream one for one. Subscribers that join while it runs replay the items produced so far and
+ * then follow live. Upstream demand follows the slowest subscriber, so nothing is read from the source ahead
+ * of what every subscriber asked for, and each item is kept once in an append-only list shared by all
+ * subscribers. The source is cancelled when its last subscriber leaves; the key is released then or when the
+ * source completes or fails, so later requests start afresh. Thread-safe.
+ *
+ * Mutiny's {@code Multi.cache()} and {@code BroadcastProcessor} do not fit: {@code cache()} requests
+ * upstream unbounded and never cancels it when every subscriber has gone, so an abandoned answer would still
+ * be generated (and billed) to the end, and a {@code BroadcastProcessor} drops items for late subscribers and
+ * fails slow ones instead of holding the source back. Hence the hand-rolled publisher below.
+ */
+public final class SingleFlight<K, T> {
+
+    private final Map<K, Flight> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder joined = new LongAdder();
+
+    /**
+     * The running stream for the key, or a new one from the source; nothing starts before subscription
+     */
+    public Multi<T> join(K key, Supplier<Multi<T>> source) {
+        return Multi.createFrom().publisher(subscriber -> {
+            while (true) {
+                boolean[] leader = new boolean[1];
+                Flight flight = inFlight.computeIfAbsent(key, k -> {
+                    leader[0] = true;
+                    return new Flight(k);
+                });
+                Member member = new Member(flight, subscriber);
+                // A flight whose last subscriber just left is closed but may not be unmapped yet
+                if (!flight.admit(member)) {
+                    inFlight.remove(key, flight);
+                    continue;
+                }
+                (leader[0] ? started : joined).increment();
+                subscriber.onSubscribe(member);
+                if (leader[0]) {
+                    flight.start(source);
+                }
+                member.drain();
+                return;
+            }
+        });
+    }
+
+    public Stats stats() {
+        return new Stats(started.sum(), joined.sum(), inFlight.size());
+    }
+
+    /**
+     * Point-in-time counters: streams opened, subscribers that joined a running one, streams running now
+     */
+    public record Stats(long started, long joined, int inFlight) {
+    }
+
+    /**
+     * One shared source subscription. Its state and that of its members is guarded by the flight's monitor;
+     * items are delivered outside it.
+     */
+    private final class Flight implements Flow.Subscriber<T> {
+
+        private final K key;
+        private final List<T> items = new ArrayList<>();
+        private final List<Member> members = new ArrayList<>();
+        private Flow.Subscription upstream;
+        // Requested from the source but not received yet
+        private long outstanding;
+        private boolean closed;
+        private boolean done;
+        private Throwable failure;
+
+        Flight(K key) {
+            this.key = key;
+        }
+
+        synchronized boolean admit(Member member) {
+            if (closed) {
+                return false;
+            }
+            members.add(member);
+            return true;
+        }
+
+        void start(Supplier<Multi<T>> source) {
+            try {
+                source.get().subscribe().withSubscriber(this);
+            } catch (RuntimeException e) {
+                onError(e);
+            }
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            long demand;
+            synchronized (this) {
+                if (upstream != null || closed) {
+                    demand = -1;
+                } else {
+                    upstream = subscription;
+                    demand = demandLocked();
+                }
+            }
+            if (demand < 0) {
+                subscription.cancel();
+            } else if (demand > 0) {
+                subscription.request(demand);
+            }
+        }
+
+        @Override
+        public void onNext(T item) {
+            List<Member> targets;
+            synchronized (this) {
+                if (done || closed) {
+                    return;
+                }
+                items.add(item);
+                if (outstanding != Long.MAX_VALUE) {
+                    outstanding--;
+                }
+                targets = List.copyOf(members);
+            }
+            targets.forEach(Member::drain);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            terminate(error);
+        }
+
+        @Override
+        public void onComplete() {
+            terminate(null);
+        }
+
+        private void terminate(Throwable error) {
+            List<Member> targets;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                done = true;
+                failure = error;
+                targets = List.copyOf(members);
+            }
+            inFlight.remove(key, this);
+            targets.forEach(Member::drain);
+        }
+
+        // Ask the source for whatever the slowest member can take beyond what is produced or requested already
+        private long demandLocked() {
+            if (upstream == null || done || closed || members.isEmpty() || outstanding == Long.MAX_VALUE) {
+                return 0;
+            }
+            long target = Long.MAX_VALUE;
+            for (Member member : members) {
+                target = Math.min(target, member.requested == Long.MAX_VALUE
+                        ? Long.MAX_VALUE : member.cursor + member.requested);
+            }
+            if (target == Long.MAX_VALUE) {
+                outstanding = Long.MAX_VALUE;
+                return Long.MAX_VALUE;
+            }
+            long demand = target - items.size() - outstanding;
+            if (demand <= 0) {
+                return 0;
+            }
+            outstanding += demand;
+            return demand;
+        }
+
+        void requestMore() {
+            long demand;
+            Flow.Subscription subscription;
+            synchronized (this) {
+                demand = demandLocked();
+                subscription = upstream;
+            }
+            if (demand > 0) {
+                subscription.request(demand);
+            }
+        }
+
+        void leave(Member member) {
+            boolean last;
+            Flow.Subscription subscription;
+            synchronized (this) {
+                members.remove(member);
+                last = members.isEmpty() && !done;
+                if (last) {
+                    closed = true;
+                }
+                subscription = upstream;
+            }
+            if (last) {
+                inFlight.remove(key, this);
+                if (subscription != null) {
+                    subscription.cancel();
+                }
+            } else {
+                // The slowest member may have left
+                requestMore();
+            }
+        }
+    }
+
+    /**
+     * One subscriber's position in the shared items; drains are serialized by a work-in-progress counter
+     */
+    private final class Member implements Flow.Subscription {
+
+        private final Flight flight;
+        private final Flow.Subscriber<? super T> downstream;
+        private final AtomicInteger wip = new AtomicInteger();
+        // Guarded by the flight
+        private int cursor;
+        private long requested;
+        private boolean finished;
+
+        Member(Flight flight, Flow.Subscriber<? super T> downstream) {
+            this.flight = flight;
+            this.downstream = downstream;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                downstream.onError(new IllegalArgumentException("Requested " + n + " items, must be positive"));
+                return;
+            }
+            synchronized (flight) {
+                if (finished) {
+                    return;
+                }
+                requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+            }
+            flight.requestMore();
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (flight) {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+            }
+            flight.leave(this);
+        }
+
+        void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                while (true) {
+                    T item;
+                    Throwable error;
+                    synchronized (flight) {
+                        if (finished) {
+                            return;
+                        }
+                        if (requested > 0 && cursor < flight.items.size()) {
+                            item = flight.items.get(cursor++);
+                            if (requested != Long.MAX_VALUE) {
+                                requested--;
+                            }
+                            error = null;
+                        } else if (flight.done && cursor == flight.items.size()) {
+                            finished = true;
+                            item = null;
+                            error = flight.failure;
+                        } else {
+                            break;
+                        }
+                    }
+                    if (item != null) {
+                        downstream.onNext(item);
+                    } else if (error != null) {
+                        downstream.onError(error);
+                        return;
+                    } else {
+                        downstream.onComplete();
+                        return;
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
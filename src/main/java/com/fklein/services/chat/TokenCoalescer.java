@@ -0,0 +1,312 @@
+package com.fklein.services.chat;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Merges small LLM deltas into fewer, larger SSE frames.
+ *
+ * Every frame costs its own event framing, write and flush, and most deltas are a word or less. The first
+ * delta of a stream is always sent on its own so time-to-first-token is unchanged; the rest are buffered
+ * until the policy's boundary:
+ * - {@code NONE}: no buffering
+ * - {@code TIME}: the oldest buffered delta is {@code maxDelay} old
+ * - {@code SIZE}: {@code maxBytes} of UTF-8 are buffered
+ * - {@code WORD} / {@code SENTENCE}: up to the last complete word or sentence, with {@code maxDelay} and
+ *   {@code maxBytes} as caps for text that has none
+ *
+ * Boundaries are checked as deltas arrive, and for the time-bounded policies a timer armed when the buffer
+ * starts filling flushes it at {@code maxDelay} even if the upstream stalls; whatever is left is sent on
+ * completion. A timed flush emits its frame on the timer's thread (the Mutiny worker pool by default), so
+ * downstream stages must not assume frames arrive on the upstream's thread. Deltas are pulled from upstream
+ * one at a time and only while the downstream has demand for a frame, so backpressure from the SSE writer
+ * still reaches the upstream read.
+ */
+public final class TokenCoalescer {
+
+    public enum FlushPolicy {
+        NONE, TIME, SIZE, WORD, SENTENCE
+    }
+
+    private static final String SENTENCE_ENDS = ".!?…";
+
+    private final FlushPolicy policy;
+    private final long maxDelayNanos;
+    private final int maxBytes;
+    private final ScheduledExecutorService timer;
+
+    public TokenCoalescer(FlushPolicy policy, Duration maxDelay, int maxBytes) {
+        this(policy, maxDelay, maxBytes, Infrastructure.getDefaultWorkerPool());
+    }
+
+    /**
+     * @param timer runs the max-delay flushes
+     */
+    public TokenCoalescer(FlushPolicy policy, Duration maxDelay, int maxBytes, ScheduledExecutorService timer) {
+        this.policy = policy;
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.maxBytes = maxBytes;
+        this.timer = timer;
+    }
+
+    public Multi<String> coalesce(Multi<String> deltas) {
+        if (policy == FlushPolicy.NONE) {
+            return deltas;
+        }
+        return Multi.createFrom().publisher(downstream -> deltas.subscribe().withSubscriber(new Frame(downstream)));
+    }
+
+    /**
+     * Per-subscription buffer, between the upstream deltas and the downstream frames. State is guarded by the
+     * frame's monitor; signals are sent downstream outside it, serialized by a work-in-progress counter.
+     */
+    private final class Frame implements Flow.Subscriber<String>, Flow.Subscription {
+
+        private final Flow.Subscriber<? super String> downstream;
+        private final AtomicInteger wip = new AtomicInteger();
+        private Flow.Subscription upstream;
+
+        private final StringBuilder buffer = new StringBuilder();
+        private final Queue<String> ready = new ArrayDeque<>();
+        private int bufferedBytes;
+        private long bufferedSince;
+        private boolean first = true;
+        private long requested;
+        // A delta was requested from upstream and has not arrived yet
+        private boolean pulling;
+        private boolean upstreamDone;
+        private Throwable failure;
+        private boolean finished;
+        private ScheduledFuture<?> flushTimer;
+        // Identifies the current timer, so a flush that fires after being replaced does nothing
+        private long timerEpoch;
+
+        Frame(Flow.Subscriber<? super String> downstream) {
+            this.downstream = downstream;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            upstream = subscription;
+            downstream.onSubscribe(this);
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                downstream.onError(new IllegalArgumentException("Requested " + n + " frames, must be positive"));
+                return;
+            }
+            synchronized (this) {
+                requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+                cancelTimer();
+            }
+            upstream.cancel();
+        }
+
+        @Override
+        public void onNext(String delta) {
+            synchronized (this) {
+                pulling = false;
+                if (finished) {
+                    return;
+                }
+                accept(delta);
+            }
+            drain();
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            terminate(error);
+        }
+
+        @Override
+        public void onComplete() {
+            terminate(null);
+        }
+
+        private void terminate(Throwable error) {
+            synchronized (this) {
+                if (!buffer.isEmpty()) {
+                    ready.add(take(buffer.length()));
+                }
+                cancelTimer();
+                upstreamDone = true;
+                failure = error;
+            }
+            drain();
+        }
+
+        // Caller holds the monitor
+        private void accept(String delta) {
+            if (delta.isEmpty()) {
+                return;
+            }
+            if (first) {
+                first = false;
+                ready.add(delta);
+                return;
+            }
+            if (buffer.isEmpty()) {
+                bufferedSince = System.nanoTime();
+            }
+            buffer.append(delta);
+            bufferedBytes += utf8Length(delta);
+
+            boolean full = bufferedBytes >= maxBytes;
+            boolean due = System.nanoTime() - bufferedSince >= maxDelayNanos;
+            int end = switch (policy) {
+                case TIME -> due ? buffer.length() : 0;
+                case SIZE -> full ? buffer.length() : 0;
+                case WORD -> full || due ? buffer.length() : lastWordEnd();
+                case SENTENCE -> full || due ? buffer.length() : lastSentenceEnd();
+                case NONE -> buffer.length();
+            };
+            if (end > 0) {
+                ready.add(take(end));
+                cancelTimer();
+            }
+            if (!buffer.isEmpty() && flushTimer == null && policy != FlushPolicy.SIZE) {
+                long epoch = ++timerEpoch;
+                flushTimer = timer.schedule(() -> flushDue(epoch), maxDelayNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        // The buffer reached maxDelay without a boundary or a new delta
+        private void flushDue(long epoch) {
+            synchronized (this) {
+                if (epoch != timerEpoch || finished || upstreamDone || buffer.isEmpty()) {
+                    return;
+                }
+                flushTimer = null;
+                ready.add(take(buffer.length()));
+            }
+            drain();
+        }
+
+        // Caller holds the monitor
+        private void cancelTimer() {
+            timerEpoch++;
+            if (flushTimer != null) {
+                flushTimer.cancel(false);
+                flushTimer = null;
+            }
+        }
+
+        // Emit ready frames while there is demand, pull the next delta when none is ready, finish when drained
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                while (true) {
+                    String frame = null;
+                    boolean terminal = false;
+                    boolean pull = false;
+                    Throwable error = null;
+                    synchronized (this) {
+                        if (finished) {
+                            return;
+                        }
+                        if (requested > 0 && !ready.isEmpty()) {
+                            frame = ready.poll();
+                            if (requested != Long.MAX_VALUE) {
+                                requested--;
+                            }
+                        } else if (upstreamDone && ready.isEmpty()) {
+                            finished = true;
+                            terminal = true;
+                            error = failure;
+                        } else if (requested > 0 && !upstreamDone && !pulling) {
+                            pulling = true;
+                            pull = true;
+                        }
+                    }
+                    if (frame != null) {
+                        downstream.onNext(frame);
+                    } else if (terminal) {
+                        if (error != null) {
+                            downstream.onError(error);
+                        } else {
+                            downstream.onComplete();
+                        }
+                        return;
+                    } else if (pull) {
+                        upstream.request(1);
+                    } else {
+                        break;
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private String take(int end) {
+            String frame = buffer.substring(0, end);
+            buffer.delete(0, end);
+            bufferedBytes = utf8Length(buffer);
+            bufferedSince = System.nanoTime();
+            return frame;
+        }
+
+        // End of the text up to and including the last whitespace that follows a word
+        private int lastWordEnd() {
+            for (int i = buffer.length() - 1; i > 0; i--) {
+                if (Character.isWhitespace(buffer.charAt(i)) && !Character.isWhitespace(buffer.charAt(i - 1))) {
+                    return i + 1;
+                }
+            }
+            return 0;
+        }
+
+        // End of the last sentence: terminal punctuation followed by whitespace, or a line break
+        private int lastSentenceEnd() {
+            for (int i = buffer.length() - 1; i > 0; i--) {
+                char c = buffer.charAt(i);
+                if (c == '\n' || (Character.isWhitespace(c) && SENTENCE_ENDS.indexOf(buffer.charAt(i - 1)) >= 0)) {
+                    return i + 1;
+                }
+            }
+            return 0;
+        }
+    }
+
+    private static int utf8Length(CharSequence text) {
+        int bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800 || Character.isSurrogate(c)) {
+                // A surrogate pair encodes to 4 bytes, 2 per char
+                bytes += 2;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+}
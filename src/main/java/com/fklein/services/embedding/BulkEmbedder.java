@@ -0,0 +1,173 @@
+package com.fklein.services.embedding;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fklein.services.http.MalformedResponseException;
+import com.fklein.services.http.UpstreamStatusException;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/**
+ * Bulk embedding pipeline over a provider's batch call.
+ *
+ * The input is split into sub-batches bounded by item count and by estimated tokens, so no request exceeds
+ * the provider's per-request limits. Sub-batches run concurrently on virtual threads, at most
+ * {@code concurrency} at a time, each first drawing its estimated tokens from an optional
+ * {@link TokenBucket}. A sub-batch that failed transiently (connection-level I/O error, HTTP 429 or 5xx) is
+ * retried on its own with exponential backoff; any other failure, such as a rejected key, a malformed request
+ * or a response body that does not decode, fails at once.
+ * Results are reassembled in input order.
+ */
+public final class BulkEmbedder implements AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(BulkEmbedder.class);
+
+    private final Function<List<String>, List<float[]>> batchEmbedder;
+    private final int maxItems;
+    private final int maxTokens;
+    private final Semaphore permits;
+    private final TokenBucket rateLimit;
+    private final int maxAttempts;
+    private final Duration retryBackoff;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * @param batchEmbedder one provider request: embeds a list of texts, returning vectors in the same order
+     * @param rateLimit     tokens allowed per period, or null for no rate limiting
+     */
+    public BulkEmbedder(Function<List<String>, List<float[]>> batchEmbedder, int maxItems, int maxTokens,
+                        int concurrency, TokenBucket rateLimit, int maxAttempts, Duration retryBackoff) {
+        this.batchEmbedder = batchEmbedder;
+        this.maxItems = Math.max(1, maxItems);
+        this.maxTokens = Math.max(1, maxTokens);
+        this.permits = new Semaphore(Math.max(1, concurrency));
+        this.rateLimit = rateLimit;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryBackoff = retryBackoff;
+    }
+
+    /**
+     * Rough token count of a text, at about four characters per token
+     */
+    public static int estimateTokens(String text) {
+        return text.length() / 4 + 1;
+    }
+
+    public List<float[]> embedAll(List<String> texts) {
+        List<int[]> ranges = split(texts);
+        if (ranges.size() == 1) {
+            return embedWithRetry(texts);
+        }
+
+        List<Future<List<float[]>>> futures = new ArrayList<>(ranges.size());
+        for (int[] range : ranges) {
+            List<String> batch = texts.subList(range[0], range[1]);
+            futures.add(executor.submit(() -> embedWithRetry(batch)));
+        }
+        List<float[]> embeddings = new ArrayList<>(texts.size());
+        try {
+            for (Future<List<float[]>> future : futures) {
+                embeddings.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while embedding", e);
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw e.getCause() instanceof RuntimeException cause ? cause
+                    : new RuntimeException("Failed to generate embeddings", e.getCause());
+        }
+        LOG.info("Embedded " + texts.size() + " texts in " + ranges.size() + " sub-batches");
+        return embeddings;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    // [from, to) index ranges, each within both the item and the token limit
+    private List<int[]> split(List<String> texts) {
+        List<int[]> ranges = new ArrayList<>();
+        int start = 0;
+        int tokens = 0;
+        for (int i = 0; i < texts.size(); i++) {
+            int textTokens = estimateTokens(texts.get(i));
+            if (i > start && (i - start == maxItems || tokens + textTokens > maxTokens)) {
+                ranges.add(new int[]{start, i});
+                start = i;
+                tokens = 0;
+            }
+            tokens += textTokens;
+        }
+        if (start < texts.size() || ranges.isEmpty()) {
+            ranges.add(new int[]{start, texts.size()});
+        }
+        return ranges;
+    }
+
+    private List<float[]> embedWithRetry(List<String> batch) {
+        int tokens = 0;
+        for (String text : batch) {
+            tokens += estimateTokens(text);
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                permits.acquire();
+                try {
+                    if (rateLimit != null) {
+                        rateLimit.acquire(tokens);
+                    }
+                    return batchEmbedder.apply(batch);
+                } finally {
+                    permits.release();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while embedding", e);
+            } catch (RuntimeException e) {
+                if (attempt >= maxAttempts || !isTransient(e)) {
+                    LOG.error("Embedding sub-batch of " + batch.size() + " texts failed after " + attempt
+                            + (attempt == 1 ? " attempt" : " attempts"), e);
+                    throw e;
+                }
+                long backoff = retryBackoff.toMillis() << (attempt - 1);
+                LOG.warn("Embedding sub-batch of " + batch.size() + " texts failed (attempt " + attempt + "/"
+                        + maxAttempts + "), retrying in " + backoff + " ms: " + e.getMessage());
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    // Only failures that a later attempt can fix: connection errors, rate limiting and server errors.
+    // A body that fails to parse or decode would come back the same way, so it is not retried.
+    static boolean isTransient(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof UpstreamStatusException status) {
+                return status.statusCode() == 429 || status.statusCode() >= 500;
+            }
+            if (cause instanceof JsonProcessingException || cause instanceof MalformedResponseException) {
+                return false;
+            }
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,75 @@
+package com.fklein.services.embedding;
+
+import com.fklein.services.vector.Recall;
+import com.fklein.services.vector.VectorMath;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Matryoshka-style dimension reduction: models trained that way (e.g. OpenAI text-embedding-3) front-load
+ * information, so the first {@code n} components, re-normalized, are a usable shorter embedding.
+ */
+public final class DimensionReduction {
+
+    private DimensionReduction() {
+    }
+
+    /**
+     * Unit-normalized prefix of a vector; vectors already within {@code dimensions} are returned as is
+     */
+    public static float[] truncate(float[] vector, int dimensions) {
+        if (vector.length <= dimensions) {
+            return vector;
+        }
+        return VectorMath.normalize(Arrays.copyOf(vector, dimensions));
+    }
+
+    /**
+     * Recall@k of nearest-neighbour search over the reduced vectors against the full ones, using every
+     * vector in turn as the query (excluding itself)
+     */
+    public static double recallAtK(List<float[]> full, List<float[]> reduced, int k) {
+        List<float[]> fullUnit = normalizeAll(full);
+        List<float[]> reducedUnit = normalizeAll(reduced);
+        Recall recall = new Recall();
+        for (int q = 0; q < fullUnit.size(); q++) {
+            recall.add(nearest(fullUnit, q, k), nearest(reducedUnit, q, k));
+        }
+        return recall.value();
+    }
+
+    private static List<float[]> normalizeAll(List<float[]> vectors) {
+        List<float[]> normalized = new ArrayList<>(vectors.size());
+        for (float[] vector : vectors) {
+            normalized.add(VectorMath.normalize(vector));
+        }
+        return normalized;
+    }
+
+    // Brute force: recall checks run on samples of at most a few hundred vectors
+    private static int[] nearest(List<float[]> vectors, int query, int k) {
+        Integer[] others = new Integer[vectors.size() - 1];
+        float[] scores = new float[vectors.size()];
+        float[] q = vectors.get(query);
+        for (int i = 0, j = 0; i < vectors.size(); i++) {
+            if (i == query) {
+                continue;
+            }
+            float[] v = vectors.get(i);
+            float dot = 0f;
+            for (int d = 0; d < q.length; d++) {
+                dot += q[d] * v[d];
+            }
+            scores[i] = dot;
+            others[j++] = i;
+        }
+        Arrays.sort(others, (a, b) -> Float.compare(scores[b], scores[a]));
+        int[] top = new int[Math.min(k, others.length)];
+        for (int i = 0; i < top.length; i++) {
+            top[i] = others[i];
+        }
+        return top;
+    }
+}
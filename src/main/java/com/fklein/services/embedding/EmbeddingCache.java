@@ -0,0 +1,127 @@
+package com.fklein.services.embedding;
+
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Bounded in-process cache of query embeddings, keyed by normalized query text.
+ *
+ * Eviction is LRU with the limit counted in bytes (key characters plus vector floats), so the bound holds
+ * whatever the embedding dimension. Entries optionally expire after a TTL. Vectors are copied on the way in
+ * and out, so callers may modify what they pass or get back. Thread-safe.
+ */
+public final class EmbeddingCache {
+
+    // Rough per-entry bookkeeping: map node, key string and array headers
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final long maxBytes;
+    private final long ttlNanos;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param ttl entry lifetime; zero or negative disables expiry
+     */
+    public EmbeddingCache(long maxBytes, Duration ttl) {
+        this.maxBytes = maxBytes;
+        this.ttlNanos = ttl == null || ttl.isNegative() || ttl.isZero() ? 0 : ttl.toNanos();
+    }
+
+    /**
+     * Cache key for a query: Unicode-normalized, lower-cased, with whitespace collapsed,
+     * so trivially different spellings of the same question share an entry
+     */
+    public static String normalize(String text) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC);
+        return WHITESPACE.matcher(normalized.strip()).replaceAll(" ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * A copy of the cached vector for a normalized key, or null on a miss or an expired entry
+     */
+    public float[] get(String key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && ttlNanos > 0 && System.nanoTime() - entry.storedAt > ttlNanos) {
+                entries.remove(key);
+                bytes -= entry.bytes;
+                entry = null;
+            }
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return entry.vector.clone();
+        }
+    }
+
+    public void put(String key, float[] vector) {
+        Entry entry = new Entry(vector.clone(), weigh(key, vector), System.nanoTime());
+        if (entry.bytes > maxBytes) {
+            return;
+        }
+        synchronized (entries) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                bytes -= previous.bytes;
+            }
+            bytes += entry.bytes;
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().bytes;
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    public Stats stats() {
+        synchronized (entries) {
+            return new Stats(hits.sum(), misses.sum(), evictions.sum(), entries.size(), bytes);
+        }
+    }
+
+    private static long weigh(String key, float[] vector) {
+        return ENTRY_OVERHEAD_BYTES + 2L * key.length() + (long) Float.BYTES * vector.length;
+    }
+
+    private record Entry(float[] vector, long bytes, long storedAt) {
+    }
+
+    /**
+     * Point-in-time counters
+     */
+    public record Stats(long hits, long misses, long evictions, int entries, long bytes) {
+
+        public double hitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0.0 : (double) hits / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d entries (%d bytes), hit rate %.2f (%d hits, %d misses), %d evictions",
+                    entries, bytes, hitRate(), hits, misses, evictions);
+        }
+    }
+}
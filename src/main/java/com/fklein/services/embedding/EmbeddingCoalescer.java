@@ -0,0 +1,120 @@
+package com.fklein.services.embedding;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Micro-batcher for single-text embedding calls.
+ *
+ * Concurrent {@link #submit} calls are collected until either {@code maxWait} has passed since the first
+ * one or {@code maxBatch} texts are pending, then sent as one batch request on a virtual thread. Each caller's
+ * future completes with its own vector, or with the batch failure. Identical texts in a batch are sent once.
+ * The wait window bounds the latency added to any single call.
+ */
+public final class EmbeddingCoalescer implements AutoCloseable {
+
+    private final Function<List<String>, List<float[]>> batchEmbedder;
+    private final long maxWaitNanos;
+    private final int maxBatch;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "embedding-coalescer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService dispatcher = Executors.newVirtualThreadPerTaskExecutor();
+
+    // Guarded by this
+    private Map<String, CompletableFuture<float[]>> pending = new LinkedHashMap<>();
+    private ScheduledFuture<?> scheduledFlush;
+
+    /**
+     * @param batchEmbedder embeds a list of texts, returning vectors in the same order
+     */
+    public EmbeddingCoalescer(Function<List<String>, List<float[]>> batchEmbedder, Duration maxWait, int maxBatch) {
+        this.batchEmbedder = batchEmbedder;
+        this.maxWaitNanos = Math.max(0, maxWait.toNanos());
+        this.maxBatch = Math.max(1, maxBatch);
+    }
+
+    /**
+     * Queue a text for the next batch. Callers must not modify the returned vector.
+     */
+    public CompletableFuture<float[]> submit(String text) {
+        Map<String, CompletableFuture<float[]>> batch = null;
+        CompletableFuture<float[]> result;
+        synchronized (this) {
+            result = pending.get(text);
+            if (result != null) {
+                return result;
+            }
+            result = new CompletableFuture<>();
+            pending.put(text, result);
+            if (pending.size() >= maxBatch || maxWaitNanos == 0) {
+                batch = takePending();
+            } else if (pending.size() == 1) {
+                scheduledFlush = timer.schedule(this::flush, maxWaitNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        if (batch != null) {
+            dispatch(batch);
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        dispatcher.shutdown();
+    }
+
+    private void flush() {
+        Map<String, CompletableFuture<float[]>> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = takePending();
+        }
+        dispatch(batch);
+    }
+
+    // Caller holds the monitor
+    private Map<String, CompletableFuture<float[]>> takePending() {
+        Map<String, CompletableFuture<float[]>> batch = pending;
+        pending = new LinkedHashMap<>();
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        return batch;
+    }
+
+    private void dispatch(Map<String, CompletableFuture<float[]>> batch) {
+        dispatcher.execute(() -> {
+            List<String> texts = new ArrayList<>(batch.keySet());
+            try {
+                List<float[]> vectors = batchEmbedder.apply(texts);
+                if (vectors.size() != texts.size()) {
+                    throw new IllegalStateException("Expected " + texts.size() + " embeddings but got "
+                            + vectors.size());
+                }
+                for (int i = 0; i < texts.size(); i++) {
+                    batch.get(texts.get(i)).complete(vectors.get(i));
+                }
+            } catch (RuntimeException e) {
+                batch.values().forEach(future -> future.completeExceptionally(e));
+            }
+        });
+    }
+}
@@ -0,0 +1,122 @@
+package com.fklein.services.embedding;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fklein.services.http.MalformedResponseException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming decoder for OpenAI/Voyage-style embedding responses:
+ * {@code {"data": [{"index": 0, "embedding": [0.1, ...]}, ...], ...}}.
+ *
+ * The body is read token by token and every component is written straight into a primitive float[],
+ * sized after the first vector, so no tree, map or boxed Double is ever built. Everything outside
+ * {@code data[i].embedding} and {@code data[i].index} is skipped. A body that parses but does not hold a
+ * consistent set of embeddings fails with {@link MalformedResponseException}.
+ */
+public final class EmbeddingResponseDecoder {
+
+    private static final int INITIAL_DIMENSION = 1024;
+
+    private final JsonFactory factory;
+
+    public EmbeddingResponseDecoder(JsonFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * @return vectors ordered by their {@code index} field (array position when absent)
+     */
+    public List<float[]> decode(InputStream body) throws IOException {
+        try (JsonParser parser = factory.createParser(body)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            List<float[]> vectors = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("data".equals(field) && value == JsonToken.START_ARRAY) {
+                    vectors = readData(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (vectors == null || vectors.isEmpty()) {
+                throw new MalformedResponseException("No embeddings in response");
+            }
+            return vectors;
+        }
+    }
+
+    private static List<float[]> readData(JsonParser parser) throws IOException {
+        // Vectors in arrival order with their declared indexes, placed once the item count is known
+        List<float[]> arrived = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        int dimension = INITIAL_DIMENSION;
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            int index = arrived.size();
+            float[] vector = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("embedding".equals(field) && value == JsonToken.START_ARRAY) {
+                    vector = readVector(parser, dimension);
+                    if (!arrived.isEmpty() && vector.length != dimension) {
+                        throw new MalformedResponseException("Embedding of dimension " + vector.length + " in a response of "
+                                + dimension);
+                    }
+                    dimension = vector.length;
+                } else if ("index".equals(field) && value == JsonToken.VALUE_NUMBER_INT) {
+                    index = parser.getIntValue();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (vector == null) {
+                throw new MalformedResponseException("Embedding missing from data item " + index);
+            }
+            arrived.add(vector);
+            indexes.add(index);
+        }
+
+        float[][] vectors = new float[arrived.size()][];
+        for (int i = 0; i < vectors.length; i++) {
+            int index = indexes.get(i);
+            if (index < 0 || index >= vectors.length) {
+                throw new MalformedResponseException("Embedding index " + index + " outside 0.." + (vectors.length - 1));
+            }
+            if (vectors[index] != null) {
+                throw new MalformedResponseException("Duplicate embedding index " + index);
+            }
+            vectors[index] = arrived.get(i);
+        }
+        return Arrays.asList(vectors);
+    }
+
+    private static float[] readVector(JsonParser parser, int expectedDimension) throws IOException {
+        float[] vector = new float[expectedDimension];
+        int size = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.VALUE_NUMBER_FLOAT && token != JsonToken.VALUE_NUMBER_INT) {
+                throw new MalformedResponseException("Unexpected " + token + " in embedding");
+            }
+            if (size == vector.length) {
+                vector = Arrays.copyOf(vector, vector.length * 2);
+            }
+            vector[size++] = parser.getFloatValue();
+        }
+        return size == vector.length ? vector : Arrays.copyOf(vector, size);
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new MalformedResponseException("Expected " + expected + " but got " + actual);
+        }
+    }
+}
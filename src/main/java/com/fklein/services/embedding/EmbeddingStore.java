@@ -0,0 +1,326 @@
+package com.fklein.services.embedding;
+
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent, content-addressed embedding cache: an append-only log of (key, vector) records,
+ * where the key is a SHA-256 over the embedding fingerprint and the text.
+ *
+ * Layout (little-endian):
+ * <pre>
+ *   header   magic "FKEC", version
+ *   record   32-byte key, dimension, dimension * float32, CRC32 of the preceding fields
+ *            (dimension 0 with no floats is a tombstone retiring the key)
+ * </pre>
+ * Only a key to file offset index is kept on heap; vectors are read from the memory-mapped log, so the
+ * store does not duplicate the vectors already held by the vector store. A torn or corrupt tail (e.g. a
+ * crash mid-append) is truncated away, so only the records after the last good one are lost. Records
+ * superseded or retired by {@link #retainOnly} are dead weight until the next {@link #open} finds them
+ * above {@link #COMPACT_RATIO} of the file and rewrites the live records into a fresh log.
+ */
+public final class EmbeddingStore implements AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(EmbeddingStore.class);
+
+    private static final int MAGIC = 0x464B4543; // "FKEC"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int KEY_BYTES = 32;
+    private static final int MAX_DIMENSION = 1 << 16;
+    // The log is mapped as a single buffer
+    private static final long MAX_FILE_BYTES = Integer.MAX_VALUE;
+    private static final double COMPACT_RATIO = 0.5;
+
+    private final FileChannel channel;
+    // Offset of each live key's record in the log
+    private final Map<String, Long> offsets = new HashMap<>();
+    private MappedByteBuffer log;
+    private long deadBytes;
+
+    private EmbeddingStore(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Open (or create) the log at {@code file} and index its records, compacting it first when
+     * dead records make up more than {@link #COMPACT_RATIO} of it
+     */
+    public static EmbeddingStore open(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        EmbeddingStore store = openChannel(file);
+        if (store.deadBytes > 0 && store.deadBytes > COMPACT_RATIO * store.channel.size()) {
+            long before = store.channel.size();
+            try {
+                store.compactInto(file);
+            } finally {
+                store.close();
+            }
+            store = openChannel(file);
+            LOG.info("Compacted embedding store " + file + " from " + before + " to " + store.channel.size()
+                    + " bytes");
+        }
+        return store;
+    }
+
+    private static EmbeddingStore openChannel(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            EmbeddingStore store = new EmbeddingStore(channel);
+            store.load(file);
+            return store;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Content address of a text in a given embedding space
+     *
+     * @param fingerprint identifies provider, model and output dimensions
+     */
+    public static String key(String fingerprint, String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(fingerprint.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(text.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public synchronized float[] get(String key) {
+        Long offset = offsets.get(key);
+        if (offset == null) {
+            return null;
+        }
+        int position = (int) (offset + KEY_BYTES);
+        float[] vector = new float[log.getInt(position)];
+        log.slice(position + Integer.BYTES, vector.length * Float.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .asFloatBuffer()
+                .get(vector);
+        return vector;
+    }
+
+    public synchronized int size() {
+        return offsets.size();
+    }
+
+    /**
+     * Bytes of superseded and retired records still in the log
+     */
+    public synchronized long deadBytes() {
+        return deadBytes;
+    }
+
+    /**
+     * Append new records and flush them to disk; keys already present are skipped
+     */
+    public synchronized void putAll(Map<String, float[]> entries) throws IOException {
+        int bytes = 0;
+        for (Map.Entry<String, float[]> entry : entries.entrySet()) {
+            if (!offsets.containsKey(entry.getKey())) {
+                bytes += recordBytes(entry.getValue().length);
+            }
+        }
+        if (bytes == 0) {
+            return;
+        }
+        long start = channel.size();
+        if (start + bytes > MAX_FILE_BYTES) {
+            throw new IOException("Embedding store would exceed " + MAX_FILE_BYTES + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        Map<String, Long> appended = new HashMap<>();
+        for (Map.Entry<String, float[]> entry : entries.entrySet()) {
+            if (offsets.containsKey(entry.getKey()) || appended.containsKey(entry.getKey())) {
+                continue;
+            }
+            appended.put(entry.getKey(), start + buffer.position());
+            writeRecord(buffer, entry.getKey(), entry.getValue());
+        }
+        append(buffer, start);
+        offsets.putAll(appended);
+    }
+
+    /**
+     * Retire every key not in {@code live}, e.g. the texts of a CV section that was edited away.
+     * Tombstones are appended so the retirement survives a restart; the space is reclaimed on a later open.
+     */
+    public synchronized void retainOnly(Collection<String> live) throws IOException {
+        Set<String> keep = new HashSet<>(live);
+        List<String> retired = new ArrayList<>();
+        for (String key : offsets.keySet()) {
+            if (!keep.contains(key)) {
+                retired.add(key);
+            }
+        }
+        if (retired.isEmpty()) {
+            return;
+        }
+        long start = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate(retired.size() * recordBytes(0)).order(ByteOrder.LITTLE_ENDIAN);
+        for (String key : retired) {
+            writeRecord(buffer, key, new float[0]);
+        }
+        if (start + buffer.capacity() > MAX_FILE_BYTES) {
+            throw new IOException("Embedding store would exceed " + MAX_FILE_BYTES + " bytes");
+        }
+        append(buffer, start);
+        for (String key : retired) {
+            deadBytes += recordBytes(dimensionAt(offsets.remove(key))) + recordBytes(0);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        log = null;
+        channel.close();
+    }
+
+    private void load(Path file) throws IOException {
+        long size = channel.size();
+        if (size == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            remap();
+            return;
+        }
+        if (size > MAX_FILE_BYTES) {
+            throw new IOException("Embedding store larger than " + MAX_FILE_BYTES + " bytes: " + file);
+        }
+
+        remap();
+        ByteBuffer records = log.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (size < HEADER_BYTES || records.getInt() != MAGIC || records.getInt() != VERSION) {
+            throw new IOException("Not an embedding store (or unsupported version): " + file);
+        }
+
+        int valid = HEADER_BYTES;
+        byte[] key = new byte[KEY_BYTES];
+        while (records.remaining() >= KEY_BYTES + Integer.BYTES) {
+            int start = records.position();
+            records.get(key);
+            int dimension = records.getInt();
+            if (dimension < 0 || dimension > MAX_DIMENSION
+                    || records.remaining() < dimension * Float.BYTES + Integer.BYTES) {
+                break;
+            }
+            records.position(records.position() + dimension * Float.BYTES);
+            int end = records.position();
+            if (records.getInt() != (int) crc(records, start, end)) {
+                break;
+            }
+            Long previous = dimension == 0
+                    ? offsets.remove(HexFormat.of().formatHex(key))
+                    : offsets.put(HexFormat.of().formatHex(key), (long) start);
+            if (previous != null) {
+                deadBytes += recordBytes(dimensionAt(previous));
+            }
+            if (dimension == 0) {
+                deadBytes += recordBytes(0);
+            }
+            valid = records.position();
+        }
+
+        if (valid < size) {
+            LOG.warn("Embedding store " + file + " has " + (size - valid)
+                    + " unreadable trailing bytes, truncating to the last complete record");
+            channel.truncate(valid);
+            remap();
+        }
+    }
+
+    // Copy the live records byte for byte into a new log and move it over this one
+    private void compactInto(Path file) throws IOException {
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                while (header.hasRemaining()) {
+                    out.write(header);
+                }
+                for (long offset : offsets.values()) {
+                    ByteBuffer record = log.slice((int) offset, recordBytes(dimensionAt(offset)));
+                    while (record.hasRemaining()) {
+                        out.write(record);
+                    }
+                }
+                out.force(false);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void append(ByteBuffer buffer, long position) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        channel.force(false);
+        remap();
+    }
+
+    // The mapping covers the file as it was when mapped, so it is refreshed after every append
+    private void remap() throws IOException {
+        log = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        log.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private int dimensionAt(long offset) {
+        return log.getInt((int) offset + KEY_BYTES);
+    }
+
+    private static void writeRecord(ByteBuffer buffer, String key, float[] vector) {
+        int start = buffer.position();
+        buffer.put(HexFormat.of().parseHex(key));
+        buffer.putInt(vector.length);
+        for (float value : vector) {
+            buffer.putFloat(value);
+        }
+        buffer.putInt((int) crc(buffer, start, buffer.position()));
+    }
+
+    private static int recordBytes(int dimension) {
+        return KEY_BYTES + Integer.BYTES + dimension * Float.BYTES + Integer.BYTES;
+    }
+
+    private static long crc(ByteBuffer buffer, int from, int to) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().position(from).limit(to));
+        return crc.getValue();
+    }
+}
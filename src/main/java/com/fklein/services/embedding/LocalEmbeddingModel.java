@@ -0,0 +1,91 @@
+package com.fklein.services.embedding;
+
+import com.fklein.services.lexical.Tokenizer;
+import com.fklein.services.vector.VectorMath;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-process embedding model: a signed feature-hashing projection of word unigrams, word bigrams and
+ * character trigrams into a fixed number of dimensions, unit-normalized.
+ *
+ * Texts sharing words (after the lexical tokenizer's accent folding, stop-word removal and light stemming),
+ * word pairs or word fragments end up close in cosine similarity. Texts made only of stop words keep them,
+ * so only empty or punctuation-only text embeds to the zero vector. It has none of a neural encoder's
+ * semantics, but it needs no network, no model file and embeds a query in microseconds, which suits
+ * air-gapped deployments and load tests.
+ */
+public final class LocalEmbeddingModel {
+
+    private static final float UNIGRAM_WEIGHT = 1.0f;
+    private static final float BIGRAM_WEIGHT = 0.5f;
+    // Shared by all trigrams of one word, so long words do not dominate
+    private static final float TRIGRAM_WEIGHT = 0.5f;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int dimension;
+
+    public LocalEmbeddingModel(int dimension) {
+        if (dimension < 2) {
+            throw new IllegalArgumentException("Local embedding dimension must be at least 2");
+        }
+        this.dimension = dimension;
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    /**
+     * Identifies the projection: vectors from different dimensions or feature sets are not comparable
+     */
+    public String name() {
+        return "hashed-ngrams-v1-" + dimension;
+    }
+
+    public float[] embed(String text) {
+        List<String> tokens = Tokenizer.tokenize(text);
+        if (tokens.isEmpty()) {
+            // A query made only of stop words ("Who are you?") would otherwise embed to the zero vector,
+            // which scores every row 0 and turns vector retrieval into storage order
+            tokens = Tokenizer.tokenizeAll(text);
+        }
+        Map<String, Float> features = new HashMap<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            String token = tokens.get(i);
+            features.merge("w:" + token, UNIGRAM_WEIGHT, Float::sum);
+            if (i > 0) {
+                features.merge("b:" + tokens.get(i - 1) + ' ' + token, BIGRAM_WEIGHT, Float::sum);
+            }
+            String padded = '#' + token + '#';
+            int trigrams = padded.length() - 2;
+            for (int j = 0; j < trigrams; j++) {
+                features.merge("c:" + padded.substring(j, j + 3), TRIGRAM_WEIGHT / trigrams, Float::sum);
+            }
+        }
+
+        float[] vector = new float[dimension];
+        for (Map.Entry<String, Float> feature : features.entrySet()) {
+            long hash = hash(feature.getKey());
+            int index = (int) Long.remainderUnsigned(hash, dimension);
+            float sign = hash < 0 ? -1f : 1f;
+            // Sublinear term frequency: repeating a word helps, but with diminishing returns
+            vector[index] += sign * (float) Math.log1p(feature.getValue());
+        }
+        return VectorMath.normalize(vector);
+    }
+
+    // 64-bit FNV-1a; the top bit picks the sign, the remainder the dimension
+    private static long hash(String feature) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < feature.length(); i++) {
+            hash ^= feature.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
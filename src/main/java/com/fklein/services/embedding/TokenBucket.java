@@ -0,0 +1,48 @@
+package com.fklein.services.embedding;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token-bucket rate limiter: holds up to {@code capacity} tokens, refilled continuously at
+ * {@code capacity} per {@code period}. Callers block until enough tokens are available.
+ */
+public final class TokenBucket {
+
+    private final long capacity;
+    private final double refillPerNano;
+    private double tokens;
+    private long lastRefill;
+
+    public TokenBucket(long capacity, Duration period) {
+        if (capacity <= 0 || period.isZero() || period.isNegative()) {
+            throw new IllegalArgumentException("Token bucket needs a positive capacity and period");
+        }
+        this.capacity = capacity;
+        this.refillPerNano = (double) capacity / period.toNanos();
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Take {@code requested} tokens, waiting for the refill if needed.
+     * Requests larger than the capacity take the whole bucket rather than waiting forever.
+     */
+    public void acquire(long requested) throws InterruptedException {
+        long needed = Math.min(requested, capacity);
+        while (true) {
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                tokens = Math.min(capacity, tokens + (now - lastRefill) * refillPerNano);
+                lastRefill = now;
+                if (tokens >= needed) {
+                    tokens -= needed;
+                    return;
+                }
+                waitNanos = (long) Math.ceil((needed - tokens) / refillPerNano);
+            }
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.fklein.services.http;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * Pulls a few scalar fields out of a JSON document without building a tree.
+ *
+ * Paths are dotted, with numeric segments addressing array elements ({@code choices.0.delta.content}).
+ * The document is walked with a streaming parser and every subtree that cannot lead to a requested path is
+ * skipped, so per document only the extracted values are allocated. Immutable and thread-safe.
+ */
+public final class JsonFieldExtractor {
+
+    // Nesting levels tracked by the cursor; a path must end above the last one
+    static final int MAX_DEPTH = 16;
+
+    private final JsonFactory factory;
+    private final String[][] names;
+    private final int[][] indexes;
+
+    public JsonFieldExtractor(JsonFactory factory, String... paths) {
+        this.factory = factory;
+        this.names = new String[paths.length][];
+        this.indexes = new int[paths.length][];
+        for (int p = 0; p < paths.length; p++) {
+            String[] segments = paths[p].split("\\.");
+            if (segments.length >= MAX_DEPTH) {
+                throw new IllegalArgumentException("Path too deep: " + paths[p]);
+            }
+            names[p] = segments;
+            indexes[p] = new int[segments.length];
+            for (int s = 0; s < segments.length; s++) {
+                indexes[p][s] = segments[s].chars().allMatch(Character::isDigit) ? Integer.parseInt(segments[s]) : -1;
+            }
+        }
+    }
+
+    /**
+     * Values of the requested paths, in constructor order; null where absent or JSON null.
+     * Numbers and booleans are returned in their textual form.
+     */
+    public String[] extract(String json) throws IOException {
+        String[] values = new String[names.length];
+        try (JsonParser parser = factory.createParser(json)) {
+            JsonToken root = parser.nextToken();
+            if (root != null) {
+                read(parser, root, new Cursor(), 0, values);
+            }
+        }
+        return values;
+    }
+
+    private void read(JsonParser parser, JsonToken token, Cursor cursor, int depth, String[] values)
+            throws IOException {
+        if (token == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                cursor.names[depth] = parser.currentName();
+                cursor.indexes[depth] = -1;
+                JsonToken value = parser.nextToken();
+                descend(parser, value, cursor, depth, values);
+            }
+        } else if (token == JsonToken.START_ARRAY) {
+            int index = 0;
+            JsonToken value;
+            while ((value = parser.nextToken()) != JsonToken.END_ARRAY) {
+                cursor.names[depth] = null;
+                cursor.indexes[depth] = index++;
+                descend(parser, value, cursor, depth, values);
+            }
+        } else {
+            for (int p = 0; p < names.length; p++) {
+                if (names[p].length == depth && prefixMatches(p, cursor, depth)) {
+                    values[p] = token == JsonToken.VALUE_NULL ? null : parser.getText();
+                }
+            }
+        }
+    }
+
+    private void descend(JsonParser parser, JsonToken value, Cursor cursor, int depth, String[] values)
+            throws IOException {
+        if (depth + 1 < MAX_DEPTH && wanted(cursor, depth + 1)) {
+            read(parser, value, cursor, depth + 1, values);
+        } else {
+            parser.skipChildren();
+        }
+    }
+
+    // Whether some requested path starts with the cursor's first length segments
+    private boolean wanted(Cursor cursor, int length) {
+        for (int p = 0; p < names.length; p++) {
+            if (names[p].length >= length && prefixMatches(p, cursor, length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean prefixMatches(int path, Cursor cursor, int length) {
+        for (int s = 0; s < length; s++) {
+            boolean match = cursor.names[s] != null
+                    ? cursor.names[s].equals(names[path][s])
+                    : cursor.indexes[s] == indexes[path][s];
+            if (!match) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Current position: a field name, or an array index when the name is null
+    private static final class Cursor {
+        final String[] names = new String[MAX_DEPTH];
+        final int[] indexes = new int[MAX_DEPTH];
+    }
+}
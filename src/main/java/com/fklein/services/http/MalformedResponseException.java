@@ -0,0 +1,13 @@
+package com.fklein.services.http;
+
+import java.io.IOException;
+
+/**
+ * An upstream API answered successfully but its body could not be decoded
+ */
+public class MalformedResponseException extends IOException {
+
+    public MalformedResponseException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,176 @@
+package com.fklein.services.http;
+
+import io.smallrye.mutiny.Multi;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Push-based Server-Sent Events decoder working directly on response bytes.
+ *
+ * Bytes are fed as they arrive, in chunks of any size. Lines may end in LF, CRLF or CR; {@code event:}
+ * and {@code data:} fields are collected, multi-line data is joined with LF, comments and other fields are
+ * ignored, and each blank line dispatches one event. Field names are matched on raw bytes, so the only
+ * allocations per event are its type and data strings.
+ */
+public final class SseDecoder {
+
+    /**
+     * Receives decoded events
+     */
+    @FunctionalInterface
+    public interface Listener {
+
+        /**
+         * @param type the {@code event:} field, or "message" when absent
+         * @return false to stop decoding
+         */
+        boolean onEvent(String type, String data);
+    }
+
+    /**
+     * One dispatched event
+     */
+    public record Event(String type, String data) {
+    }
+
+    private static final byte[] DATA = "data".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EVENT = "event".getBytes(StandardCharsets.US_ASCII);
+
+    private final Listener listener;
+    private byte[] line = new byte[512];
+    private int lineLength;
+    private boolean afterCarriageReturn;
+    private String eventType;
+    private String data;
+    private StringBuilder multiLineData;
+    private boolean stopped;
+
+    public SseDecoder(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Decode a byte stream into events. Each subscription gets its own decoder, and demand for events is
+     * passed on to the byte stream, so upstream reads follow the consumer.
+     */
+    public static Multi<Event> events(Multi<List<ByteBuffer>> bytes) {
+        return Multi.createFrom().deferred(() -> {
+            List<Event> decoded = new ArrayList<>();
+            SseDecoder decoder = new SseDecoder((type, data) -> decoded.add(new Event(type, data)));
+            return bytes.onItem().transformToIterable(buffers -> {
+                for (ByteBuffer buffer : buffers) {
+                    decoder.feed(buffer);
+                }
+                List<Event> batch = List.copyOf(decoded);
+                decoded.clear();
+                return batch;
+            });
+        });
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    public void feed(ByteBuffer bytes) {
+        if (bytes.hasArray()) {
+            feed(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+            bytes.position(bytes.limit());
+            return;
+        }
+        byte[] copy = new byte[bytes.remaining()];
+        bytes.get(copy);
+        feed(copy, 0, copy.length);
+    }
+
+    public void feed(byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length && !stopped; i++) {
+            byte b = bytes[i];
+            if (b == '\n') {
+                if (!afterCarriageReturn) {
+                    endLine();
+                }
+                afterCarriageReturn = false;
+            } else if (b == '\r') {
+                endLine();
+                afterCarriageReturn = true;
+            } else {
+                afterCarriageReturn = false;
+                if (lineLength == line.length) {
+                    line = Arrays.copyOf(line, line.length * 2);
+                }
+                line[lineLength++] = b;
+            }
+        }
+    }
+
+    /**
+     * End of stream: a last line without terminator is still processed, a trailing undispatched event dropped
+     */
+    public void finish() {
+        if (lineLength > 0 && !stopped) {
+            endLine();
+        }
+    }
+
+    private void endLine() {
+        int length = lineLength;
+        lineLength = 0;
+        if (length == 0) {
+            dispatch();
+            return;
+        }
+        if (line[0] == ':') {
+            return;
+        }
+        int colon = indexOf(line, length, (byte) ':');
+        int nameLength = colon < 0 ? length : colon;
+        int valueStart = colon < 0 ? length : colon + 1;
+        if (valueStart < length && line[valueStart] == ' ') {
+            valueStart++;
+        }
+        if (matches(DATA, nameLength)) {
+            appendData(new String(line, valueStart, length - valueStart, StandardCharsets.UTF_8));
+        } else if (matches(EVENT, nameLength)) {
+            eventType = new String(line, valueStart, length - valueStart, StandardCharsets.UTF_8);
+        }
+    }
+
+    private void appendData(String value) {
+        if (data == null) {
+            data = value;
+            return;
+        }
+        if (multiLineData == null) {
+            multiLineData = new StringBuilder(data);
+        }
+        multiLineData.append('\n').append(value);
+    }
+
+    private void dispatch() {
+        if (data != null) {
+            String payload = multiLineData != null ? multiLineData.toString() : data;
+            stopped = !listener.onEvent(eventType != null ? eventType : "message", payload);
+        }
+        eventType = null;
+        data = null;
+        multiLineData = null;
+    }
+
+    private boolean matches(byte[] name, int nameLength) {
+        return nameLength == name.length && Arrays.equals(line, 0, nameLength, name, 0, nameLength);
+    }
+
+    private static int indexOf(byte[] bytes, int length, byte target) {
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
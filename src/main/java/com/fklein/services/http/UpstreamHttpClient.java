@@ -0,0 +1,286 @@
+package com.fklein.services.http;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shared transport for every upstream API (embeddings, OpenAI, Claude).
+ *
+ * One {@link HttpClient} keeps a pool of kept-alive connections and negotiates HTTP/2 where the server
+ * supports it, multiplexing concurrent requests over one TLS connection per host instead of paying a
+ * handshake per call. Requests to each host are capped by semaphores so a burst cannot exhaust the
+ * upstream's connection or rate limits, and per-host counters make pool usage visible. Chat streams and
+ * request/response calls (embeddings, non-streaming completions) draw from separate pools, so a reindex
+ * burst of embedding requests cannot use up the slots an interactive chat stream needs.
+ */
+@ApplicationScoped
+public class UpstreamHttpClient {
+
+    private static final Logger LOG = Logger.getLogger(UpstreamHttpClient.class);
+
+    @ConfigProperty(name = "upstream.http.connect-timeout", defaultValue = "5s")
+    Duration connectTimeout;
+
+    // Upper bound for waiting on a per-host slot and then for the response headers
+    @ConfigProperty(name = "upstream.http.request-timeout", defaultValue = "60s")
+    Duration requestTimeout;
+
+    @ConfigProperty(name = "upstream.http.max-concurrent-per-host", defaultValue = "32")
+    int maxConcurrentPerHost;
+
+    // Separate cap for streamed chat responses, see streamJson
+    @ConfigProperty(name = "upstream.http.max-streams-per-host", defaultValue = "32")
+    int maxStreamsPerHost;
+
+    private HttpClient client;
+    private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void init() {
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+    }
+
+    /**
+     * POST a JSON body and read the whole response as a string
+     *
+     * @param headers alternating header names and values
+     */
+    public HttpResponse<String> postJson(String url, String json, String... headers) throws IOException {
+        HttpRequest request = jsonRequest(url, json, headers).timeout(requestTimeout).build();
+        Host host = acquire(request.uri());
+        try {
+            HttpResponse<String> response = client.send(request,
+                    HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            host.record(response.statusCode());
+            return response;
+        } catch (IOException e) {
+            host.failures.increment();
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted calling " + request.uri());
+        } finally {
+            host.release();
+        }
+    }
+
+    /**
+     * POST a JSON body and return as soon as the response headers arrive, for streamed responses.
+     * The per-host slot is held until the body stream is closed, so callers must close it.
+     */
+    public HttpResponse<InputStream> postJsonStreaming(String url, String json, String... headers)
+            throws IOException {
+        HttpRequest request = jsonRequest(url, json, headers).timeout(requestTimeout).build();
+        Host host = acquire(request.uri());
+        try {
+            return client.send(request, responseInfo -> {
+                host.record(responseInfo.statusCode());
+                return HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofInputStream(),
+                        body -> (InputStream) new ReleasingInputStream(body, host));
+            });
+        } catch (IOException e) {
+            host.failures.increment();
+            host.release();
+            throw e;
+        } catch (InterruptedException e) {
+            host.release();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted calling " + request.uri());
+        }
+    }
+
+    /**
+     * POST a JSON body and stream the response body without blocking any thread.
+     *
+     * Nothing is sent until the returned Multi is subscribed. The body is read only as fast as the subscriber
+     * requests it, so a slow consumer slows the upstream read (TCP or HTTP/2 flow control) rather than
+     * buffering. A slot from the host's stream pool is taken without waiting, failing fast when all streams
+     * to the host are in use, and is released on completion, failure or cancellation. Non-2xx responses fail
+     * with {@link UpstreamStatusException}.
+     *
+     * @param headers alternating header names and values
+     */
+    public Multi<List<ByteBuffer>> streamJson(String url, String json, String... headers) {
+        return Multi.createFrom().deferred(() -> {
+            HttpRequest request = jsonRequest(url, json, headers).timeout(requestTimeout).build();
+            Host host;
+            try {
+                host = acquireStream(request.uri());
+            } catch (IOException e) {
+                return Multi.createFrom().failure(e);
+            }
+            AtomicBoolean released = new AtomicBoolean();
+            return Uni.createFrom()
+                    .completionStage(() -> client.sendAsync(request, HttpResponse.BodyHandlers.ofPublisher()))
+                    .onItem().transformToMulti(response -> {
+                        host.record(response.statusCode());
+                        Multi<List<ByteBuffer>> body = Multi.createFrom().publisher(response.body());
+                        if (response.statusCode() / 100 == 2) {
+                            return body;
+                        }
+                        return body.collect().in(ByteArrayOutputStream::new, UpstreamHttpClient::append)
+                                .onItem().<List<ByteBuffer>>transformToMulti(error -> Multi.createFrom().failure(
+                                        new UpstreamStatusException(response.statusCode(),
+                                                error.toString(StandardCharsets.UTF_8))));
+                    })
+                    .onFailure(e -> !(e instanceof UpstreamStatusException)).invoke(host.failures::increment)
+                    .onTermination().invoke(() -> {
+                        if (released.compareAndSet(false, true)) {
+                            host.releaseStream();
+                        }
+                    });
+        });
+    }
+
+    /**
+     * Counters for every upstream host called so far, by host name
+     */
+    public Map<String, HostStats> stats() {
+        Map<String, HostStats> stats = new TreeMap<>();
+        hosts.forEach((name, host) -> stats.put(name, host.snapshot()));
+        return stats;
+    }
+
+    private static HttpRequest.Builder jsonRequest(String url, String json, String... headers) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json, StandardCharsets.UTF_8));
+        if (headers.length > 0) {
+            builder.headers(headers);
+        }
+        return builder;
+    }
+
+    private Host acquire(URI uri) throws IOException {
+        Host host = hosts.computeIfAbsent(uri.getHost(), name -> new Host(maxConcurrentPerHost, maxStreamsPerHost));
+        try {
+            if (!host.requestPermits.tryAcquire(requestTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new IOException("No free connection slot for " + uri.getHost() + " after "
+                        + requestTimeout.toMillis() + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a connection slot to " + uri.getHost());
+        }
+        host.requests.increment();
+        if (host.requestPermits.availablePermits() == 0) {
+            LOG.debug("All " + maxConcurrentPerHost + " connection slots to " + uri.getHost() + " in use");
+        }
+        return host;
+    }
+
+    // Non-blocking acquire from the stream pool
+    private Host acquireStream(URI uri) throws IOException {
+        Host host = hosts.computeIfAbsent(uri.getHost(), name -> new Host(maxConcurrentPerHost, maxStreamsPerHost));
+        if (!host.streamPermits.tryAcquire()) {
+            throw new IOException("All " + maxStreamsPerHost + " stream slots to " + uri.getHost() + " in use");
+        }
+        host.requests.increment();
+        return host;
+    }
+
+    private static void append(ByteArrayOutputStream out, List<ByteBuffer> buffers) {
+        for (ByteBuffer buffer : buffers) {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            out.writeBytes(bytes);
+        }
+    }
+
+    /**
+     * Point-in-time counters for one upstream host; {@code inFlight} counts request/response calls and
+     * {@code streamsInFlight} streamed chat responses
+     */
+    public record HostStats(long requests, long failures, long errorResponses, int inFlight, int streamsInFlight) {
+    }
+
+    private static final class Host {
+
+        final Semaphore requestPermits;
+        final Semaphore streamPermits;
+        final int requestCapacity;
+        final int streamCapacity;
+        final LongAdder requests = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder errorResponses = new LongAdder();
+
+        Host(int requestCapacity, int streamCapacity) {
+            this.requestCapacity = requestCapacity;
+            this.streamCapacity = streamCapacity;
+            this.requestPermits = new Semaphore(requestCapacity);
+            this.streamPermits = new Semaphore(streamCapacity);
+        }
+
+        void record(int status) {
+            if (status >= 400) {
+                errorResponses.increment();
+            }
+        }
+
+        void release() {
+            requestPermits.release();
+        }
+
+        void releaseStream() {
+            streamPermits.release();
+        }
+
+        HostStats snapshot() {
+            return new HostStats(requests.sum(), failures.sum(), errorResponses.sum(),
+                    requestCapacity - requestPermits.availablePermits(),
+                    streamCapacity - streamPermits.availablePermits());
+        }
+    }
+
+    // Gives the host slot back exactly once, when the streamed body is closed
+    private static final class ReleasingInputStream extends FilterInputStream {
+
+        private final Host host;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        ReleasingInputStream(InputStream in, Host host) {
+            super(in);
+            this.host = host;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (released.compareAndSet(false, true)) {
+                    host.release();
+                }
+            }
+        }
+    }
+}
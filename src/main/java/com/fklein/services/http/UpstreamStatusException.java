@@ -0,0 +1,26 @@
+package com.fklein.services.http;
+
+import java.io.IOException;
+
+/**
+ * An upstream API answered with a non-2xx status
+ */
+public class UpstreamStatusException extends IOException {
+
+    private final int statusCode;
+    private final String body;
+
+    public UpstreamStatusException(int statusCode, String body) {
+        super("HTTP " + statusCode + ": " + body);
+        this.statusCode = statusCode;
+        this.body = body;
+    }
+
+    public int statusCode() {
+        return statusCode;
+    }
+
+    public String body() {
+        return body;
+    }
+}
@@ -0,0 +1,163 @@
+package com.fklein.services.lexical;
+
+import com.fklein.services.vector.EmbeddingMatrix;
+import com.fklein.services.vector.TopK;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory inverted index with Okapi BM25 scoring, keyed by the same rows as the {@link EmbeddingMatrix}.
+ * Removed rows keep their postings until the next {@link #rebuild} but are never scored, and no longer count
+ * towards the document frequency of their terms.
+ */
+public final class Bm25Index {
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    private final Map<String, Postings> postings = new HashMap<>();
+    private int[] lengths = new int[16];
+    // Distinct terms of each row, to release its document frequencies on removal
+    private String[][] rowTerms = new String[16][];
+    private final BitSet live = new BitSet();
+    private long totalLength;
+
+    public void add(int row, String content) {
+        List<String> tokens = Tokenizer.tokenize(content);
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (String token : tokens) {
+            frequencies.merge(token, 1, Integer::sum);
+        }
+        for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+            postings.computeIfAbsent(entry.getKey(), term -> new Postings()).add(row, entry.getValue());
+        }
+        if (row >= lengths.length) {
+            int capacity = Math.max(row + 1, lengths.length * 2);
+            lengths = Arrays.copyOf(lengths, capacity);
+            rowTerms = Arrays.copyOf(rowTerms, capacity);
+        }
+        lengths[row] = tokens.size();
+        rowTerms[row] = frequencies.keySet().toArray(String[]::new);
+        totalLength += tokens.size();
+        live.set(row);
+    }
+
+    public void remove(int row) {
+        if (live.get(row)) {
+            live.clear(row);
+            totalLength -= lengths[row];
+            for (String term : rowTerms[row]) {
+                postings.get(term).live--;
+            }
+            rowTerms[row] = null;
+        }
+    }
+
+    public void clear() {
+        postings.clear();
+        lengths = new int[16];
+        rowTerms = new String[16][];
+        live.clear();
+        totalLength = 0;
+    }
+
+    /**
+     * Independent copy for copy-on-write updates
+     */
+    public Bm25Index copy() {
+        Bm25Index copy = new Bm25Index();
+        postings.forEach((term, termPostings) -> copy.postings.put(term, termPostings.copy()));
+        copy.lengths = lengths.clone();
+        copy.rowTerms = rowTerms.clone();
+        copy.live.or(live);
+        copy.totalLength = totalLength;
+        return copy;
+    }
+
+    /**
+     * Re-index every live row, after the matrix was compacted
+     */
+    public void rebuild(EmbeddingMatrix matrix) {
+        clear();
+        for (int row = 0; row < matrix.rowCount(); row++) {
+            if (matrix.isLive(row)) {
+                add(row, matrix.content(row));
+            }
+        }
+    }
+
+    /**
+     * Best {@code k} rows for a free-text query, among {@code candidates} when not null
+     */
+    public TopK search(String query, int k, BitSet candidates) {
+        int documents = live.cardinality();
+        TopK heap = new TopK(k);
+        if (documents == 0) {
+            return heap;
+        }
+        float averageLength = (float) totalLength / documents;
+
+        // Dense accumulator over rows; only rows touched by a query term are offered to the heap
+        float[] scores = new float[lengths.length];
+        BitSet touched = new BitSet();
+        for (String term : new LinkedHashSet<>(Tokenizer.tokenize(query))) {
+            Postings termPostings = postings.get(term);
+            if (termPostings == null) {
+                continue;
+            }
+            int documentFrequency = termPostings.live;
+            if (documentFrequency == 0) {
+                continue;
+            }
+            float idf = (float) Math.log(1 + (documents - documentFrequency + 0.5) / (documentFrequency + 0.5));
+            for (int i = 0; i < termPostings.size; i++) {
+                int row = termPostings.rows[i];
+                if (!live.get(row) || (candidates != null && !candidates.get(row))) {
+                    continue;
+                }
+                float tf = termPostings.frequencies[i];
+                float norm = K1 * (1 - B + B * lengths[row] / averageLength);
+                scores[row] += idf * tf * (K1 + 1) / (tf + norm);
+                touched.set(row);
+            }
+        }
+        for (int row = touched.nextSetBit(0); row >= 0; row = touched.nextSetBit(row + 1)) {
+            heap.offer(row, scores[row]);
+        }
+        return heap;
+    }
+
+    private static final class Postings {
+
+        private int[] rows = new int[4];
+        private int[] frequencies = new int[4];
+        private int size;
+        // Postings of live rows
+        private int live;
+
+        void add(int row, int frequency) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            rows[size] = row;
+            frequencies[size] = frequency;
+            size++;
+            live++;
+        }
+
+        Postings copy() {
+            Postings copy = new Postings();
+            copy.rows = rows.clone();
+            copy.frequencies = frequencies.clone();
+            copy.size = size;
+            copy.live = live;
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.fklein.services.lexical;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * French/English tokenizer for lexical search.
+ *
+ * Text is lower-cased and stripped of diacritics ("Expérience" and "experience" match), split on anything
+ * that is not a letter or digit (which also splits elisions such as "l'entreprise"), filtered against
+ * French and English stop words, and lightly stemmed by dropping a plural "s"/"x".
+ */
+public final class Tokenizer {
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private static final Set<String> STOP_WORDS = Set.of(
+            // English
+            "a", "an", "and", "are", "as", "at", "be", "by", "did", "do", "does", "for", "from", "has", "have",
+            "he", "her", "his", "how", "in", "is", "it", "its", "me", "my", "of", "on", "or", "she", "that",
+            "the", "their", "them", "they", "this", "to", "was", "were", "what", "when", "where", "which",
+            "who", "why", "with", "you", "your",
+            // French (diacritics already stripped)
+            "au", "aux", "avec", "ce", "ces", "cette", "dans", "de", "des", "du", "elle", "en", "est", "et",
+            "il", "ils", "je", "la", "le", "les", "leur", "lui", "ma", "mais", "mes", "moi", "mon", "ne",
+            "nous", "ou", "par", "pas", "pour", "qu", "que", "quel", "quelle", "quels", "qui", "sa", "se",
+            "ses", "son", "sont", "sur", "ta", "te", "tes", "toi", "ton", "tu", "un", "une", "vos", "votre",
+            "vous", "comment", "quoi", "ont", "fait", "ete", "etait");
+
+    private Tokenizer() {
+    }
+
+    public static List<String> tokenize(String text) {
+        return tokenize(text, true);
+    }
+
+    /**
+     * Same folding, splitting and stemming as {@link #tokenize(String)}, but keeping stop words and
+     * single characters: for callers that must not end up empty-handed on "Who are you?"
+     */
+    public static List<String> tokenizeAll(String text) {
+        return tokenize(text, false);
+    }
+
+    private static List<String> tokenize(String text, boolean filter) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+        String folded = DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("")
+                .toLowerCase(Locale.ROOT);
+        for (String token : SEPARATORS.split(folded)) {
+            if (token.isEmpty() || (filter && (token.length() < 2 || STOP_WORDS.contains(token)))) {
+                continue;
+            }
+            tokens.add(stem(token));
+        }
+        return tokens;
+    }
+
+    private static String stem(String token) {
+        int length = token.length();
+        if (length > 3) {
+            char last = token.charAt(length - 1);
+            if ((last == 's' || last == 'x') && token.charAt(length - 2) != 's') {
+                return token.substring(0, length - 1);
+            }
+        }
+        return token;
+    }
+}
@@ -0,0 +1,40 @@
+package com.fklein.services.llm;
+
+import java.util.Arrays;
+
+/**
+ * The most recent latency samples of one provider, for percentile estimates. Thread-safe.
+ */
+public final class LatencyWindow {
+
+    private final long[] samples;
+    private int count;
+    private int next;
+
+    public LatencyWindow(int capacity) {
+        this.samples = new long[capacity];
+    }
+
+    public synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * The given percentile (0 to 1) of the recorded samples in nanoseconds, or -1 when empty
+     */
+    public synchronized long percentile(double percentile) {
+        if (count == 0) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+}
@@ -0,0 +1,33 @@
+package com.fklein.services.llm;
+
+import io.smallrye.mutiny.Multi;
+
+/**
+ * A chat model vendor that can stream an answer to a prompt
+ */
+public interface LlmProvider {
+
+    // Value of an API key property left at its documented placeholder
+    String UNSET_API_KEY = "your-api-key-here";
+
+    /**
+     * Short identifier used in configuration, e.g. "openai"
+     */
+    String name();
+
+    /**
+     * Whether an API key is set; unconfigured providers are skipped by {@link LlmRouter}
+     */
+    boolean isConfigured();
+
+    /**
+     * Stream the answer as text deltas. Nothing is sent before subscription, and cancelling the
+     * subscription aborts the upstream request.
+     */
+    Multi<String> streamChatCompletion(Prompt prompt);
+
+    /**
+     * Token usage summed over every completed response
+     */
+    TokenUsage usageTotals();
+}
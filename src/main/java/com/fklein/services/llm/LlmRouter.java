@@ -0,0 +1,403 @@
+package com.fklein.services.llm;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Any;
+import jakarta.enterprise.inject.Instance;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Streams answers from the configured LLM providers, hedging against a slow or failing one.
+ *
+ * The first provider in {@code llm.providers} is asked first. If its first token has not arrived within its
+ * recent time-to-first-token percentile (clamped to [min-delay, max-delay], max-delay until enough samples
+ * are known), the next provider is asked as well; whichever streams a token first wins and the other
+ * request is cancelled. A provider failing before its first token fails over to the next one immediately.
+ * Once a winner has streamed a token, a later failure is passed on: a half-written answer cannot be
+ * switched to another model.
+ *
+ * Demand is forwarded: before a winner is known each attempt is asked for one token only, afterwards the
+ * subscriber's demand goes straight to the winning stream.
+ */
+@ApplicationScoped
+public class LlmRouter {
+
+    private static final Logger LOG = Logger.getLogger(LlmRouter.class);
+
+    @Inject
+    @Any
+    Instance<LlmProvider> available;
+
+    // Providers in order of preference; those without an API key are skipped
+    @ConfigProperty(name = "llm.providers", defaultValue = "openai,claude")
+    List<String> providerNames;
+
+    @ConfigProperty(name = "llm.hedge.enabled", defaultValue = "true")
+    boolean hedgeEnabled;
+
+    // Time-to-first-token percentile after which the next provider is asked too
+    @ConfigProperty(name = "llm.hedge.percentile", defaultValue = "0.95")
+    double hedgePercentile;
+
+    @ConfigProperty(name = "llm.hedge.min-delay", defaultValue = "300ms")
+    Duration hedgeMinDelay;
+
+    @ConfigProperty(name = "llm.hedge.max-delay", defaultValue = "4s")
+    Duration hedgeMaxDelay;
+
+    // Recent first-token latencies kept per provider, and how many are needed before trusting the percentile
+    @ConfigProperty(name = "llm.hedge.window", defaultValue = "200")
+    int hedgeWindow;
+
+    @ConfigProperty(name = "llm.hedge.min-samples", defaultValue = "20")
+    int hedgeMinSamples;
+
+    private List<LlmProvider> providers;
+    private final Map<String, LatencyWindow> firstTokenLatency = new HashMap<>();
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgesWon = new LongAdder();
+    private final LongAdder failovers = new LongAdder();
+
+    @PostConstruct
+    void init() {
+        configure(available);
+    }
+
+    // Pick the configured providers, in preference order, out of the candidates
+    void configure(Iterable<LlmProvider> candidates) {
+        Map<String, LlmProvider> byName = new HashMap<>();
+        for (LlmProvider provider : candidates) {
+            byName.put(provider.name(), provider);
+        }
+        providers = new ArrayList<>();
+        for (String name : providerNames) {
+            LlmProvider provider = byName.get(name.strip());
+            if (provider == null) {
+                throw new IllegalArgumentException("Unknown LLM provider: " + name
+                        + " (known: " + byName.keySet() + ")");
+            }
+            if (provider.isConfigured()) {
+                providers.add(provider);
+                firstTokenLatency.put(provider.name(), new LatencyWindow(hedgeWindow));
+            } else {
+                LOG.warn("LLM provider " + provider.name() + " has no API key, skipped");
+            }
+        }
+        if (providers.isEmpty()) {
+            // Keep the preferred one so requests fail with the provider's own error
+            LlmProvider preferred = byName.get(providerNames.get(0).strip());
+            providers.add(preferred);
+            firstTokenLatency.put(preferred.name(), new LatencyWindow(hedgeWindow));
+        }
+        LOG.info("LLM providers: " + providers.stream().map(LlmProvider::name).toList()
+                + (hedgeEnabled && providers.size() > 1 ? ", hedging enabled" : ""));
+    }
+
+    public Multi<String> streamChatCompletion(Prompt prompt) {
+        return Multi.createFrom().publisher(subscriber -> {
+            requests.increment();
+            subscriber.onSubscribe(new Race(prompt, subscriber));
+        });
+    }
+
+    /**
+     * How long to wait for a provider's first token before hedging
+     */
+    public Duration hedgeDelay(LlmProvider provider) {
+        LatencyWindow window = firstTokenLatency.get(provider.name());
+        if (window == null || window.size() < hedgeMinSamples) {
+            return hedgeMaxDelay;
+        }
+        long nanos = window.percentile(hedgePercentile);
+        return Duration.ofNanos(Math.max(hedgeMinDelay.toNanos(), Math.min(hedgeMaxDelay.toNanos(), nanos)));
+    }
+
+    /**
+     * Token usage totals of each routed provider, prompt cache reads and writes included
+     */
+    public Map<String, TokenUsage> usageByProvider() {
+        Map<String, TokenUsage> usage = new LinkedHashMap<>();
+        for (LlmProvider provider : providers) {
+            usage.put(provider.name(), provider.usageTotals());
+        }
+        return usage;
+    }
+
+    public Stats stats() {
+        return new Stats(requests.sum(), hedges.sum(), hedgesWon.sum(), failovers.sum());
+    }
+
+    /**
+     * Point-in-time counters: streams requested, hedged requests sent, hedged requests that won, failovers
+     */
+    public record Stats(long requests, long hedges, long hedgesWon, long failovers) {
+    }
+
+    // One answer: the attempts racing for it and the subscriber it is streamed to
+    private final class Race implements Flow.Subscription {
+
+        private final Prompt prompt;
+        private final Flow.Subscriber<? super String> downstream;
+        private final List<Attempt> attempts = new ArrayList<>();
+        private volatile Attempt winner;
+        private int nextProvider;
+        private long pendingDemand;
+        private boolean started;
+        private boolean done;
+        private ScheduledFuture<?> hedgeTimer;
+
+        Race(Prompt prompt, Flow.Subscriber<? super String> downstream) {
+            this.prompt = prompt;
+            this.downstream = downstream;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                downstream.onError(new IllegalArgumentException("Requested " + n + " items, must be positive"));
+                return;
+            }
+            Attempt forward;
+            boolean start = false;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                forward = winner;
+                if (forward == null) {
+                    pendingDemand = pendingDemand + n < 0 ? Long.MAX_VALUE : pendingDemand + n;
+                    start = !started;
+                    started = true;
+                }
+            }
+            if (forward != null) {
+                forward.subscription.request(n);
+            } else if (start) {
+                startNext(false);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            List<Attempt> running;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                done = true;
+                cancelHedgeTimer();
+                running = List.copyOf(attempts);
+            }
+            running.forEach(Attempt::cancel);
+        }
+
+        private void startNext(boolean hedged) {
+            Attempt attempt;
+            synchronized (this) {
+                if (done || winner != null || nextProvider >= providers.size()) {
+                    return;
+                }
+                attempt = new Attempt(this, providers.get(nextProvider++), hedged);
+                attempts.add(attempt);
+                cancelHedgeTimer();
+                if (hedgeEnabled && nextProvider < providers.size()) {
+                    hedgeTimer = Infrastructure.getDefaultWorkerPool().schedule(() -> hedge(attempt),
+                            hedgeDelay(attempt.provider).toNanos(), TimeUnit.NANOSECONDS);
+                }
+            }
+            attempt.provider.streamChatCompletion(prompt).subscribe().withSubscriber(attempt);
+        }
+
+        private void hedge(Attempt slow) {
+            String next;
+            synchronized (this) {
+                if (done || winner != null || nextProvider >= providers.size()) {
+                    return;
+                }
+                next = providers.get(nextProvider).name();
+                slow.outwaited = true;
+            }
+            hedges.increment();
+            LOG.info("No first token from " + slow.provider.name() + " after "
+                    + Duration.ofNanos(System.nanoTime() - slow.startedAt).toMillis() + " ms, hedging with " + next);
+            startNext(true);
+        }
+
+        void onNext(Attempt attempt, String token) {
+            if (winner == attempt) {
+                downstream.onNext(token);
+                return;
+            }
+            long remaining;
+            List<Attempt> losers;
+            synchronized (this) {
+                if (done || winner != null) {
+                    return;
+                }
+                winner = attempt;
+                cancelHedgeTimer();
+                remaining = pendingDemand - 1;
+                pendingDemand = 0;
+                losers = attempts.stream().filter(other -> other != attempt).toList();
+            }
+            long now = System.nanoTime();
+            firstTokenLatency.get(attempt.provider.name()).record(now - attempt.startedAt);
+            if (attempt.hedged) {
+                hedgesWon.increment();
+            }
+            for (Attempt loser : losers) {
+                if (!loser.failed) {
+                    // Only a loser that outlasted its hedge delay yields a meaningful lower bound, which keeps a
+                    // slow provider's percentile rising; a hedge started just before the winner's token has
+                    // barely begun and would drag its provider's percentile down
+                    if (loser.outwaited) {
+                        firstTokenLatency.get(loser.provider.name()).record(now - loser.startedAt);
+                    }
+                    LOG.info("Cancelled " + loser.provider.name() + ", " + attempt.provider.name() + " answered first");
+                }
+                loser.cancel();
+            }
+            downstream.onNext(token);
+            if (remaining > 0) {
+                attempt.subscription.request(remaining);
+            }
+        }
+
+        void onError(Attempt attempt, Throwable failure) {
+            if (winner == attempt) {
+                terminate();
+                downstream.onError(failure);
+                return;
+            }
+            String next = null;
+            synchronized (this) {
+                if (done || winner != null) {
+                    return;
+                }
+                attempt.failed = true;
+                if (attempts.stream().anyMatch(other -> !other.failed)) {
+                    // Another attempt is still racing
+                    return;
+                }
+                if (nextProvider < providers.size()) {
+                    next = providers.get(nextProvider).name();
+                } else {
+                    done = true;
+                    cancelHedgeTimer();
+                }
+            }
+            if (next != null) {
+                failovers.increment();
+                LOG.warn("LLM provider " + attempt.provider.name() + " failed before its first token, failing over to "
+                        + next + ": " + failure.getMessage());
+                startNext(false);
+            } else {
+                downstream.onError(failure);
+            }
+        }
+
+        void onComplete(Attempt attempt) {
+            if (winner != attempt) {
+                // Finished without a single token: an empty answer, which still wins the race
+                List<Attempt> losers;
+                synchronized (this) {
+                    if (done || winner != null) {
+                        return;
+                    }
+                    winner = attempt;
+                    losers = attempts.stream().filter(other -> other != attempt).toList();
+                }
+                losers.forEach(Attempt::cancel);
+            }
+            terminate();
+            downstream.onComplete();
+        }
+
+        private synchronized void terminate() {
+            done = true;
+            cancelHedgeTimer();
+        }
+
+        private void cancelHedgeTimer() {
+            if (hedgeTimer != null) {
+                hedgeTimer.cancel(false);
+                hedgeTimer = null;
+            }
+        }
+    }
+
+    // One provider's stream within a race; asks for a single token until it wins
+    private static final class Attempt implements Flow.Subscriber<String> {
+
+        final Race race;
+        final LlmProvider provider;
+        final boolean hedged;
+        final long startedAt = System.nanoTime();
+        volatile Flow.Subscription subscription;
+        volatile boolean cancelled;
+        volatile boolean failed;
+        // Whether a hedge was fired against this attempt, i.e. it went without a first token past its delay
+        volatile boolean outwaited;
+
+        Attempt(Race race, LlmProvider provider, boolean hedged) {
+            this.race = race;
+            this.provider = provider;
+            this.hedged = hedged;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (cancelled) {
+                subscription.cancel();
+            } else {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onNext(String token) {
+            race.onNext(this, token);
+        }
+
+        @Override
+        public void onError(Throwable failure) {
+            if (!cancelled) {
+                race.onError(this, failure);
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            if (!cancelled) {
+                race.onComplete(this);
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            Flow.Subscription current = subscription;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+    }
+}
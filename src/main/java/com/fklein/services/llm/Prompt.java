@@ -0,0 +1,37 @@
+package com.fklein.services.llm;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A chat prompt: system blocks in the order they are sent, then the user message.
+ * Blocks marked as cache breakpoints end a prefix that providers may cache between requests.
+ */
+public record Prompt(List<Block> system, String user) {
+
+    public Prompt {
+        system = List.copyOf(system);
+    }
+
+    /**
+     * A plain prompt with a single, uncached system block
+     */
+    public static Prompt of(String system, String user) {
+        return new Prompt(List.of(new Block(system, false)), user);
+    }
+
+    /**
+     * The system blocks joined into one string, for providers without block support
+     */
+    public String systemText() {
+        return system.stream().map(Block::text).collect(Collectors.joining("\n\n"));
+    }
+
+    /**
+     * One system block
+     *
+     * @param cacheBreakpoint whether the prefix ending with this block should be cached
+     */
+    public record Block(String text, boolean cacheBreakpoint) {
+    }
+}
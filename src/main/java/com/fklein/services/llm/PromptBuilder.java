@@ -0,0 +1,47 @@
+package com.fklein.services.llm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Assembles prompts so that provider prompt caching can work: identical text must form the prefix.
+ *
+ * Stable parts (persona, instructions) are added first and the last of them carries the cache breakpoint;
+ * per-request parts (retrieved context) follow. Adding a stable part after a per-request one is rejected,
+ * since it would vary the prefix. Not thread-safe; build one prompt per instance.
+ */
+public final class PromptBuilder {
+
+    private final List<String> stable = new ArrayList<>();
+    private final List<String> variable = new ArrayList<>();
+
+    /**
+     * Text identical across requests, such as persona and instructions
+     */
+    public PromptBuilder stable(String text) {
+        if (!variable.isEmpty()) {
+            throw new IllegalStateException("Stable prompt parts must precede per-request ones");
+        }
+        stable.add(text);
+        return this;
+    }
+
+    /**
+     * Text that changes per request, such as retrieved context
+     */
+    public PromptBuilder variable(String text) {
+        variable.add(text);
+        return this;
+    }
+
+    public Prompt build(String user) {
+        List<Prompt.Block> blocks = new ArrayList<>(stable.size() + variable.size());
+        if (!stable.isEmpty()) {
+            blocks.add(new Prompt.Block(String.join("\n\n", stable), true));
+        }
+        for (String text : variable) {
+            blocks.add(new Prompt.Block(text, false));
+        }
+        return new Prompt(blocks, user);
+    }
+}
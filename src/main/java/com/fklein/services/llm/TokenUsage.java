@@ -0,0 +1,51 @@
+package com.fklein.services.llm;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token counts reported by a provider for one response
+ *
+ * @param inputTokens       all prompt tokens, cached or not
+ * @param cacheReadTokens   prompt tokens served from the provider's prompt cache
+ * @param cacheWriteTokens  prompt tokens written to the prompt cache (billed at a premium by some providers)
+ */
+public record TokenUsage(long inputTokens, long cacheReadTokens, long cacheWriteTokens, long outputTokens) {
+
+    public double cacheHitRate() {
+        return inputTokens == 0 ? 0.0 : (double) cacheReadTokens / inputTokens;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d input tokens (%d from cache, %.0f%%, %d written to cache), %d output tokens",
+                inputTokens, cacheReadTokens, 100 * cacheHitRate(), cacheWriteTokens, outputTokens);
+    }
+
+    /**
+     * Running totals over many responses. Thread-safe.
+     */
+    public static final class Totals {
+
+        private final LongAdder responses = new LongAdder();
+        private final LongAdder input = new LongAdder();
+        private final LongAdder cacheRead = new LongAdder();
+        private final LongAdder cacheWrite = new LongAdder();
+        private final LongAdder output = new LongAdder();
+
+        public void add(TokenUsage usage) {
+            responses.increment();
+            input.add(usage.inputTokens());
+            cacheRead.add(usage.cacheReadTokens());
+            cacheWrite.add(usage.cacheWriteTokens());
+            output.add(usage.outputTokens());
+        }
+
+        public long responses() {
+            return responses.sum();
+        }
+
+        public TokenUsage sum() {
+            return new TokenUsage(input.sum(), cacheRead.sum(), cacheWrite.sum(), output.sum());
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package com.fklein.services.vector;
+
+import com.fklein.models.DocumentChunk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Row-major embedding storage: every vector lives in one contiguous float[] block,
+ * with ids, contents and metadata kept in parallel arrays indexed by row.
+ *
+ * Rows are append-only. Removing a chunk tombstones its row so that row numbers stay
+ * stable for the lifetime of the matrix; {@link #compact()} reclaims dead rows.
+ * Not thread-safe: callers are expected to guard writes, or to write only to a private {@link #copy()}.
+ *
+ * In quantized mode every row is also encoded into a parallel int8 block ({@link #codes()}).
+ * The float block can then be dropped entirely, in which case {@link #embedding(int)} decodes the codes.
+ */
+public final class EmbeddingMatrix {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final boolean retainFloats;
+    private final boolean quantized;
+
+    private int dimension;
+    private float[] data = new float[0];
+    private byte[] codes = new byte[0];
+    private ScalarQuantizer quantizer;
+    private String[] ids = new String[0];
+    private String[] contents = new String[0];
+    private Object[] metadata = new Object[0];
+    private final BitSet deleted = new BitSet();
+    private final Map<String, Integer> rowById = new HashMap<>();
+    private int rowCount;
+
+    public EmbeddingMatrix() {
+        this(true, false);
+    }
+
+    public EmbeddingMatrix(boolean retainFloats, boolean quantized) {
+        if (!retainFloats && !quantized) {
+            throw new IllegalArgumentException("A matrix without float storage must be quantized");
+        }
+        this.retainFloats = retainFloats;
+        this.quantized = quantized;
+    }
+
+    /**
+     * Append a chunk, replacing (tombstoning) any existing row with the same id
+     *
+     * @return the row the chunk was written to
+     */
+    public int add(String id, String content, Map<String, String> chunkMetadata, float[] embedding) {
+        if (dimension == 0) {
+            dimension = embedding.length;
+            if (quantized && quantizer == null) {
+                quantizer = ScalarQuantizer.unitRange(dimension);
+            }
+        } else if (embedding.length != dimension) {
+            throw new IllegalArgumentException("Embedding dimension mismatch: expected " + dimension
+                    + " but got " + embedding.length);
+        }
+
+        remove(id);
+        ensureCapacity(rowCount + 1);
+
+        int row = rowCount++;
+        if (retainFloats) {
+            System.arraycopy(embedding, 0, data, row * dimension, dimension);
+        }
+        if (quantized) {
+            quantizer.encode(embedding, codes, row * dimension);
+        }
+        ids[row] = id;
+        contents[row] = content;
+        metadata[row] = chunkMetadata;
+        rowById.put(id, row);
+        return row;
+    }
+
+    /**
+     * Tombstone the row holding the given id
+     *
+     * @return the removed row, or -1 if the id is unknown
+     */
+    public int remove(String id) {
+        Integer row = rowById.remove(id);
+        if (row == null) {
+            return -1;
+        }
+        deleted.set(row);
+        return row;
+    }
+
+    /**
+     * Drop tombstoned rows and renumber the remaining ones densely
+     */
+    public void compact() {
+        if (deleted.isEmpty()) {
+            return;
+        }
+        int target = 0;
+        for (int row = 0; row < rowCount; row++) {
+            if (deleted.get(row)) {
+                continue;
+            }
+            if (target != row) {
+                if (retainFloats) {
+                    System.arraycopy(data, row * dimension, data, target * dimension, dimension);
+                }
+                if (quantized) {
+                    System.arraycopy(codes, row * dimension, codes, target * dimension, dimension);
+                }
+                ids[target] = ids[row];
+                contents[target] = contents[row];
+                metadata[target] = metadata[row];
+                rowById.put(ids[target], target);
+            }
+            target++;
+        }
+        Arrays.fill(ids, target, rowCount, null);
+        Arrays.fill(contents, target, rowCount, null);
+        Arrays.fill(metadata, target, rowCount, null);
+        rowCount = target;
+        deleted.clear();
+    }
+
+    public void clear() {
+        dimension = 0;
+        data = new float[0];
+        codes = new byte[0];
+        quantizer = null;
+        ids = new String[0];
+        contents = new String[0];
+        metadata = new Object[0];
+        deleted.clear();
+        rowById.clear();
+        rowCount = 0;
+    }
+
+    /**
+     * Independent copy for copy-on-write updates. Metadata maps are shared and treated as immutable.
+     */
+    public EmbeddingMatrix copy() {
+        EmbeddingMatrix copy = new EmbeddingMatrix(retainFloats, quantized);
+        copy.dimension = dimension;
+        copy.data = data.clone();
+        copy.codes = codes.clone();
+        copy.quantizer = quantizer;
+        copy.ids = ids.clone();
+        copy.contents = contents.clone();
+        copy.metadata = metadata.clone();
+        copy.deleted.or(deleted);
+        copy.rowById.putAll(rowById);
+        copy.rowCount = rowCount;
+        return copy;
+    }
+
+    /**
+     * Row holding the given id, or -1
+     */
+    public int rowOf(String id) {
+        Integer row = rowById.get(id);
+        return row != null ? row : -1;
+    }
+
+    public boolean isLive(int row) {
+        return row < rowCount && !deleted.get(row);
+    }
+
+    /**
+     * Number of live chunks
+     */
+    public int size() {
+        return rowById.size();
+    }
+
+    /**
+     * Number of rows including tombstones; the upper bound for row scans
+     */
+    public int rowCount() {
+        return rowCount;
+    }
+
+    public int deletedCount() {
+        return rowCount - rowById.size();
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    /**
+     * The backing row-major block. Row {@code r} starts at {@code r * dimension()}.
+     * Empty when floats are not retained.
+     */
+    public float[] data() {
+        return data;
+    }
+
+    public boolean retainsFloats() {
+        return retainFloats;
+    }
+
+    public boolean isQuantized() {
+        return quantized;
+    }
+
+    /**
+     * The int8 block, laid out like {@link #data()}
+     */
+    public byte[] codes() {
+        return codes;
+    }
+
+    public ScalarQuantizer quantizer() {
+        return quantizer;
+    }
+
+    /**
+     * Switch to a new quantizer and re-encode every row, from the floats when retained,
+     * otherwise from the previous codes
+     */
+    public void requantize(ScalarQuantizer replacement) {
+        if (!quantized) {
+            throw new IllegalStateException("Matrix is not quantized");
+        }
+        for (int row = 0; row < rowCount; row++) {
+            replacement.encode(embedding(row), codes, row * dimension);
+        }
+        quantizer = replacement;
+    }
+
+    public String id(int row) {
+        return ids[row];
+    }
+
+    public String content(int row) {
+        return contents[row];
+    }
+
+    @SuppressWarnings("unchecked")
+    public Map<String, String> metadata(int row) {
+        return (Map<String, String>) metadata[row];
+    }
+
+    /**
+     * Copy of a row's embedding (decoded from int8 when floats are not retained)
+     */
+    public float[] embedding(int row) {
+        if (!retainFloats) {
+            return quantizer.decode(codes, row * dimension);
+        }
+        return Arrays.copyOfRange(data, row * dimension, (row + 1) * dimension);
+    }
+
+    /**
+     * Materialize a row as a chunk, optionally copying its embedding out of the block
+     */
+    public DocumentChunk toChunk(int row, boolean withEmbedding) {
+        DocumentChunk chunk = new DocumentChunk(ids[row], contents[row], metadata(row));
+        if (withEmbedding) {
+            chunk.setEmbedding(embedding(row));
+        }
+        return chunk;
+    }
+
+    /**
+     * Materialize every live row, embeddings included
+     */
+    public List<DocumentChunk> toChunks() {
+        List<DocumentChunk> chunks = new ArrayList<>(size());
+        for (int row = 0; row < rowCount; row++) {
+            if (!deleted.get(row)) {
+                chunks.add(toChunk(row, true));
+            }
+        }
+        return chunks;
+    }
+
+    private void ensureCapacity(int rows) {
+        if (rows <= ids.length) {
+            return;
+        }
+        int capacity = grownCapacity(ids.length, rows, dimension);
+        if (retainFloats) {
+            data = Arrays.copyOf(data, capacity * dimension);
+        }
+        if (quantized) {
+            codes = Arrays.copyOf(codes, capacity * dimension);
+        }
+        ids = Arrays.copyOf(ids, capacity);
+        contents = Arrays.copyOf(contents, capacity);
+        metadata = Arrays.copyOf(metadata, capacity);
+    }
+
+    // Doubling, capped so that capacity * dimension (and with it every row offset) still fits in an int
+    static int grownCapacity(int current, int rows, int dimension) {
+        int maxRows = Integer.MAX_VALUE / dimension;
+        if (rows > maxRows) {
+            throw new IllegalStateException("Embedding matrix full: " + current + " rows x " + dimension
+                    + " dims");
+        }
+        long capacity = Math.max(INITIAL_CAPACITY, current);
+        while (capacity < rows) {
+            capacity <<= 1;
+        }
+        return (int) Math.min(capacity, maxRows);
+    }
+}
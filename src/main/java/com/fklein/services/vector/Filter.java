@@ -0,0 +1,64 @@
+package com.fklein.services.vector;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Metadata filter: a conjunction of clauses, each matching one of a set of values for a key.
+ * {@code Filter.where("type", "education", "certifications").and("category", "technical")}
+ */
+public final class Filter {
+
+    private final Map<String, Set<String>> clauses;
+
+    private Filter(Map<String, Set<String>> clauses) {
+        this.clauses = clauses;
+    }
+
+    /**
+     * Match chunks whose {@code key} is any of {@code values}
+     */
+    public static Filter where(String key, String... values) {
+        return new Filter(Map.of()).and(key, values);
+    }
+
+    /**
+     * A copy of this filter that additionally requires {@code key} to be any of {@code values}
+     */
+    public Filter and(String key, String... values) {
+        if (values.length == 0) {
+            throw new IllegalArgumentException("Filter clause for '" + key + "' needs at least one value");
+        }
+        Map<String, Set<String>> combined = new LinkedHashMap<>(clauses);
+        Set<String> allowed = new LinkedHashSet<>(Arrays.asList(values));
+        Set<String> existing = combined.get(key);
+        if (existing != null) {
+            allowed.retainAll(existing);
+        }
+        combined.put(key, Collections.unmodifiableSet(allowed));
+        return new Filter(Collections.unmodifiableMap(combined));
+    }
+
+    public Map<String, Set<String>> clauses() {
+        return clauses;
+    }
+
+    public boolean matches(Map<String, String> metadata) {
+        for (Map.Entry<String, Set<String>> clause : clauses.entrySet()) {
+            String value = metadata == null ? null : metadata.get(clause.getKey());
+            if (value == null || !clause.getValue().contains(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "Filter" + clauses;
+    }
+}
@@ -0,0 +1,51 @@
+package com.fklein.services.vector;
+
+import java.util.BitSet;
+
+/**
+ * Exact index: every search is an exhaustive scan of the matrix
+ */
+public final class FlatIndex implements VectorIndex {
+
+    private final EmbeddingMatrix matrix;
+    private final SimilarityKernel kernel;
+    private final int parallelThreshold;
+
+    public FlatIndex(EmbeddingMatrix matrix, SimilarityKernel kernel, int parallelThreshold) {
+        this.matrix = matrix;
+        this.kernel = kernel;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    @Override
+    public String name() {
+        return "flat";
+    }
+
+    @Override
+    public void add(int row, float[] vector) {
+    }
+
+    @Override
+    public void remove(int row) {
+    }
+
+    @Override
+    public void rebuild() {
+    }
+
+    @Override
+    public FlatIndex copyFor(EmbeddingMatrix target) {
+        return new FlatIndex(target, kernel, parallelThreshold);
+    }
+
+    @Override
+    public TopK search(float[] query, int k, BitSet candidates) {
+        return MatrixScan.topK(matrix, query, k, kernel, candidates, parallelThreshold);
+    }
+
+    @Override
+    public boolean isApproximate() {
+        return false;
+    }
+}
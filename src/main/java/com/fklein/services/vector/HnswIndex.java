@@ -0,0 +1,378 @@
+package com.fklein.services.vector;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.SplittableRandom;
+
+/**
+ * In-process HNSW graph (Malkov &amp; Yashunin) over the rows of an {@link EmbeddingMatrix}.
+ *
+ * Nodes are matrix rows. Removed rows stay in the graph as routing points until the matrix is
+ * compacted and the graph rebuilt, but are never returned as results.
+ *
+ * Tuning:
+ * - {@code m}: links per node on upper layers (twice as many on layer 0); more links, better recall, more memory
+ * - {@code efConstruction}: candidate list size while inserting; higher builds a better graph, slower
+ * - {@code efSearch}: candidate list size while querying; the main recall/latency knob
+ */
+public final class HnswIndex implements VectorIndex {
+
+    // Filters matching at most this many times ef rows are answered by an exact scan of the matches
+    private static final int FILTER_SCAN_FACTOR = 4;
+    // Marker for "every live row", compared by identity
+    private static final BitSet ALL_LIVE = new BitSet(0);
+
+    private final EmbeddingMatrix matrix;
+    private final SimilarityKernel kernel;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final int efSearch;
+    private final double levelMultiplier;
+
+    private SplittableRandom random;
+    // links[row][level] = {count, neighbour1, neighbour2, ...}
+    private int[][][] links = new int[0][][];
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    public HnswIndex(EmbeddingMatrix matrix, SimilarityKernel kernel, int m, int efConstruction, int efSearch) {
+        if (m < 2) {
+            throw new IllegalArgumentException("HNSW m must be at least 2");
+        }
+        this.matrix = matrix;
+        this.kernel = kernel;
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.efSearch = efSearch;
+        this.levelMultiplier = 1.0 / Math.log(m);
+        this.random = new SplittableRandom(42);
+    }
+
+    @Override
+    public String name() {
+        return "hnsw(m=" + m + ", efConstruction=" + efConstruction + ", efSearch=" + efSearch + ")";
+    }
+
+    @Override
+    public void add(int row, float[] vector) {
+        ensureCapacity(row + 1);
+        int level = randomLevel();
+        links[row] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            links[row][l] = new int[1 + (l == 0 ? maxM0 : m)];
+        }
+
+        if (entryPoint < 0) {
+            entryPoint = row;
+            maxLevel = level;
+            return;
+        }
+
+        int current = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            current = greedyClosest(vector, current, l);
+        }
+
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            // Tombstoned rows still route the search but are never linked to: edges to them would be wasted
+            TopK candidates = searchLayer(vector, current, efConstruction, l, ALL_LIVE);
+            if (candidates.size() == 0) {
+                continue;
+            }
+            int[] sortedRows = new int[candidates.size()];
+            float[] sortedScores = new float[candidates.size()];
+            candidates.drainDescending(sortedRows, sortedScores);
+
+            int maxLinks = l == 0 ? maxM0 : m;
+            int[] selected = selectNeighbours(sortedRows, sortedScores, sortedRows.length, maxLinks);
+            int[] own = links[row][l];
+            for (int neighbour : selected) {
+                own[1 + own[0]++] = neighbour;
+                connect(neighbour, row, l, maxLinks);
+            }
+            current = sortedRows[0];
+        }
+
+        if (level > maxLevel) {
+            entryPoint = row;
+            maxLevel = level;
+        }
+    }
+
+    @Override
+    public void remove(int row) {
+        // Tombstoned rows keep routing traffic; search skips them when collecting results
+    }
+
+    @Override
+    public void rebuild() {
+        links = new int[0][][];
+        entryPoint = -1;
+        maxLevel = -1;
+        random = new SplittableRandom(42);
+        for (int row = 0; row < matrix.rowCount(); row++) {
+            if (matrix.isLive(row)) {
+                add(row, matrix.embedding(row));
+            }
+        }
+    }
+
+    @Override
+    public HnswIndex copyFor(EmbeddingMatrix target) {
+        HnswIndex copy = new HnswIndex(target, kernel, m, efConstruction, efSearch);
+        copy.links = new int[links.length][][];
+        for (int row = 0; row < links.length; row++) {
+            if (links[row] != null) {
+                copy.links[row] = new int[links[row].length][];
+                for (int l = 0; l < links[row].length; l++) {
+                    copy.links[row][l] = links[row][l].clone();
+                }
+            }
+        }
+        copy.entryPoint = entryPoint;
+        copy.maxLevel = maxLevel;
+        copy.random = random.split();
+        return copy;
+    }
+
+    @Override
+    public TopK search(float[] query, int k, BitSet candidates) {
+        if (entryPoint < 0) {
+            return new TopK(0);
+        }
+        int ef = Math.max(efSearch, k);
+        if (candidates != null) {
+            int selected = candidates.cardinality();
+            // Selective filters: scanning the few candidates exactly beats walking the graph around them
+            if (selected <= ef * FILTER_SCAN_FACTOR) {
+                return MatrixScan.topK(matrix, query, k, kernel, candidates, Integer.MAX_VALUE);
+            }
+            // Otherwise widen the beam by the inverse selectivity so enough matching rows are reached
+            ef = (int) Math.min(matrix.size(), (long) ef * matrix.size() / selected);
+        }
+
+        int current = entryPoint;
+        for (int l = maxLevel; l > 0; l--) {
+            current = greedyClosest(query, current, l);
+        }
+        TopK found = searchLayer(query, current, ef, 0, candidates == null ? ALL_LIVE : candidates);
+
+        TopK result = new TopK(k);
+        for (int i = 0; i < found.size(); i++) {
+            result.offer(found.rowAt(i), found.scoreAt(i));
+        }
+        return result;
+    }
+
+    @Override
+    public boolean isApproximate() {
+        return true;
+    }
+
+    private int randomLevel() {
+        double uniform = 1.0 - random.nextDouble();
+        return (int) (-Math.log(uniform) * levelMultiplier);
+    }
+
+    private float similarity(float[] query, int row) {
+        int dimension = matrix.dimension();
+        return kernel.dot(query, 0, matrix.data(), row * dimension, dimension);
+    }
+
+    private float similarity(int a, int b) {
+        int dimension = matrix.dimension();
+        float[] data = matrix.data();
+        return kernel.dot(data, a * dimension, data, b * dimension, dimension);
+    }
+
+    // Hill-climb on one layer towards the node most similar to the query
+    private int greedyClosest(float[] query, int start, int level) {
+        int current = start;
+        float best = similarity(query, current);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int[] neighbours = links[current][level];
+            for (int i = 1; i <= neighbours[0]; i++) {
+                float score = similarity(query, neighbours[i]);
+                if (score > best) {
+                    best = score;
+                    current = neighbours[i];
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    // Best-first beam search on one layer. Every visited row routes the search, but only live rows in
+    // accept are collected.
+    private TopK searchLayer(float[] query, int start, int ef, int level, BitSet accept) {
+        BitSet visited = new BitSet(matrix.rowCount());
+        CandidateQueue candidates = new CandidateQueue(ef * 2);
+        TopK results = new TopK(ef);
+
+        float startScore = similarity(query, start);
+        visited.set(start);
+        candidates.push(start, startScore);
+        if (collects(accept, start)) {
+            results.offer(start, startScore);
+        }
+
+        while (!candidates.isEmpty()) {
+            float candidateScore = candidates.peekScore();
+            if (results.isFull() && candidateScore < results.threshold()) {
+                break;
+            }
+            int candidate = candidates.pop();
+            int[] neighbours = links[candidate][level];
+            for (int i = 1; i <= neighbours[0]; i++) {
+                int neighbour = neighbours[i];
+                if (visited.get(neighbour)) {
+                    continue;
+                }
+                visited.set(neighbour);
+                float score = similarity(query, neighbour);
+                if (!results.isFull() || score > results.threshold()) {
+                    candidates.push(neighbour, score);
+                    if (collects(accept, neighbour)) {
+                        results.offer(neighbour, score);
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    private boolean collects(BitSet accept, int row) {
+        return matrix.isLive(row) && (accept == ALL_LIVE || accept.get(row));
+    }
+
+    // Diversity heuristic: keep a candidate only if it is closer to the base than to any kept neighbour,
+    // then top up with the pruned ones so nodes keep their full degree
+    private int[] selectNeighbours(int[] sortedRows, float[] sortedScores, int count, int maxLinks) {
+        int[] selected = new int[Math.min(count, maxLinks)];
+        boolean[] taken = new boolean[count];
+        int size = 0;
+        for (int i = 0; i < count && size < selected.length; i++) {
+            boolean diverse = true;
+            for (int j = 0; j < size; j++) {
+                if (similarity(sortedRows[i], selected[j]) > sortedScores[i]) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected[size++] = sortedRows[i];
+                taken[i] = true;
+            }
+        }
+        for (int i = 0; i < count && size < selected.length; i++) {
+            if (!taken[i]) {
+                selected[size++] = sortedRows[i];
+            }
+        }
+        return selected;
+    }
+
+    // Add a back-link, re-pruning the neighbour's list when it overflows
+    private void connect(int node, int neighbour, int level, int maxLinks) {
+        int[] nodeLinks = links[node][level];
+        if (nodeLinks[0] < maxLinks) {
+            nodeLinks[1 + nodeLinks[0]++] = neighbour;
+            return;
+        }
+
+        // Re-pruning also drops links to rows removed since they were made
+        TopK ranked = new TopK(maxLinks + 1);
+        for (int i = 1; i <= nodeLinks[0]; i++) {
+            if (matrix.isLive(nodeLinks[i])) {
+                ranked.offer(nodeLinks[i], similarity(node, nodeLinks[i]));
+            }
+        }
+        ranked.offer(neighbour, similarity(node, neighbour));
+        int[] sortedRows = new int[ranked.size()];
+        float[] sortedScores = new float[ranked.size()];
+        int count = ranked.drainDescending(sortedRows, sortedScores);
+
+        int[] selected = selectNeighbours(sortedRows, sortedScores, count, maxLinks);
+        nodeLinks[0] = selected.length;
+        System.arraycopy(selected, 0, nodeLinks, 1, selected.length);
+    }
+
+    private void ensureCapacity(int rows) {
+        if (rows > links.length) {
+            links = Arrays.copyOf(links, Math.max(rows, links.length * 2));
+        }
+    }
+
+    /**
+     * Max-heap of (row, score) candidates still to expand
+     */
+    private static final class CandidateQueue {
+
+        private int[] rows;
+        private float[] scores;
+        private int size;
+
+        CandidateQueue(int capacity) {
+            rows = new int[Math.max(capacity, 16)];
+            scores = new float[rows.length];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        float peekScore() {
+            return scores[0];
+        }
+
+        void push(int row, float score) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            int index = size++;
+            while (index > 0) {
+                int parent = (index - 1) >>> 1;
+                if (scores[parent] >= score) {
+                    break;
+                }
+                rows[index] = rows[parent];
+                scores[index] = scores[parent];
+                index = parent;
+            }
+            rows[index] = row;
+            scores[index] = score;
+        }
+
+        int pop() {
+            int top = rows[0];
+            size--;
+            if (size > 0) {
+                int row = rows[size];
+                float score = scores[size];
+                int index = 0;
+                int half = size >>> 1;
+                while (index < half) {
+                    int child = 2 * index + 1;
+                    if (child + 1 < size && scores[child + 1] > scores[child]) {
+                        child++;
+                    }
+                    if (score >= scores[child]) {
+                        break;
+                    }
+                    rows[index] = rows[child];
+                    scores[index] = scores[child];
+                    index = child;
+                }
+                rows[index] = row;
+                scores[index] = score;
+            }
+            return top;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.fklein.services.vector;
+
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Exhaustive top-K scan over an {@link EmbeddingMatrix}.
+ * Small stores are scanned on the calling thread; above the parallel threshold the rows are split into
+ * fork-join partitions, each keeping its own bounded heap, and the heaps are merged at the end.
+ *
+ * Batches of queries are scored in one cache-blocked pass ({@link #topKBatch}): a block of rows is
+ * loaded once and scored against a block of queries before moving on, so the scan reads the matrix
+ * once per batch instead of once per query.
+ */
+public final class MatrixScan {
+
+    private static final int MIN_PARTITION_ROWS = 4096;
+    // Working-set budgets for the blocked batch scan: a row block sized for L2, a query block for L1
+    private static final int ROW_BLOCK_BYTES = 256 * 1024;
+    private static final int QUERY_BLOCK_BYTES = 16 * 1024;
+
+    /**
+     * Scores one row of the matrix
+     */
+    @FunctionalInterface
+    public interface RowScorer {
+        float score(int row);
+    }
+
+    private MatrixScan() {
+    }
+
+    /**
+     * @param query unit-normalized query vector
+     */
+    public static TopK topK(EmbeddingMatrix matrix, float[] query, int k, SimilarityKernel kernel,
+                            int parallelThreshold) {
+        return topK(matrix, query, k, kernel, null, parallelThreshold);
+    }
+
+    /**
+     * @param query      unit-normalized query vector
+     * @param candidates rows to consider, or null for every live row
+     */
+    public static TopK topK(EmbeddingMatrix matrix, float[] query, int k, SimilarityKernel kernel,
+                            BitSet candidates, int parallelThreshold) {
+        float[] data = matrix.data();
+        int dimension = matrix.dimension();
+        return topK(matrix, row -> kernel.dot(query, 0, data, row * dimension, dimension), k,
+                candidates, parallelThreshold);
+    }
+
+    public static TopK topK(EmbeddingMatrix matrix, RowScorer scorer, int k, BitSet candidates,
+                            int parallelThreshold) {
+        int rows = matrix.rowCount();
+        int work = candidates == null ? rows : candidates.cardinality();
+        if (work < parallelThreshold) {
+            return scan(matrix, scorer, k, candidates, 0, rows);
+        }
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int partitionRows = Math.max(MIN_PARTITION_ROWS, rows / (pool.getParallelism() * 4) + 1);
+        return pool.invoke(new ScanTask(matrix, scorer, k, candidates, 0, rows, partitionRows));
+    }
+
+    /**
+     * Top-K for every query in one pass over the float block
+     *
+     * @param queries unit-normalized query vectors
+     * @return one heap per query, in query order
+     */
+    public static TopK[] topKBatch(EmbeddingMatrix matrix, float[][] queries, int k, SimilarityKernel kernel,
+                                   int parallelThreshold) {
+        int rows = matrix.rowCount();
+        if ((long) rows * queries.length < parallelThreshold) {
+            return scanBatch(matrix, queries, k, kernel, 0, rows);
+        }
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int partitionRows = Math.max(MIN_PARTITION_ROWS, rows / (pool.getParallelism() * 4) + 1);
+        return pool.invoke(new BatchScanTask(matrix, queries, k, kernel, 0, rows, partitionRows));
+    }
+
+    static TopK[] scanBatch(EmbeddingMatrix matrix, float[][] queries, int k, SimilarityKernel kernel,
+                            int from, int to) {
+        TopK[] heaps = new TopK[queries.length];
+        for (int q = 0; q < queries.length; q++) {
+            heaps[q] = new TopK(k);
+        }
+        int dimension = matrix.dimension();
+        if (dimension == 0) {
+            return heaps;
+        }
+        float[] data = matrix.data();
+        int rowBlock = Math.max(16, ROW_BLOCK_BYTES / (dimension * Float.BYTES));
+        int queryBlock = Math.max(1, QUERY_BLOCK_BYTES / (dimension * Float.BYTES));
+
+        for (int blockStart = from; blockStart < to; blockStart += rowBlock) {
+            int blockEnd = Math.min(to, blockStart + rowBlock);
+            for (int queryStart = 0; queryStart < queries.length; queryStart += queryBlock) {
+                int queryEnd = Math.min(queries.length, queryStart + queryBlock);
+                for (int row = blockStart; row < blockEnd; row++) {
+                    if (!matrix.isLive(row)) {
+                        continue;
+                    }
+                    int offset = row * dimension;
+                    for (int q = queryStart; q < queryEnd; q++) {
+                        heaps[q].offer(row, kernel.dot(queries[q], 0, data, offset, dimension));
+                    }
+                }
+            }
+        }
+        return heaps;
+    }
+
+    static TopK scan(EmbeddingMatrix matrix, RowScorer scorer, int k, BitSet candidates, int from, int to) {
+        TopK heap = new TopK(k);
+        if (candidates == null) {
+            for (int row = from; row < to; row++) {
+                if (matrix.isLive(row)) {
+                    heap.offer(row, scorer.score(row));
+                }
+            }
+            return heap;
+        }
+        for (int row = candidates.nextSetBit(from); row >= 0 && row < to; row = candidates.nextSetBit(row + 1)) {
+            if (matrix.isLive(row)) {
+                heap.offer(row, scorer.score(row));
+            }
+        }
+        return heap;
+    }
+
+    private static final class ScanTask extends RecursiveTask<TopK> {
+
+        private final EmbeddingMatrix matrix;
+        private final RowScorer scorer;
+        private final int k;
+        private final BitSet candidates;
+        private final int from;
+        private final int to;
+        private final int partitionRows;
+
+        ScanTask(EmbeddingMatrix matrix, RowScorer scorer, int k, BitSet candidates, int from, int to,
+                 int partitionRows) {
+            this.matrix = matrix;
+            this.scorer = scorer;
+            this.k = k;
+            this.candidates = candidates;
+            this.from = from;
+            this.to = to;
+            this.partitionRows = partitionRows;
+        }
+
+        @Override
+        protected TopK compute() {
+            if (to - from <= partitionRows) {
+                return scan(matrix, scorer, k, candidates, from, to);
+            }
+            int middle = (from + to) >>> 1;
+            ScanTask left = new ScanTask(matrix, scorer, k, candidates, from, middle, partitionRows);
+            left.fork();
+            TopK right = new ScanTask(matrix, scorer, k, candidates, middle, to, partitionRows).compute();
+            TopK merged = left.join();
+            merged.merge(right);
+            return merged;
+        }
+    }
+
+    private static final class BatchScanTask extends RecursiveTask<TopK[]> {
+
+        private final EmbeddingMatrix matrix;
+        private final float[][] queries;
+        private final int k;
+        private final SimilarityKernel kernel;
+        private final int from;
+        private final int to;
+        private final int partitionRows;
+
+        BatchScanTask(EmbeddingMatrix matrix, float[][] queries, int k, SimilarityKernel kernel, int from, int to,
+                      int partitionRows) {
+            this.matrix = matrix;
+            this.queries = queries;
+            this.k = k;
+            this.kernel = kernel;
+            this.from = from;
+            this.to = to;
+            this.partitionRows = partitionRows;
+        }
+
+        @Override
+        protected TopK[] compute() {
+            if (to - from <= partitionRows) {
+                return scanBatch(matrix, queries, k, kernel, from, to);
+            }
+            int middle = (from + to) >>> 1;
+            BatchScanTask left = new BatchScanTask(matrix, queries, k, kernel, from, middle, partitionRows);
+            left.fork();
+            TopK[] right = new BatchScanTask(matrix, queries, k, kernel, middle, to, partitionRows).compute();
+            TopK[] merged = left.join();
+            for (int q = 0; q < merged.length; q++) {
+                merged[q].merge(right[q]);
+            }
+            return merged;
+        }
+    }
+}
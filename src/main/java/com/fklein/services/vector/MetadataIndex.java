@@ -0,0 +1,97 @@
+package com.fklein.services.vector;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index from metadata key/value to the bitmap of matrix rows carrying it.
+ * Resolving a {@link Filter} is a union per clause and an intersection across clauses,
+ * so the candidate set is known before any similarity is computed.
+ */
+public final class MetadataIndex {
+
+    private final Map<String, Map<String, BitSet>> postings = new HashMap<>();
+
+    public void add(int row, Map<String, String> metadata) {
+        if (metadata == null) {
+            return;
+        }
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+            postings.computeIfAbsent(entry.getKey(), key -> new HashMap<>())
+                    .computeIfAbsent(entry.getValue(), value -> new BitSet())
+                    .set(row);
+        }
+    }
+
+    public void remove(int row, Map<String, String> metadata) {
+        if (metadata == null) {
+            return;
+        }
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+            Map<String, BitSet> values = postings.get(entry.getKey());
+            BitSet rows = values == null ? null : values.get(entry.getValue());
+            if (rows != null) {
+                rows.clear(row);
+            }
+        }
+    }
+
+    public void clear() {
+        postings.clear();
+    }
+
+    /**
+     * Independent copy for copy-on-write updates
+     */
+    public MetadataIndex copy() {
+        MetadataIndex copy = new MetadataIndex();
+        postings.forEach((key, values) -> {
+            Map<String, BitSet> copiedValues = new HashMap<>();
+            values.forEach((value, rows) -> copiedValues.put(value, (BitSet) rows.clone()));
+            copy.postings.put(key, copiedValues);
+        });
+        return copy;
+    }
+
+    /**
+     * Re-index every live row, after the matrix was compacted
+     */
+    public void rebuild(EmbeddingMatrix matrix) {
+        postings.clear();
+        for (int row = 0; row < matrix.rowCount(); row++) {
+            if (matrix.isLive(row)) {
+                add(row, matrix.metadata(row));
+            }
+        }
+    }
+
+    /**
+     * Rows matching the filter; a fresh bitmap the caller may modify
+     */
+    public BitSet candidates(Filter filter) {
+        BitSet result = null;
+        for (Map.Entry<String, Set<String>> clause : filter.clauses().entrySet()) {
+            BitSet clauseRows = new BitSet();
+            Map<String, BitSet> values = postings.get(clause.getKey());
+            if (values != null) {
+                for (String value : clause.getValue()) {
+                    BitSet rows = values.get(value);
+                    if (rows != null) {
+                        clauseRows.or(rows);
+                    }
+                }
+            }
+            if (result == null) {
+                result = clauseRows;
+            } else {
+                result.and(clauseRows);
+            }
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result == null ? new BitSet() : result;
+    }
+}
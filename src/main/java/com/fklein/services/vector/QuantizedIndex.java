@@ -0,0 +1,107 @@
+package com.fklein.services.vector;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Exhaustive scan over the int8 block of a quantized {@link EmbeddingMatrix}.
+ *
+ * Candidates are scored with integer dot products; the best {@code k * oversample} are then re-ranked
+ * against the float vectors when the matrix still retains them. Without floats the int8 scores are final.
+ * Until {@link #MIN_TRAINING_ROWS} rows exist the matrix keeps the [-1, 1] unit-range quantizer, which
+ * holds any normalized vector; a range fitted to a handful of rows would clamp most later ones. After that
+ * the quantizer is retrained on bulk loads whenever the store has doubled since the last training.
+ */
+public final class QuantizedIndex implements VectorIndex {
+
+    static final int MIN_TRAINING_ROWS = 256;
+
+    private final EmbeddingMatrix matrix;
+    private final SimilarityKernel kernel;
+    private final int oversample;
+    private final int parallelThreshold;
+    private int trainedRows;
+
+    public QuantizedIndex(EmbeddingMatrix matrix, SimilarityKernel kernel, int oversample, int parallelThreshold) {
+        if (!matrix.isQuantized()) {
+            throw new IllegalArgumentException("QuantizedIndex requires a quantized matrix");
+        }
+        this.matrix = matrix;
+        this.kernel = kernel;
+        this.oversample = Math.max(1, oversample);
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    @Override
+    public String name() {
+        return "int8(oversample=" + oversample + ", rerank=" + matrix.retainsFloats() + ")";
+    }
+
+    @Override
+    public void prepareBatch(List<float[]> vectors) {
+        int total = matrix.size() + vectors.size();
+        if (vectors.isEmpty() || total < MIN_TRAINING_ROWS || total < 2 * trainedRows) {
+            return;
+        }
+        List<float[]> sample = new ArrayList<>(matrix.size() + vectors.size());
+        for (int row = 0; row < matrix.rowCount(); row++) {
+            if (matrix.isLive(row)) {
+                sample.add(matrix.embedding(row));
+            }
+        }
+        sample.addAll(vectors);
+        // On an empty matrix this just installs the quantizer used to encode the batch
+        matrix.requantize(ScalarQuantizer.train(sample, vectors.get(0).length));
+        trainedRows = sample.size();
+    }
+
+    @Override
+    public void add(int row, float[] vector) {
+        // Encoding happens in the matrix itself
+    }
+
+    @Override
+    public void remove(int row) {
+    }
+
+    @Override
+    public void rebuild() {
+        if (matrix.size() == 0) {
+            trainedRows = 0;
+        }
+    }
+
+    @Override
+    public QuantizedIndex copyFor(EmbeddingMatrix target) {
+        QuantizedIndex copy = new QuantizedIndex(target, kernel, oversample, parallelThreshold);
+        copy.trainedRows = trainedRows;
+        return copy;
+    }
+
+    @Override
+    public TopK search(float[] query, int k, BitSet candidates) {
+        ScalarQuantizer.QueryCodes prepared = matrix.quantizer().prepare(query);
+        byte[] codes = matrix.codes();
+        int dimension = matrix.dimension();
+        int shortlist = matrix.retainsFloats() ? k * oversample : k;
+        TopK approximate = MatrixScan.topK(matrix, row -> prepared.score(codes, row * dimension),
+                shortlist, candidates, parallelThreshold);
+        if (!matrix.retainsFloats()) {
+            return approximate;
+        }
+
+        TopK reranked = new TopK(k);
+        float[] data = matrix.data();
+        for (int i = 0; i < approximate.size(); i++) {
+            int row = approximate.rowAt(i);
+            reranked.offer(row, kernel.dot(query, 0, data, row * dimension, dimension));
+        }
+        return reranked;
+    }
+
+    @Override
+    public boolean isApproximate() {
+        return true;
+    }
+}
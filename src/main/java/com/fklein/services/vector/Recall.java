@@ -0,0 +1,33 @@
+package com.fklein.services.vector;
+
+import java.util.Arrays;
+
+/**
+ * Running recall@k: the fraction of exact nearest neighbours that an approximate search also returned
+ */
+public final class Recall {
+
+    private int matched;
+    private int expected;
+
+    /**
+     * Count one query's exact and approximate result rows
+     */
+    public void add(int[] exact, int[] approximate) {
+        int[] sorted = approximate.clone();
+        Arrays.sort(sorted);
+        for (int hit : exact) {
+            if (Arrays.binarySearch(sorted, hit) >= 0) {
+                matched++;
+            }
+        }
+        expected += exact.length;
+    }
+
+    /**
+     * Recall over every query added so far; 1.0 when nothing was expected
+     */
+    public double value() {
+        return expected == 0 ? 1.0 : (double) matched / expected;
+    }
+}
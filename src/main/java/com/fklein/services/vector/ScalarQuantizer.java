@@ -0,0 +1,126 @@
+package com.fklein.services.vector;
+
+import java.util.Arrays;
+
+/**
+ * Per-dimension int8 scalar quantization: {@code value ~= offset[d] + scale[d] * code}, codes in [-127, 127].
+ *
+ * Queries are scored asymmetrically but still with an integer dot product: the query is folded into
+ * per-dimension weights {@code q[d] * scale[d]}, which are themselves quantized with one shared scale.
+ */
+public final class ScalarQuantizer {
+
+    private static final float MIN_RANGE = 1e-6f;
+
+    // Margin added on each side of the observed range, as a fraction of it, so rows added after
+    // training that fall slightly outside the sample are not clamped
+    private static final float HEADROOM = 0.25f;
+
+    private final float[] offsets;
+    private final float[] scales;
+    private final boolean trained;
+
+    private ScalarQuantizer(float[] offsets, float[] scales, boolean trained) {
+        this.offsets = offsets;
+        this.scales = scales;
+        this.trained = trained;
+    }
+
+    /**
+     * Untrained quantizer covering [-1, 1] on every dimension, valid for any unit-normalized vector
+     */
+    public static ScalarQuantizer unitRange(int dimension) {
+        float[] offsets = new float[dimension];
+        float[] scales = new float[dimension];
+        Arrays.fill(scales, 1f / 127f);
+        return new ScalarQuantizer(offsets, scales, false);
+    }
+
+    /**
+     * Fit per-dimension ranges, widened by {@link #HEADROOM}, to the given vectors
+     */
+    public static ScalarQuantizer train(Iterable<float[]> vectors, int dimension) {
+        float[] min = new float[dimension];
+        float[] max = new float[dimension];
+        Arrays.fill(min, Float.POSITIVE_INFINITY);
+        Arrays.fill(max, Float.NEGATIVE_INFINITY);
+        boolean any = false;
+        for (float[] vector : vectors) {
+            any = true;
+            for (int d = 0; d < dimension; d++) {
+                min[d] = Math.min(min[d], vector[d]);
+                max[d] = Math.max(max[d], vector[d]);
+            }
+        }
+        if (!any) {
+            return unitRange(dimension);
+        }
+        float[] offsets = new float[dimension];
+        float[] scales = new float[dimension];
+        for (int d = 0; d < dimension; d++) {
+            offsets[d] = (min[d] + max[d]) / 2f;
+            scales[d] = Math.max(max[d] - min[d], MIN_RANGE) * (1f + 2f * HEADROOM) / 254f;
+        }
+        return new ScalarQuantizer(offsets, scales, true);
+    }
+
+    public boolean isTrained() {
+        return trained;
+    }
+
+    public int dimension() {
+        return offsets.length;
+    }
+
+    public void encode(float[] vector, byte[] codes, int codesOffset) {
+        for (int d = 0; d < offsets.length; d++) {
+            int code = Math.round((vector[d] - offsets[d]) / scales[d]);
+            codes[codesOffset + d] = (byte) Math.max(-127, Math.min(127, code));
+        }
+    }
+
+    public float[] decode(byte[] codes, int codesOffset) {
+        float[] vector = new float[offsets.length];
+        for (int d = 0; d < offsets.length; d++) {
+            vector[d] = offsets[d] + scales[d] * codes[codesOffset + d];
+        }
+        return vector;
+    }
+
+    /**
+     * Fold a unit-normalized query into int8 weights for {@link QueryCodes#score}
+     */
+    public QueryCodes prepare(float[] query) {
+        float[] weights = new float[offsets.length];
+        float maxWeight = 0f;
+        float bias = 0f;
+        for (int d = 0; d < offsets.length; d++) {
+            weights[d] = query[d] * scales[d];
+            maxWeight = Math.max(maxWeight, Math.abs(weights[d]));
+            bias += query[d] * offsets[d];
+        }
+        float weightScale = maxWeight == 0f ? 1f : maxWeight / 127f;
+        byte[] codes = new byte[offsets.length];
+        for (int d = 0; d < offsets.length; d++) {
+            codes[d] = (byte) Math.round(weights[d] / weightScale);
+        }
+        return new QueryCodes(codes, weightScale, bias);
+    }
+
+    /**
+     * A query prepared for integer scoring against stored codes
+     */
+    public record QueryCodes(byte[] codes, float scale, float bias) {
+
+        /**
+         * Approximate dot product between the query and one stored row
+         */
+        public float score(byte[] block, int offset) {
+            int sum = 0;
+            for (int d = 0; d < codes.length; d++) {
+                sum += codes[d] * block[offset + d];
+            }
+            return scale * sum + bias;
+        }
+    }
+}
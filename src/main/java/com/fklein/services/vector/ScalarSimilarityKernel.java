@@ -0,0 +1,22 @@
+package com.fklein.services.vector;
+
+/**
+ * Portable kernel, used when the Vector API module is not available.
+ * Accumulates in double, so its result is the correctly rounded dot product that the SIMD kernel approximates.
+ */
+final class ScalarSimilarityKernel implements SimilarityKernel {
+
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            sum += (double) a[aOffset + i] * b[bOffset + i];
+        }
+        return (float) sum;
+    }
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+}
@@ -0,0 +1,7 @@
+package com.fklein.services.vector;
+
+/**
+ * Lightweight search result: the chunk id and its similarity to the query
+ */
+public record SearchHit(String id, double score) {
+}
@@ -0,0 +1,37 @@
+package com.fklein.services.vector;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Picks the fastest available {@link SimilarityKernel}.
+ * The Vector API kernel needs the JVM to be started with {@code --add-modules jdk.incubator.vector};
+ * without it the scalar kernel is used.
+ */
+public final class SimilarityKernels {
+
+    private static final Logger LOG = Logger.getLogger(SimilarityKernels.class);
+
+    private static final String VECTOR_API_KERNEL = "com.fklein.services.vector.VectorApiSimilarityKernel";
+
+    private SimilarityKernels() {
+    }
+
+    public static SimilarityKernel scalar() {
+        return new ScalarSimilarityKernel();
+    }
+
+    public static SimilarityKernel select(boolean simdEnabled) {
+        if (simdEnabled) {
+            try {
+                SimilarityKernel kernel = (SimilarityKernel) Class.forName(VECTOR_API_KERNEL)
+                        .getDeclaredConstructor().newInstance();
+                // Force the incubator classes to link now rather than on the first query
+                kernel.dot(new float[]{1f}, 0, new float[]{1f}, 0, 1);
+                return kernel;
+            } catch (Throwable e) {
+                LOG.info("Vector API unavailable, using scalar similarity kernel (" + e + ")");
+            }
+        }
+        return scalar();
+    }
+}
@@ -0,0 +1,136 @@
+package com.fklein.services.vector;
+
+/**
+ * Bounded min-heap of (row, score) pairs over primitive arrays.
+ * The root is the weakest retained hit, so a candidate only enters if it beats it.
+ */
+public final class TopK {
+
+    private final int capacity;
+    private final int[] rows;
+    private final float[] scores;
+    private int size;
+
+    public TopK(int capacity) {
+        this.capacity = capacity;
+        this.rows = new int[capacity];
+        this.scores = new float[capacity];
+    }
+
+    /**
+     * Offer a candidate
+     *
+     * @return true if it was retained
+     */
+    public boolean offer(int row, float score) {
+        if (size < capacity) {
+            rows[size] = row;
+            scores[size] = score;
+            siftUp(size++);
+            return true;
+        }
+        if (capacity == 0 || score <= scores[0]) {
+            return false;
+        }
+        rows[0] = row;
+        scores[0] = score;
+        siftDown(0);
+        return true;
+    }
+
+    /**
+     * Score a candidate must beat to be retained once the heap is full
+     */
+    public float threshold() {
+        return size < capacity ? Float.NEGATIVE_INFINITY : scores[0];
+    }
+
+    public void merge(TopK other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.rows[i], other.scores[i]);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    // Heap-ordered access, for callers that do not need the hits sorted
+    int rowAt(int index) {
+        return rows[index];
+    }
+
+    float scoreAt(int index) {
+        return scores[index];
+    }
+
+    /**
+     * Empty the heap into the given arrays, best hit first
+     *
+     * @return number of hits written
+     */
+    public int drainDescending(int[] rowsOut, float[] scoresOut) {
+        int count = size;
+        for (int i = count - 1; i >= 0; i--) {
+            rowsOut[i] = rows[0];
+            scoresOut[i] = scores[0];
+            size--;
+            if (size > 0) {
+                rows[0] = rows[size];
+                scores[0] = scores[size];
+                siftDown(0);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Empty the heap, returning its rows best first
+     */
+    public int[] drainRows() {
+        int[] rowsOut = new int[size];
+        drainDescending(rowsOut, new float[size]);
+        return rowsOut;
+    }
+
+    private void siftUp(int index) {
+        int row = rows[index];
+        float score = scores[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (scores[parent] <= score) {
+                break;
+            }
+            rows[index] = rows[parent];
+            scores[index] = scores[parent];
+            index = parent;
+        }
+        rows[index] = row;
+        scores[index] = score;
+    }
+
+    private void siftDown(int index) {
+        int row = rows[index];
+        float score = scores[index];
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < size && scores[right] < scores[child]) {
+                child = right;
+            }
+            if (score <= scores[child]) {
+                break;
+            }
+            rows[index] = rows[child];
+            scores[index] = scores[child];
+            index = child;
+        }
+        rows[index] = row;
+        scores[index] = score;
+    }
+}
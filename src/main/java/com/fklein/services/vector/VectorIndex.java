@@ -0,0 +1,58 @@
+package com.fklein.services.vector;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Nearest-neighbour index over the rows of an {@link EmbeddingMatrix}.
+ * The matrix owns the vectors; an index only keeps whatever structure it needs to find rows quickly.
+ */
+public interface VectorIndex {
+
+    String name();
+
+    /**
+     * Called before a batch of unit-normalized vectors is written to the matrix
+     */
+    default void prepareBatch(List<float[]> vectors) {
+    }
+
+    /**
+     * Index a row that was just written to the matrix
+     *
+     * @param vector the unit-normalized vector written to that row
+     */
+    void add(int row, float[] vector);
+
+    /**
+     * Forget a row that was just tombstoned in the matrix
+     */
+    void remove(int row);
+
+    /**
+     * Rebuild from the current matrix contents, after it was compacted or cleared
+     */
+    void rebuild();
+
+    /**
+     * Independent copy of this index over {@code matrix}, a {@link EmbeddingMatrix#copy()} of its own matrix
+     */
+    VectorIndex copyFor(EmbeddingMatrix matrix);
+
+    /**
+     * Best {@code k} live rows for a unit-normalized query
+     */
+    default TopK search(float[] query, int k) {
+        return search(query, k, null);
+    }
+
+    /**
+     * Best {@code k} rows among {@code candidates} (all live rows when null) for a unit-normalized query
+     */
+    TopK search(float[] query, int k, BitSet candidates);
+
+    /**
+     * Whether results may differ from an exhaustive scan
+     */
+    boolean isApproximate();
+}
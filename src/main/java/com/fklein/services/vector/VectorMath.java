@@ -0,0 +1,34 @@
+package com.fklein.services.vector;
+
+/**
+ * Scalar vector helpers shared by the storage engine
+ */
+public final class VectorMath {
+
+    private VectorMath() {
+    }
+
+    public static double norm(float[] vector) {
+        double sum = 0.0;
+        for (float value : vector) {
+            sum += value * value;
+        }
+        return Math.sqrt(sum);
+    }
+
+    /**
+     * Unit-length copy of a vector; a zero vector is returned as zeros
+     */
+    public static float[] normalize(float[] vector) {
+        float[] normalized = new float[vector.length];
+        double norm = norm(vector);
+        if (norm == 0.0) {
+            return normalized;
+        }
+        float inverse = (float) (1.0 / norm);
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = vector[i] * inverse;
+        }
+        return normalized;
+    }
+}
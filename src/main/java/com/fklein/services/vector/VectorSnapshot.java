@@ -0,0 +1,249 @@
+package com.fklein.services.vector;
+
+import com.fklein.models.DocumentChunk;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Versioned binary snapshot of the vector store.
+ *
+ * Layout (little-endian):
+ * <pre>
+ *   header   magic "FKVS", version, dimension, rows, vector block offset (long),
+ *            record block offset (long), source hash (64 ASCII bytes)
+ *   vectors  rows * dimension float32, row-major, full precision as returned by the embedding model
+ *   records  per row: id, content, metadata entry count, then key/value pairs;
+ *            strings are an int byte length followed by UTF-8 bytes
+ * </pre>
+ * Snapshots are written to a temporary file and moved into place, so a reader never sees a partial file.
+ * A snapshot is mapped as a single buffer, so files are limited to {@link #MAX_FILE_BYTES}.
+ */
+public final class VectorSnapshot {
+
+    private static final int MAGIC = 0x464B5653; // "FKVS"
+    private static final int VERSION = 1;
+    private static final int HASH_BYTES = 64;
+    private static final int HEADER_BYTES = 4 + 4 + 4 + 4 + 8 + 8 + HASH_BYTES;
+    private static final long MAX_FILE_BYTES = Integer.MAX_VALUE;
+
+    private VectorSnapshot() {
+    }
+
+    /**
+     * Write chunks with the embeddings exactly as the model returned them.
+     *
+     * Snapshots are taken from the source chunks rather than the matrix, so an int8 store that dropped its
+     * floats still persists full-precision vectors and the snapshot stays valid for every index type.
+     *
+     * @param sourceHash hex digest of the content the vectors were computed from
+     */
+    public static void write(Path path, List<DocumentChunk> chunks, String sourceHash) throws IOException {
+        byte[] hash = fixedHash(sourceHash);
+        int dimension = chunks.isEmpty() || chunks.get(0).getEmbedding() == null ? 0 : chunks.get(0).getEmbedding().length;
+        for (DocumentChunk chunk : chunks) {
+            if (chunk.getEmbedding() == null || chunk.getEmbedding().length != dimension) {
+                throw new IllegalArgumentException("Chunk " + chunk.getId() + " has no embedding of dimension " + dimension);
+            }
+        }
+        int rows = chunks.size();
+        long vectorOffset = HEADER_BYTES;
+        long recordOffset = vectorOffset + (long) rows * dimension * Float.BYTES;
+
+        Path parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream file = Files.newOutputStream(temp);
+                 LittleEndianOutput out = new LittleEndianOutput(new BufferedOutputStream(file, 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(dimension);
+                out.writeInt(rows);
+                out.writeLong(vectorOffset);
+                out.writeLong(recordOffset);
+                out.write(hash);
+
+                for (DocumentChunk chunk : chunks) {
+                    for (float value : chunk.getEmbedding()) {
+                        out.writeFloat(value);
+                    }
+                }
+
+                for (DocumentChunk chunk : chunks) {
+                    out.writeString(chunk.getId());
+                    out.writeString(chunk.getContent());
+                    Map<String, String> metadata = chunk.getMetadata();
+                    out.writeInt(metadata == null ? 0 : metadata.size());
+                    if (metadata != null) {
+                        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+                            out.writeString(entry.getKey());
+                            out.writeString(entry.getValue());
+                        }
+                    }
+                }
+            }
+            if (Files.size(temp) > MAX_FILE_BYTES) {
+                throw new IOException("Vector store snapshot would exceed " + MAX_FILE_BYTES + " bytes");
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Source hash recorded in a snapshot, or null if the file is missing or not a readable snapshot
+     */
+    public static String readSourceHash(Path path) throws IOException {
+        if (!Files.isRegularFile(path) || Files.size(path) < HEADER_BYTES) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // fill the header
+            }
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                return null;
+            }
+            return readHash(header);
+        }
+    }
+
+    /**
+     * Memory-map a snapshot and materialize its chunks, embeddings included
+     */
+    public static List<DocumentChunk> read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > MAX_FILE_BYTES) {
+                throw new IOException("Vector store snapshot larger than " + MAX_FILE_BYTES + " bytes: " + path);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (mapped.getInt() != MAGIC || mapped.getInt() != VERSION) {
+                throw new IOException("Not a vector store snapshot (or unsupported version): " + path);
+            }
+            int dimension = mapped.getInt();
+            int rows = mapped.getInt();
+            long vectorOffset = mapped.getLong();
+            long recordOffset = mapped.getLong();
+            if (recordOffset != vectorOffset + (long) rows * dimension * Float.BYTES || recordOffset > channel.size()) {
+                throw new IOException("Corrupt vector store snapshot: " + path);
+            }
+
+            FloatBuffer vectors = mapped.slice((int) vectorOffset, (int) (recordOffset - vectorOffset))
+                    .order(ByteOrder.LITTLE_ENDIAN)
+                    .asFloatBuffer();
+            ByteBuffer records = mapped.slice((int) recordOffset, (int) (channel.size() - recordOffset))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+
+            List<DocumentChunk> chunks = new ArrayList<>(rows);
+            for (int row = 0; row < rows; row++) {
+                float[] embedding = new float[dimension];
+                vectors.get(embedding);
+
+                String id = readString(records);
+                String content = readString(records);
+                int entries = records.getInt();
+                Map<String, String> metadata = new LinkedHashMap<>(entries * 2);
+                for (int i = 0; i < entries; i++) {
+                    metadata.put(readString(records), readString(records));
+                }
+
+                DocumentChunk chunk = new DocumentChunk(id, content, metadata);
+                chunk.setEmbedding(embedding);
+                chunks.add(chunk);
+            }
+            return chunks;
+        }
+    }
+
+    private static byte[] fixedHash(String sourceHash) {
+        byte[] bytes = sourceHash.getBytes(StandardCharsets.US_ASCII);
+        if (bytes.length > HASH_BYTES) {
+            throw new IllegalArgumentException("Source hash longer than " + HASH_BYTES + " characters");
+        }
+        byte[] fixed = new byte[HASH_BYTES];
+        System.arraycopy(bytes, 0, fixed, 0, bytes.length);
+        return fixed;
+    }
+
+    private static String readHash(ByteBuffer header) {
+        header.position(HEADER_BYTES - HASH_BYTES);
+        byte[] hash = new byte[HASH_BYTES];
+        header.get(hash);
+        int length = 0;
+        while (length < HASH_BYTES && hash[length] != 0) {
+            length++;
+        }
+        return new String(hash, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * DataOutputStream writes big-endian; the snapshot is little-endian to match x86/ARM memory order
+     */
+    private static final class LittleEndianOutput implements AutoCloseable {
+
+        private final OutputStream out;
+        private final ByteBuffer scratch = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        LittleEndianOutput(OutputStream out) {
+            this.out = out;
+        }
+
+        void writeInt(int value) throws IOException {
+            scratch.clear();
+            scratch.putInt(value);
+            out.write(scratch.array(), 0, Integer.BYTES);
+        }
+
+        void writeLong(long value) throws IOException {
+            scratch.clear();
+            scratch.putLong(value);
+            out.write(scratch.array(), 0, Long.BYTES);
+        }
+
+        void writeFloat(float value) throws IOException {
+            writeInt(Float.floatToRawIntBits(value));
+        }
+
+        void write(byte[] bytes) throws IOException {
+            out.write(bytes);
+        }
+
+        void writeString(String value) throws IOException {
+            byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+            writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.fklein.resources;
+
+import io.quarkus.test.junit.QuarkusTest;
+import org.junit.jupiter.api.Test;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.CoreMatchers.notNullValue;
+
+@QuarkusTest
+class ChatbotResourceTest {
+
+    @Test
+    void testStatsEndpoint() {
+        given()
+          .when().get("/api/chat/stats")
+          .then()
+             .statusCode(200)
+             .body("embeddingCache.hits", notNullValue())
+             .body("embeddingCache.entries", notNullValue())
+             .body("answerCache.misses", notNullValue())
+             .body("singleFlight.started", notNullValue())
+             .body("upstreamHosts", notNullValue())
+             .body("llmRouter.hedges", notNullValue())
+             .body("llmRouter.failovers", notNullValue())
+             .body("llmUsage.openai.inputTokens", notNullValue())
+             .body("llmUsage.openai.cacheReadTokens", notNullValue());
+    }
+}
@@ -0,0 +1,38 @@
+package com.fklein.services;
+
+import com.fklein.services.llm.PromptBuilder;
+import com.fklein.services.llm.TokenUsage;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class ClaudeServiceTest {
+
+    @Test
+    void testCacheControlIsSentOnTheBreakpointBlockOnly() {
+        List<Map<String, Object>> blocks = ClaudeService.systemBlocks(new PromptBuilder()
+                .stable("persona")
+                .stable("instructions")
+                .variable("context")
+                .build("question"));
+
+        assertEquals(2, blocks.size());
+        assertEquals(Map.of("type", "text", "text", "persona\n\ninstructions",
+                "cache_control", Map.of("type", "ephemeral")), blocks.get(0));
+        assertEquals(Map.of("type", "text", "text", "context"), blocks.get(1));
+        assertFalse(blocks.get(1).containsKey("cache_control"));
+    }
+
+    @Test
+    void testInputTokensIncludeCacheReadsAndWrites() {
+        // Anthropic reports input_tokens without the cached part
+        TokenUsage usage = ClaudeService.usageOf(100, 2000, 300, 50);
+
+        assertEquals(new TokenUsage(2400, 2000, 300, 50), usage);
+        assertEquals(2000.0 / 2400, usage.cacheHitRate(), 1e-9);
+    }
+}
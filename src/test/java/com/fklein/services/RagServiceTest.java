@@ -0,0 +1,36 @@
+package com.fklein.services;
+
+import com.fklein.services.vector.Filter;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RagServiceTest {
+
+    @Test
+    void testSectionWordsMatchOnWordBoundaries() {
+        assertSection("experience", "Where did he work before?");
+        assertSection("skills", "Which tools does he use?");
+        assertSection("education", "Où a-t-il étudié ?");
+        assertSection("certifications", "Is he certified on AWS?");
+
+        assertNull(RagService.inferSectionFilter("Which framework does he prefer?"));
+        assertNull(RagService.inferSectionFilter("Does he know networking?"));
+        assertNull(RagService.inferSectionFilter("Has he built a toolkit?"));
+    }
+
+    @Test
+    void testOnlySingleSectionQuestionsAreBiased() {
+        assertNull(RagService.inferSectionFilter("Tell me about him"));
+        assertNull(RagService.inferSectionFilter("Which skills did he use in his last job?"));
+    }
+
+    private static void assertSection(String type, String query) {
+        Filter filter = RagService.inferSectionFilter(query);
+        assertEquals(Map.of("type", Set.of(type, "personal")), filter == null ? null : filter.clauses());
+    }
+}
@@ -0,0 +1,171 @@
+package com.fklein.services;
+
+import com.fklein.models.DocumentChunk;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VectorStoreServiceTest {
+
+    @Test
+    void testBatchedWritersSeeOnlyTheirOwnFailure() throws Exception {
+        VectorStoreService store = store();
+        CountDownLatch holding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // Parks the first writer inside the write lock until the other two are queued behind it
+        DocumentChunk blocking = new DocumentChunk("first", "Java", Map.of()) {
+            @Override
+            public String getContent() {
+                holding.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getContent();
+            }
+        };
+        blocking.setEmbedding(new float[]{1, 0, 0});
+
+        ExecutorService writers = Executors.newFixedThreadPool(3);
+        try {
+            Future<?> first = writers.submit(() -> store.addChunk(blocking));
+            assertTrue(holding.await(5, TimeUnit.SECONDS));
+            List<Thread> queued = new ArrayList<>();
+            Future<?> good = writers.submit(() -> registerAndAdd(queued, store, chunk("good", 0, 1, 0)));
+            Future<?> bad = writers.submit(() -> registerAndAdd(queued, store, chunk("bad", 1, 0)));
+            await(() -> {
+                synchronized (queued) {
+                    return queued.size() == 2
+                            && queued.stream().allMatch(thread -> thread.getState() == Thread.State.WAITING);
+                }
+            });
+            release.countDown();
+
+            first.get(5, TimeUnit.SECONDS);
+            good.get(5, TimeUnit.SECONDS);
+            Exception failure = assertThrows(Exception.class, () -> bad.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalArgumentException.class, failure.getCause());
+        } finally {
+            release.countDown();
+            writers.shutdownNow();
+        }
+
+        // The two queued writes went through one copy: the rejected one is dropped, the other applied
+        assertEquals(2, store.generation());
+        assertTrue(store.containsChunk("first"));
+        assertTrue(store.containsChunk("good"));
+        assertFalse(store.containsChunk("bad"));
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    void testRejectedWritePublishesNothing() {
+        VectorStoreService store = store();
+        store.addChunk(chunk("a", 1, 0, 0));
+        long version = store.generation();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> store.addChunks(List.of(chunk("b", 0, 1, 0), chunk("c", 1, 0))));
+        assertFalse(store.removeChunk("missing"));
+
+        assertEquals(version, store.generation());
+        assertEquals(1, store.size());
+        assertFalse(store.containsChunk("b"));
+    }
+
+    @Test
+    void testReadersNeverSeeAHalfAppliedGeneration() throws Exception {
+        VectorStoreService store = store();
+        int batchSize = 8;
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService threads = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int w = 0; w < 2; w++) {
+                int writer = w;
+                writers.add(threads.submit(() -> {
+                    for (int b = 0; b < 50; b++) {
+                        List<DocumentChunk> batch = new ArrayList<>();
+                        for (int i = 0; i < batchSize; i++) {
+                            batch.add(chunk(writer + "-" + b + "-" + i, 1, writer, b, i));
+                        }
+                        store.addChunks(batch);
+                    }
+                }));
+            }
+            Future<Integer> reader = threads.submit(() -> {
+                int reads = 0;
+                while (writing.get()) {
+                    List<DocumentChunk> chunks = store.getAllChunks();
+                    assertEquals(0, chunks.size() % batchSize, "generation with a partial batch");
+                    reads++;
+                }
+                return reads;
+            });
+            for (Future<?> writer : writers) {
+                writer.get(30, TimeUnit.SECONDS);
+            }
+            writing.set(false);
+            assertTrue(reader.get(5, TimeUnit.SECONDS) > 0);
+        } finally {
+            writing.set(false);
+            threads.shutdownNow();
+        }
+        assertEquals(2 * 50 * batchSize, store.size());
+    }
+
+    private static void registerAndAdd(List<Thread> queued, VectorStoreService store, DocumentChunk chunk) {
+        synchronized (queued) {
+            queued.add(Thread.currentThread());
+        }
+        store.addChunk(chunk);
+    }
+
+    private static VectorStoreService store() {
+        VectorStoreService store = new VectorStoreService();
+        store.simdEnabled = false;
+        store.parallelThreshold = 32768;
+        store.indexType = "flat";
+        store.int8Oversample = 4;
+        store.int8KeepFloats = true;
+        store.retrievalMode = "hybrid";
+        store.embeddingTimeout = Duration.ofSeconds(2);
+        store.rrfK = 60;
+        store.snapshotEnabled = false;
+        store.init();
+        return store;
+    }
+
+    private static DocumentChunk chunk(String id, float... embedding) {
+        DocumentChunk chunk = new DocumentChunk(id, "Chunk " + id, Map.of("type", "skills"));
+        chunk.setEmbedding(embedding);
+        return chunk;
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Condition not met within 5 s");
+            }
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.fklein.services.chat;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class AnswerCacheTest {
+
+    @Test
+    void testHitsOnlyAboveTheSimilarityThreshold() {
+        AnswerCache cache = new AnswerCache(16, null, 0.95);
+        cache.put(new float[] {1f, 0f}, 1, "He studied in Paris.");
+
+        // cos = 0.98 and 0.89
+        assertEquals("He studied in Paris.", cache.get(new float[] {0.98f, 0.199f}, 1));
+        assertNull(cache.get(new float[] {0.89f, 0.456f}, 1));
+
+        AnswerCache.Stats stats = cache.stats();
+        assertEquals(1, stats.hits());
+        assertEquals(1, stats.misses());
+        assertEquals(0.5, stats.hitRate());
+    }
+
+    @Test
+    void testEntriesOnlyServeTheirStoreGeneration() {
+        AnswerCache cache = new AnswerCache(16, null, 0.95);
+        cache.put(new float[] {1f, 0f}, 2, "answer from generation 2");
+
+        // A request that started before the reindex misses but keeps the newer entry
+        assertNull(cache.get(new float[] {1f, 0f}, 1));
+        assertEquals("answer from generation 2", cache.get(new float[] {1f, 0f}, 2));
+        // Once the store moved on, the entry is dropped
+        assertNull(cache.get(new float[] {1f, 0f}, 3));
+        assertEquals(0, cache.stats().entries());
+    }
+
+    @Test
+    void testLeastRecentlyUsedEntryIsEvicted() {
+        AnswerCache cache = new AnswerCache(2, null, 0.99);
+        float[] education = {1f, 0f, 0f};
+        float[] skills = {0f, 1f, 0f};
+        float[] languages = {0f, 0f, 1f};
+        cache.put(education, 1, "education");
+        cache.put(skills, 1, "skills");
+        cache.get(education, 1);
+
+        cache.put(languages, 1, "languages");
+
+        assertEquals("education", cache.get(education, 1));
+        assertNull(cache.get(skills, 1));
+        assertEquals("languages", cache.get(languages, 1));
+        assertEquals(1, cache.stats().evictions());
+    }
+
+    @Test
+    void testExpiredEntriesMiss() throws InterruptedException {
+        AnswerCache cache = new AnswerCache(16, Duration.ofMillis(20), 0.95);
+        cache.put(new float[] {1f, 0f}, 1, "answer");
+        Thread.sleep(50);
+        assertNull(cache.get(new float[] {1f, 0f}, 1));
+    }
+
+    @Test
+    void testReplayConcatenatesBackToTheAnswer() {
+        String answer = "He speaks French,\nEnglish  and German.";
+        List<String> words = replayed(answer, Duration.ofMillis(1));
+        assertEquals(answer, String.join("", words));
+        assertEquals(List.of("He ", "speaks ", "French,\n", "English  ", "and ", "German."), words);
+        assertEquals(List.of(answer), replayed(answer, Duration.ZERO));
+    }
+
+    private static List<String> replayed(String answer, Duration interval) {
+        return AnswerCache.replay(answer, interval).collect().asList().await().indefinitely();
+    }
+}
@@ -0,0 +1,196 @@
+package com.fklein.services.chat;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.helpers.test.AssertSubscriber;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleFlightTest {
+
+    @Test
+    void testJoinerReplaysProducedItemsAndFollowsLive() {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        ManualSource source = new ManualSource();
+
+        AssertSubscriber<String> leader = flight.join("q", source::multi).subscribe()
+                .withSubscriber(AssertSubscriber.create(Long.MAX_VALUE));
+        source.emit("He ");
+        source.emit("studied ");
+        AssertSubscriber<String> joiner = flight.join("q", source::multi).subscribe()
+                .withSubscriber(AssertSubscriber.create(Long.MAX_VALUE));
+        source.emit("in Paris.");
+        source.complete();
+
+        leader.assertCompleted().assertItems("He ", "studied ", "in Paris.");
+        joiner.assertCompleted().assertItems("He ", "studied ", "in Paris.");
+        assertEquals(1, source.subscriptions.get());
+        assertEquals(new SingleFlight.Stats(1, 1, 0), flight.stats());
+    }
+
+    @Test
+    void testDemandFollowsTheSlowestSubscriber() {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        ManualSource source = new ManualSource();
+
+        AssertSubscriber<String> leader = flight.join("q", source::multi).subscribe()
+                .withSubscriber(AssertSubscriber.create(1));
+        // A lone subscriber's demand is forwarded as is, never Long.MAX_VALUE
+        assertEquals(1, source.requested.get());
+        source.emit("a");
+        leader.request(2);
+        assertEquals(3, source.requested.get());
+
+        AssertSubscriber<String> joiner = flight.join("q", source::multi).subscribe()
+                .withSubscriber(AssertSubscriber.create(0));
+        source.emit("b");
+        source.emit("c");
+        leader.request(5);
+        // The joiner has not asked for anything yet, so nothing more is read
+        assertEquals(3, source.requested.get());
+
+        joiner.request(10);
+        joiner.assertItems("a", "b", "c");
+        assertEquals(8, source.requested.get());
+    }
+
+    @Test
+    void testSourceIsCancelledWhenTheLastSubscriberLeaves() {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        ManualSource source = new ManualSource();
+
+        AssertSubscriber<String> leader = flight.join("q", source::multi).subscribe()
+                .withSubscriber(AssertSubscriber.create(Long.MAX_VALUE));
+        AssertSubscriber<String> joiner = flight.join("q", source::multi).subscribe()
+                .withSubscriber(AssertSubscriber.create(Long.MAX_VALUE));
+        source.emit("a");
+
+        leader.cancel();
+        assertFalse(source.cancelled);
+        source.emit("b");
+        joiner.assertItems("a", "b");
+
+        joiner.cancel();
+        assertTrue(source.cancelled);
+        assertEquals(0, flight.stats().inFlight());
+
+        // The key was released, so the next request opens a fresh source
+        ManualSource next = new ManualSource();
+        AssertSubscriber<String> later = flight.join("q", next::multi).subscribe()
+                .withSubscriber(AssertSubscriber.create(Long.MAX_VALUE));
+        next.emit("fresh");
+        next.complete();
+        later.assertCompleted().assertItems("fresh");
+        assertEquals(1, source.subscriptions.get());
+        assertEquals(1, next.subscriptions.get());
+    }
+
+    @Test
+    void testFailureReachesEverySubscriber() {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        ManualSource source = new ManualSource();
+
+        AssertSubscriber<String> leader = flight.join("q", source::multi).subscribe()
+                .withSubscriber(AssertSubscriber.create(Long.MAX_VALUE));
+        AssertSubscriber<String> joiner = flight.join("q", source::multi).subscribe()
+                .withSubscriber(AssertSubscriber.create(Long.MAX_VALUE));
+        source.emit("a");
+        source.fail(new RuntimeException("Claude API error: 529 - overloaded"));
+
+        leader.assertFailedWith(RuntimeException.class, "overloaded").assertItems("a");
+        joiner.assertFailedWith(RuntimeException.class, "overloaded").assertItems("a");
+        assertEquals(0, flight.stats().inFlight());
+    }
+
+    @Test
+    void testJoinRacingTheLastCancelNeverLandsOnAClosedFlight() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        AtomicInteger opened = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int round = 0; round < 500; round++) {
+                CountDownLatch go = new CountDownLatch(1);
+                List<Future<AssertSubscriber<String>>> joiners = new ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    boolean leaves = i % 2 == 0;
+                    joiners.add(executor.submit(() -> {
+                        go.await();
+                        AssertSubscriber<String> subscriber = flight.join("q", () -> {
+                            opened.incrementAndGet();
+                            return Multi.createFrom().items("a", "b");
+                        }).subscribe().withSubscriber(AssertSubscriber.create(leaves ? 0 : Long.MAX_VALUE));
+                        if (leaves) {
+                            subscriber.cancel();
+                        }
+                        return leaves ? null : subscriber;
+                    }));
+                }
+                go.countDown();
+                for (Future<AssertSubscriber<String>> joiner : joiners) {
+                    AssertSubscriber<String> subscriber = joiner.get(5, TimeUnit.SECONDS);
+                    if (subscriber != null) {
+                        subscriber.awaitCompletion().assertItems("a", "b");
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(0, flight.stats().inFlight());
+        assertTrue(opened.get() >= 500);
+    }
+
+    /**
+     * A source driven by the test: records demand and cancellation, emits only when told to
+     */
+    private static final class ManualSource {
+
+        final AtomicInteger subscriptions = new AtomicInteger();
+        final AtomicLong requested = new AtomicLong();
+        volatile boolean cancelled;
+        private Flow.Subscriber<? super String> subscriber;
+
+        Multi<String> multi() {
+            return Multi.createFrom().publisher(subscriber -> {
+                subscriptions.incrementAndGet();
+                this.subscriber = subscriber;
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                        requested.addAndGet(n);
+                    }
+
+                    @Override
+                    public void cancel() {
+                        cancelled = true;
+                    }
+                });
+            });
+        }
+
+        void emit(String item) {
+            subscriber.onNext(item);
+        }
+
+        void complete() {
+            subscriber.onComplete();
+        }
+
+        void fail(Throwable failure) {
+            subscriber.onError(failure);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.fklein.services.chat;
+
+import com.fklein.services.chat.TokenCoalescer.FlushPolicy;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.helpers.test.AssertSubscriber;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TokenCoalescerTest {
+
+    private static final Duration LONG = Duration.ofMinutes(1);
+
+    @Test
+    void testWordPolicyCutsAfterCompleteWords() {
+        List<String> frames = coalesce(new TokenCoalescer(FlushPolicy.WORD, LONG, 256),
+                "He", " stud", "ied", " in", " Paris.");
+        assertEquals(List.of("He", " studied ", "in ", "Paris."), frames);
+    }
+
+    @Test
+    void testSentencePolicyCutsAfterCompleteSentences() {
+        List<String> frames = coalesce(new TokenCoalescer(FlushPolicy.SENTENCE, LONG, 256),
+                "Hi", ". He", " codes", ". Mostly", " Java", "!\n", "Bye");
+        assertEquals(List.of("Hi", ". ", "He codes. ", "Mostly Java!\n", "Bye"), frames);
+    }
+
+    @Test
+    void testSizePolicyFlushesAtMaxBytes() {
+        List<String> frames = coalesce(new TokenCoalescer(FlushPolicy.SIZE, LONG, 8),
+                "a", "bcd", "efgh", "ij", "k");
+        assertEquals(List.of("a", "bcdefghij", "k"), frames);
+        // "é" is two bytes of UTF-8
+        assertEquals(List.of("a", "éééé", "b"), coalesce(new TokenCoalescer(FlushPolicy.SIZE, LONG, 8),
+                "a", "éé", "éé", "b"));
+    }
+
+    @Test
+    void testRemainderIsFlushedOnCompletion() {
+        List<String> frames = coalesce(new TokenCoalescer(FlushPolicy.TIME, LONG, 256), "a", "b", "c");
+        assertEquals(List.of("a", "bc"), frames);
+    }
+
+    @Test
+    void testStalledUpstreamIsFlushedAfterMaxDelay() {
+        ManualSource source = new ManualSource();
+        AssertSubscriber<String> frames = new TokenCoalescer(FlushPolicy.WORD, Duration.ofMillis(50), 256)
+                .coalesce(source.multi()).subscribe().withSubscriber(AssertSubscriber.create(Long.MAX_VALUE));
+
+        source.emit("Hello");
+        source.emit(" wor");
+        // No further delta and no completion: the timer sends the partial word
+        frames.awaitItems(2, Duration.ofSeconds(5)).assertItems("Hello", " wor").assertNotTerminated();
+    }
+
+    @Test
+    void testDeltasArePulledOnlyForRequestedFrames() {
+        ManualSource source = new ManualSource();
+        AssertSubscriber<String> frames = new TokenCoalescer(FlushPolicy.WORD, LONG, 256)
+                .coalesce(source.multi()).subscribe().withSubscriber(AssertSubscriber.create(1));
+
+        assertEquals(1, source.requested.get());
+        source.emit("He");
+        frames.assertItems("He");
+        // The only frame asked for was sent, so no further delta is read
+        assertEquals(1, source.requested.get());
+
+        frames.request(1);
+        assertEquals(2, source.requested.get());
+        source.emit(" codes");
+        source.emit(" daily ");
+        frames.assertItems("He", " codes daily ");
+        assertEquals(3, source.requested.get());
+    }
+
+    private static List<String> coalesce(TokenCoalescer coalescer, String... deltas) {
+        return coalescer.coalesce(Multi.createFrom().items(deltas)).collect().asList().await().atMost(LONG);
+    }
+
+    /**
+     * A delta source driven by the test that records demand
+     */
+    private static final class ManualSource {
+
+        final AtomicLong requested = new AtomicLong();
+        private Flow.Subscriber<? super String> subscriber;
+
+        Multi<String> multi() {
+            return Multi.createFrom().publisher(subscriber -> {
+                this.subscriber = subscriber;
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                        requested.addAndGet(n);
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+            });
+        }
+
+        void emit(String delta) {
+            subscriber.onNext(delta);
+        }
+    }
+}
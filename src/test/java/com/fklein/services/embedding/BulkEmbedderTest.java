@@ -0,0 +1,111 @@
+package com.fklein.services.embedding;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fklein.services.http.MalformedResponseException;
+import com.fklein.services.http.UpstreamStatusException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BulkEmbedderTest {
+
+    @Test
+    void testSubBatchesRespectLimitsAndKeepInputOrder() {
+        List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            texts.add("text " + i);
+        }
+        try (BulkEmbedder embedder = new BulkEmbedder(batch -> {
+            batchSizes.add(batch.size());
+            return lengths(batch);
+        }, 10, 10_000, 4, null, 1, Duration.ZERO)) {
+            List<float[]> vectors = embedder.embedAll(texts);
+
+            assertEquals(25, vectors.size());
+            for (int i = 0; i < texts.size(); i++) {
+                assertEquals(texts.get(i).length(), vectors.get(i)[0]);
+            }
+            assertEquals(List.of(5, 10, 10), batchSizes.stream().sorted().toList());
+        }
+    }
+
+    @Test
+    void testTransientFailuresAreRetried() {
+        AtomicInteger calls = new AtomicInteger();
+        try (BulkEmbedder embedder = new BulkEmbedder(batch -> {
+            switch (calls.incrementAndGet()) {
+                case 1 -> throw new RuntimeException("Failed", new UpstreamStatusException(429, "slow down"));
+                case 2 -> throw new UncheckedIOException(new IOException("connection reset"));
+                default -> {
+                    return lengths(batch);
+                }
+            }
+        }, 10, 10_000, 1, null, 3, Duration.ofMillis(1))) {
+            assertEquals(2f, embedder.embedAll(List.of("ab")).get(0)[0]);
+            assertEquals(3, calls.get());
+        }
+    }
+
+    @Test
+    void testPermanentFailuresFailFast() {
+        AtomicInteger calls = new AtomicInteger();
+        try (BulkEmbedder embedder = new BulkEmbedder(batch -> {
+            calls.incrementAndGet();
+            throw new RuntimeException("Failed", new UpstreamStatusException(401, "invalid api key"));
+        }, 10, 10_000, 1, null, 5, Duration.ofSeconds(1))) {
+            assertThrows(RuntimeException.class, () -> embedder.embedAll(List.of("text")));
+            assertEquals(1, calls.get());
+        }
+    }
+
+    @Test
+    void testTransientClassification() {
+        assertTrue(BulkEmbedder.isTransient(new RuntimeException(new UpstreamStatusException(503, ""))));
+        assertTrue(BulkEmbedder.isTransient(new RuntimeException(new IOException("timeout"))));
+        assertFalse(BulkEmbedder.isTransient(new RuntimeException(new UpstreamStatusException(400, ""))));
+        assertFalse(BulkEmbedder.isTransient(new IllegalStateException("Expected 2 embeddings but got 1")));
+        assertFalse(BulkEmbedder.isTransient(new RuntimeException(
+                new MalformedResponseException("No embeddings in response"))));
+        assertFalse(BulkEmbedder.isTransient(new RuntimeException(new JsonParseException(null, "Unexpected character"))));
+    }
+
+    @Test
+    void testMalformedResponsesAreNotRetried() {
+        AtomicInteger calls = new AtomicInteger();
+        EmbeddingResponseDecoder decoder = new EmbeddingResponseDecoder(new JsonFactory());
+        try (BulkEmbedder embedder = new BulkEmbedder(batch -> {
+            calls.incrementAndGet();
+            try {
+                return decoder.decode(new ByteArrayInputStream("{\"data\": []}".getBytes(StandardCharsets.UTF_8)));
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to generate embeddings", e);
+            }
+        }, 10, 10_000, 1, null, 5, Duration.ofSeconds(1))) {
+            assertThrows(RuntimeException.class, () -> embedder.embedAll(List.of("text")));
+            assertEquals(1, calls.get());
+        }
+    }
+
+    private static List<float[]> lengths(List<String> texts) {
+        List<float[]> vectors = new ArrayList<>();
+        for (String text : texts) {
+            vectors.add(new float[] {text.length()});
+        }
+        return vectors;
+    }
+}
@@ -0,0 +1,48 @@
+package com.fklein.services.embedding;
+
+import com.fklein.services.vector.VectorMath;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class DimensionReductionTest {
+
+    @Test
+    void testTruncateKeepsARenormalizedPrefix() {
+        float[] reduced = DimensionReduction.truncate(new float[]{3, 4, 12, 84}, 2);
+
+        assertArrayEquals(new float[]{0.6f, 0.8f}, reduced, 1e-6f);
+        assertEquals(1.0, VectorMath.norm(reduced), 1e-6);
+    }
+
+    @Test
+    void testShortVectorsAreReturnedAsIs() {
+        float[] vector = {1, 2};
+        assertSame(vector, DimensionReduction.truncate(vector, 2));
+        assertSame(vector, DimensionReduction.truncate(vector, 8));
+    }
+
+    @Test
+    void testRecallAtKOnAKnownFixture() {
+        // The first two components separate two clusters; the third reorders neighbours within them
+        List<float[]> full = List.of(
+                new float[]{1, 0, 0},
+                new float[]{0.95f, 0.05f, 0.3f},
+                new float[]{0.9f, 0.15f, -0.05f},
+                new float[]{0, 1, 0},
+                new float[]{0.05f, 0.95f, 0.3f},
+                new float[]{0.15f, 0.9f, -0.05f});
+        List<float[]> reduced = full.stream().map(vector -> DimensionReduction.truncate(vector, 2)).toList();
+
+        // Identical vectors find identical neighbours
+        assertEquals(1.0, DimensionReduction.recallAtK(full, full, 2), 1e-9);
+        // Nearest two stay within the cluster either way
+        assertEquals(1.0, DimensionReduction.recallAtK(full, reduced, 2), 1e-9);
+        // Without it, the first and last vector of each cluster pick a different single nearest neighbour
+        assertEquals(2.0 / 6, DimensionReduction.recallAtK(full, reduced, 1), 1e-9);
+    }
+}
@@ -0,0 +1,91 @@
+package com.fklein.services.embedding;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class EmbeddingCacheTest {
+
+    // Per-entry overhead (96) plus four floats, before the key characters
+    private static final long FOUR_FLOAT_ENTRY = 96 + 4 * Float.BYTES;
+
+    @Test
+    void testLeastRecentlyUsedEntryIsEvicted() {
+        // Room for exactly two entries with one-character keys
+        EmbeddingCache cache = new EmbeddingCache(2 * (FOUR_FLOAT_ENTRY + 2), null);
+        cache.put("a", vector(1f));
+        cache.put("b", vector(2f));
+        cache.get("a");
+
+        cache.put("c", vector(3f));
+
+        assertArrayEquals(vector(1f), cache.get("a"));
+        assertNull(cache.get("b"));
+        assertArrayEquals(vector(3f), cache.get("c"));
+        assertEquals(1, cache.stats().evictions());
+    }
+
+    @Test
+    void testByteBoundCountsKeyCharacters() {
+        EmbeddingCache cache = new EmbeddingCache(2 * (FOUR_FLOAT_ENTRY + 2), null);
+        cache.put("a", vector(1f));
+        cache.put("b", vector(2f));
+        assertEquals(2, cache.stats().entries());
+        assertEquals(2 * (FOUR_FLOAT_ENTRY + 2), cache.stats().bytes());
+
+        // Same vector size, but the two-character key is two bytes too many to keep either older entry
+        cache.put("cd", vector(3f));
+        assertEquals(1, cache.stats().entries());
+        assertNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(FOUR_FLOAT_ENTRY + 4, cache.stats().bytes());
+
+        // An entry whose key alone makes it larger than the whole cache is not stored
+        String longKey = "k".repeat(60);
+        cache.put(longKey, vector(4f));
+        assertNull(cache.get(longKey));
+        assertArrayEquals(vector(3f), cache.get("cd"));
+    }
+
+    @Test
+    void testExpiredEntriesMiss() throws InterruptedException {
+        EmbeddingCache cache = new EmbeddingCache(1 << 20, Duration.ofMillis(20));
+        cache.put("query", vector(1f));
+        assertArrayEquals(vector(1f), cache.get("query"));
+
+        Thread.sleep(50);
+        assertNull(cache.get("query"));
+        assertEquals(0, cache.stats().entries());
+        assertEquals(0, cache.stats().bytes());
+    }
+
+    @Test
+    void testNormalizeFoldsWhitespaceAndCase() {
+        assertEquals("where did he study?", EmbeddingCache.normalize("  Where did\the\n  STUDY?  "));
+        // Combining accents compose, so both spellings share a key
+        assertEquals("où a-t-il étudié ?", EmbeddingCache.normalize("OÙ A-T-IL E\u0301TUDIE\u0301 ?"));
+        // Compatibility forms fold too: the fi ligature and full-width letters
+        assertEquals("fine java", EmbeddingCache.normalize("\uFB01ne \uFF2A\uFF41\uFF56\uFF41"));
+    }
+
+    @Test
+    void testVectorsAreCopiedInAndOut() {
+        EmbeddingCache cache = new EmbeddingCache(1 << 20, null);
+        float[] stored = vector(1f);
+        cache.put("query", stored);
+        stored[0] = 42f;
+
+        float[] first = cache.get("query");
+        first[1] = 42f;
+
+        assertArrayEquals(vector(1f), cache.get("query"));
+    }
+
+    private static float[] vector(float value) {
+        return new float[] {value, value, value, value};
+    }
+}
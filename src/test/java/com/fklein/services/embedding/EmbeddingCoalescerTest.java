@@ -0,0 +1,88 @@
+package com.fklein.services.embedding;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class EmbeddingCoalescerTest {
+
+    private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+
+    @Test
+    void testConcurrentCallsShareOneBatchAndDuplicatesAreSentOnce() throws Exception {
+        try (EmbeddingCoalescer coalescer = new EmbeddingCoalescer(this::lengths, Duration.ofMillis(100), 16)) {
+            CompletableFuture<float[]> java = coalescer.submit("java");
+            CompletableFuture<float[]> quarkus = coalescer.submit("quarkus");
+            CompletableFuture<float[]> again = coalescer.submit("java");
+
+            assertSame(java, again);
+            assertEquals(4f, java.get(5, TimeUnit.SECONDS)[0]);
+            assertEquals(7f, quarkus.get(5, TimeUnit.SECONDS)[0]);
+            assertEquals(List.of(List.of("java", "quarkus")), batches);
+        }
+    }
+
+    @Test
+    void testFullBatchIsSentWithoutWaiting() throws Exception {
+        try (EmbeddingCoalescer coalescer = new EmbeddingCoalescer(this::lengths, Duration.ofMinutes(10), 3)) {
+            List<CompletableFuture<float[]>> futures = new ArrayList<>();
+            for (String text : List.of("a", "bb", "ccc", "dddd")) {
+                futures.add(coalescer.submit(text));
+            }
+            for (int i = 0; i < 3; i++) {
+                assertEquals(i + 1f, futures.get(i).get(5, TimeUnit.SECONDS)[0]);
+            }
+            assertEquals(List.of(List.of("a", "bb", "ccc")), batches);
+            // The fourth text waits for the next batch or the window
+            assertFalse(futures.get(3).isDone());
+        }
+    }
+
+    @Test
+    void testBatchFailureReachesEveryCaller() {
+        RuntimeException failure = new RuntimeException("OpenAI API error: 500");
+        try (EmbeddingCoalescer coalescer = new EmbeddingCoalescer(texts -> {
+            throw failure;
+        }, Duration.ofMillis(20), 16)) {
+            CompletableFuture<float[]> first = coalescer.submit("first");
+            CompletableFuture<float[]> second = coalescer.submit("second");
+
+            assertSame(failure, assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS)).getCause());
+            assertSame(failure, assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS)).getCause());
+        }
+    }
+
+    @Test
+    void testShortResponseFailsTheBatch() {
+        try (EmbeddingCoalescer coalescer = new EmbeddingCoalescer(texts -> List.of(new float[1]),
+                Duration.ofMinutes(10), 2)) {
+            CompletableFuture<float[]> first = coalescer.submit("first");
+            CompletableFuture<float[]> second = coalescer.submit("second");
+
+            ExecutionException error = assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+            assertEquals(IllegalStateException.class, error.getCause().getClass());
+            assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    // One-dimensional "embedding": the text length
+    private List<float[]> lengths(List<String> texts) {
+        batches.add(List.copyOf(texts));
+        List<float[]> vectors = new ArrayList<>();
+        for (String text : texts) {
+            vectors.add(new float[] {text.length()});
+        }
+        return vectors;
+    }
+}
@@ -0,0 +1,110 @@
+package com.fklein.services.embedding;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EmbeddingResponseDecoderTest {
+
+    private final EmbeddingResponseDecoder decoder = new EmbeddingResponseDecoder(new JsonFactory());
+
+    @Test
+    void testVectorsAreOrderedByIndex() throws IOException {
+        List<float[]> vectors = decode("""
+                {"object": "list",
+                 "data": [
+                   {"object": "embedding", "embedding": [0.5, -1, 2.25], "index": 2},
+                   {"index": 0, "object": "embedding", "embedding": [1, 0, 0]},
+                   {"embedding": [0, 1.5e-3, 0], "index": 1}
+                 ],
+                 "model": "voyage-3",
+                 "usage": {"total_tokens": 12}}
+                """);
+
+        assertEquals(3, vectors.size());
+        assertArrayEquals(new float[]{1, 0, 0}, vectors.get(0));
+        assertArrayEquals(new float[]{0, 1.5e-3f, 0}, vectors.get(1));
+        assertArrayEquals(new float[]{0.5f, -1, 2.25f}, vectors.get(2));
+    }
+
+    @Test
+    void testFieldsAroundDataAreSkippedInAnyOrder() throws IOException {
+        List<float[]> vectors = decode("""
+                {"usage": {"prompt_tokens": 4, "total_tokens": 4},
+                 "model": "text-embedding-3-small",
+                 "data": [{"embedding": [0.25, 0.75]}, {"embedding": [1, -1]}],
+                 "object": "list"}
+                """);
+
+        assertEquals(2, vectors.size());
+        assertArrayEquals(new float[]{0.25f, 0.75f}, vectors.get(0));
+        assertArrayEquals(new float[]{1, -1}, vectors.get(1));
+    }
+
+    @Test
+    void testVectorsLongerThanTheInitialGuessAreGrown() throws IOException {
+        StringBuilder json = new StringBuilder("{\"data\": [{\"embedding\": [");
+        for (int i = 0; i < 3000; i++) {
+            json.append(i == 0 ? "" : ",").append(i);
+        }
+        json.append("]}]}");
+
+        float[] vector = decode(json.toString()).get(0);
+        assertEquals(3000, vector.length);
+        assertEquals(2999f, vector[2999]);
+    }
+
+    @Test
+    void testErrorBodyIsRejected() {
+        IOException failure = assertThrows(IOException.class, () -> decode("""
+                {"error": {"message": "Rate limit exceeded", "type": "rate_limit_error"}}
+                """));
+        assertTrue(failure.getMessage().contains("No embeddings"), failure.getMessage());
+    }
+
+    @Test
+    void testMissingIndexesAreRejected() {
+        assertThrows(IOException.class, () -> decode("""
+                {"data": [{"embedding": [1, 0], "index": 0}, {"embedding": [0, 1], "index": 2}]}
+                """));
+        assertThrows(IOException.class, () -> decode("""
+                {"data": [{"index": 0}]}
+                """));
+    }
+
+    @Test
+    void testOutOfRangeAndDuplicateIndexesAreRejected() {
+        IOException negative = assertThrows(IOException.class, () -> decode("""
+                {"data": [{"embedding": [1, 0], "index": -1}]}
+                """));
+        assertTrue(negative.getMessage().contains("outside"), negative.getMessage());
+        assertThrows(IOException.class, () -> decode("""
+                {"data": [{"embedding": [1, 0], "index": 1000000}]}
+                """));
+        IOException duplicate = assertThrows(IOException.class, () -> decode("""
+                {"data": [{"embedding": [1, 0], "index": 0}, {"embedding": [0, 1], "index": 0}]}
+                """));
+        assertTrue(duplicate.getMessage().contains("Duplicate"), duplicate.getMessage());
+    }
+
+    @Test
+    void testMismatchedDimensionsAreRejected() {
+        IOException failure = assertThrows(IOException.class, () -> decode("""
+                {"data": [{"embedding": [1, 0, 0], "index": 0}, {"embedding": [0, 1], "index": 1}]}
+                """));
+        assertTrue(failure.getMessage().contains("dimension"), failure.getMessage());
+    }
+
+    private List<float[]> decode(String json) throws IOException {
+        return decoder.decode(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+}
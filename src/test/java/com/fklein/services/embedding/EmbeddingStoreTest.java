@@ -0,0 +1,173 @@
+package com.fklein.services.embedding;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class EmbeddingStoreTest {
+
+    // Header, then per record: key, dimension, floats, CRC; a tombstone has no floats
+    private static final int HEADER_BYTES = 8;
+    private static final int RECORD_BYTES = 32 + 4 + 3 * 4 + 4;
+    private static final int TOMBSTONE_BYTES = 32 + 4 + 4;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testRecordsSurviveReopenAndDuplicatesAreSkipped() throws IOException {
+        Path file = dir.resolve("embeddings.log");
+        String first = EmbeddingStore.key("model-a", "Java");
+        String second = EmbeddingStore.key("model-a", "Quarkus");
+        assertNotEquals(EmbeddingStore.key("model-b", "Java"), first);
+
+        try (EmbeddingStore store = EmbeddingStore.open(file)) {
+            store.putAll(entries(first, 1f, 2f, 3f));
+            store.putAll(entries(first, 9f, 9f, 9f, second, 4f, 5f, 6f));
+            assertEquals(2, store.size());
+        }
+        assertEquals(HEADER_BYTES + 2 * RECORD_BYTES, Files.size(file));
+
+        try (EmbeddingStore reopened = EmbeddingStore.open(file)) {
+            assertEquals(2, reopened.size());
+            assertArrayEquals(new float[] {1f, 2f, 3f}, reopened.get(first));
+            assertArrayEquals(new float[] {4f, 5f, 6f}, reopened.get(second));
+            assertNull(reopened.get(EmbeddingStore.key("model-a", "Kotlin")));
+        }
+    }
+
+    @Test
+    void testTornTailIsTruncatedToLastGoodRecord() throws IOException {
+        Path file = dir.resolve("embeddings.log");
+        String first = EmbeddingStore.key("model", "first");
+        String second = EmbeddingStore.key("model", "second");
+        try (EmbeddingStore store = EmbeddingStore.open(file)) {
+            store.putAll(entries(first, 1f, 2f, 3f, second, 4f, 5f, 6f));
+        }
+        // Crash in the middle of the second record
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(HEADER_BYTES + RECORD_BYTES + 10);
+        }
+
+        try (EmbeddingStore recovered = EmbeddingStore.open(file)) {
+            assertEquals(1, recovered.size());
+            assertArrayEquals(new float[] {1f, 2f, 3f}, recovered.get(first));
+            assertNull(recovered.get(second));
+            recovered.putAll(entries(second, 7f, 8f, 9f));
+        }
+        assertEquals(HEADER_BYTES + 2 * RECORD_BYTES, Files.size(file));
+        try (EmbeddingStore reopened = EmbeddingStore.open(file)) {
+            assertArrayEquals(new float[] {7f, 8f, 9f}, reopened.get(second));
+        }
+    }
+
+    @Test
+    void testCorruptRecordFailsItsChecksum() throws IOException {
+        Path file = dir.resolve("embeddings.log");
+        String first = EmbeddingStore.key("model", "first");
+        String second = EmbeddingStore.key("model", "second");
+        try (EmbeddingStore store = EmbeddingStore.open(file)) {
+            store.putAll(entries(first, 1f, 2f, 3f, second, 4f, 5f, 6f));
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[HEADER_BYTES + RECORD_BYTES + 40] ^= 0x01;
+        Files.write(file, bytes);
+
+        try (EmbeddingStore recovered = EmbeddingStore.open(file)) {
+            assertEquals(1, recovered.size());
+            assertNull(recovered.get(second));
+        }
+        assertEquals(HEADER_BYTES + RECORD_BYTES, Files.size(file));
+    }
+
+    @Test
+    void testRetiredKeysAreCompactedAwayOnOpen() throws IOException {
+        Path file = dir.resolve("embeddings.log");
+        String kept = EmbeddingStore.key("model", "kept");
+        String edited = EmbeddingStore.key("model", "edited");
+        String removed = EmbeddingStore.key("model", "removed");
+        try (EmbeddingStore store = EmbeddingStore.open(file)) {
+            store.putAll(entries(kept, 1f, 2f, 3f, edited, 4f, 5f, 6f, removed, 7f, 8f, 9f));
+            store.retainOnly(List.of(kept));
+            assertEquals(1, store.size());
+            assertNull(store.get(edited));
+            assertEquals(2 * (RECORD_BYTES + TOMBSTONE_BYTES), store.deadBytes());
+        }
+        assertEquals(HEADER_BYTES + 3 * RECORD_BYTES + 2 * TOMBSTONE_BYTES, Files.size(file));
+
+        // Dead records are most of the file, so opening rewrites it with the live one only
+        try (EmbeddingStore reopened = EmbeddingStore.open(file)) {
+            assertEquals(1, reopened.size());
+            assertEquals(0, reopened.deadBytes());
+            assertArrayEquals(new float[] {1f, 2f, 3f}, reopened.get(kept));
+            assertNull(reopened.get(removed));
+        }
+        assertEquals(HEADER_BYTES + RECORD_BYTES, Files.size(file));
+    }
+
+    @Test
+    void testRetirementSurvivesReopenBelowTheCompactionRatio() throws IOException {
+        Path file = dir.resolve("embeddings.log");
+        List<String> keys = new ArrayList<>();
+        Map<String, float[]> records = new LinkedHashMap<>();
+        for (int i = 0; i < 10; i++) {
+            keys.add(EmbeddingStore.key("model", "text-" + i));
+            records.put(keys.get(i), new float[] {i, i, i});
+        }
+        try (EmbeddingStore store = EmbeddingStore.open(file)) {
+            store.putAll(records);
+            store.retainOnly(keys.subList(1, keys.size()));
+        }
+        long size = Files.size(file);
+
+        try (EmbeddingStore reopened = EmbeddingStore.open(file)) {
+            assertEquals(size, Files.size(file));
+            assertEquals(9, reopened.size());
+            assertEquals(RECORD_BYTES + TOMBSTONE_BYTES, reopened.deadBytes());
+            assertNull(reopened.get(keys.get(0)));
+            assertArrayEquals(new float[] {9f, 9f, 9f}, reopened.get(keys.get(9)));
+
+            // A retired text that comes back is stored again
+            reopened.putAll(entries(keys.get(0), 1f, 1f, 1f));
+        }
+        try (EmbeddingStore reopened = EmbeddingStore.open(file)) {
+            assertArrayEquals(new float[] {1f, 1f, 1f}, reopened.get(keys.get(0)));
+        }
+    }
+
+    @Test
+    void testForeignFileIsRejected() throws IOException {
+        Path file = dir.resolve("not-a-store.log");
+        Files.write(file, new byte[64]);
+        assertThrows(IOException.class, () -> EmbeddingStore.open(file));
+    }
+
+    private static Map<String, float[]> entries(Object... keysAndValues) {
+        Map<String, float[]> entries = new LinkedHashMap<>();
+        int i = 0;
+        while (i < keysAndValues.length) {
+            String key = (String) keysAndValues[i++];
+            float[] vector = new float[3];
+            for (int d = 0; d < vector.length; d++) {
+                vector[d] = (Float) keysAndValues[i++];
+            }
+            entries.put(key, vector);
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,59 @@
+package com.fklein.services.embedding;
+
+import com.fklein.services.vector.VectorMath;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LocalEmbeddingModelTest {
+
+    @Test
+    void testEmbeddingsAreDeterministicUnitVectors() {
+        LocalEmbeddingModel model = new LocalEmbeddingModel(256);
+        String text = "Compétences: Java, Quarkus, Kubernetes et architecture cloud";
+
+        float[] first = model.embed(text);
+        float[] second = new LocalEmbeddingModel(256).embed(text);
+
+        assertEquals(256, first.length);
+        assertArrayEquals(first, second);
+        assertEquals(1.0, VectorMath.norm(first), 1e-5);
+    }
+
+    @Test
+    void testSharedWordsAreCloserThanUnrelatedText() {
+        LocalEmbeddingModel model = new LocalEmbeddingModel(512);
+        float[] query = model.embed("Quelle expérience avec Kubernetes ?");
+        float[] related = model.embed("Expérience: déploiement de microservices sur Kubernetes");
+        float[] unrelated = model.embed("Langues: français, anglais, espagnol");
+
+        assertTrue(dot(query, related) > dot(query, unrelated));
+    }
+
+    @Test
+    void testStopWordOnlyQueriesStillEmbed() {
+        LocalEmbeddingModel model = new LocalEmbeddingModel(256);
+        float[] whoAreYou = model.embed("Who are you?");
+        float[] whatIsIt = model.embed("What is it?");
+
+        assertEquals(1.0, VectorMath.norm(whoAreYou), 1e-5);
+        assertEquals(1.0, VectorMath.norm(whatIsIt), 1e-5);
+        assertTrue(dot(whoAreYou, model.embed("who are you")) > dot(whoAreYou, whatIsIt));
+    }
+
+    @Test
+    void testRejectsDegenerateDimension() {
+        assertThrows(IllegalArgumentException.class, () -> new LocalEmbeddingModel(1));
+    }
+
+    private static float dot(float[] a, float[] b) {
+        float sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
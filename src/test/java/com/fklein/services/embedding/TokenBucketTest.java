@@ -0,0 +1,49 @@
+package com.fklein.services.embedding;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketTest {
+
+    @Test
+    void testFullBucketIsServedImmediately() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1_000, Duration.ofSeconds(1));
+        long start = System.nanoTime();
+        bucket.acquire(600);
+        bucket.acquire(400);
+        assertTrue(millisSince(start) < 100);
+    }
+
+    @Test
+    void testEmptyBucketWaitsForRefill() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1_000, Duration.ofMillis(500));
+        bucket.acquire(1_000);
+        long start = System.nanoTime();
+        // Half the capacity refills in half the period
+        bucket.acquire(500);
+        long waited = millisSince(start);
+        assertTrue(waited >= 200 && waited < 1_000, "waited " + waited + " ms");
+    }
+
+    @Test
+    void testOversizedRequestTakesTheWholeBucket() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(100, Duration.ofSeconds(1));
+        long start = System.nanoTime();
+        bucket.acquire(1_000_000);
+        assertTrue(millisSince(start) < 100);
+    }
+
+    @Test
+    void testRejectsInvalidLimits() {
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(0, Duration.ofSeconds(1)));
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(10, Duration.ZERO));
+    }
+
+    private static long millisSince(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+}
@@ -0,0 +1,59 @@
+package com.fklein.services.http;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JsonFieldExtractorTest {
+
+    private final JsonFactory factory = new JsonFactory();
+
+    @Test
+    void testExtractsOnlyRequestedFields() throws Exception {
+        JsonFieldExtractor extractor = new JsonFieldExtractor(factory,
+                "choices.0.delta.content", "choices.0.finish_reason", "usage.total_tokens");
+        String[] fields = extractor.extract("{\"id\":\"x\",\"choices\":[{\"index\":0,\"delta\":{\"role\":\"assistant\","
+                + "\"content\":\"Bon\"},\"finish_reason\":null},{\"delta\":{\"content\":\"other\"}}],"
+                + "\"usage\":{\"total_tokens\":42}}");
+
+        assertArrayEquals(new String[]{"Bon", null, "42"}, fields);
+    }
+
+    @Test
+    void testArrayIndexesMustMatch() throws Exception {
+        JsonFieldExtractor extractor = new JsonFieldExtractor(factory,
+                "choices.1.text", "choices.2.text", "choices.text");
+        String[] fields = extractor.extract("{\"choices\":[{\"text\":\"first\"},{\"text\":\"second\"}]}");
+
+        // Index 2 is past the end, and a name segment does not match an array element
+        assertArrayEquals(new String[]{"second", null, null}, fields);
+    }
+
+    @Test
+    void testUnrequestedSubtreesAreSkipped() throws Exception {
+        JsonFieldExtractor extractor = new JsonFieldExtractor(factory, "delta.text", "type");
+        String[] fields = extractor.extract("{\"message\":{\"delta\":{\"text\":\"nested elsewhere\"},"
+                + "\"content\":[[1,2,{\"type\":\"deep\"}],{\"text\":null}]},"
+                + "\"type\":\"content_block_delta\",\"delta\":{\"type\":\"text_delta\",\"text\":\"Hi\"}}");
+
+        assertArrayEquals(new String[]{"Hi", "content_block_delta"}, fields);
+    }
+
+    @Test
+    void testPathsUpToTheDepthLimitAreExtracted() throws Exception {
+        int segments = JsonFieldExtractor.MAX_DEPTH - 1;
+        String path = String.join(".", Collections.nCopies(segments, "a"));
+        String json = "{\"a\":".repeat(segments) + "\"leaf\"" + "}".repeat(segments);
+        assertArrayEquals(new String[]{"leaf"}, new JsonFieldExtractor(factory, path).extract(json));
+
+        // Documents nested past the limit are fine as long as the requested paths end above it
+        String deep = "{\"a\":".repeat(40) + "1" + "}".repeat(40);
+        assertArrayEquals(new String[]{null}, new JsonFieldExtractor(factory, path).extract(deep));
+
+        assertThrows(IllegalArgumentException.class, () -> new JsonFieldExtractor(factory, path + ".a"));
+    }
+}
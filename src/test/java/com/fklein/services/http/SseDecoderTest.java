@@ -0,0 +1,31 @@
+package com.fklein.services.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SseDecoderTest {
+
+    @Test
+    void testDecodesEventsSplitAcrossChunks() {
+        byte[] stream = (": keep-alive\r\n"
+                + "event: delta\r\ndata: {\"a\":1}\r\n\r\n"
+                + "data: first\ndata: second\n\n"
+                + "data:élan\r\r"
+                + "data: dropped").getBytes(StandardCharsets.UTF_8);
+
+        List<String> events = new ArrayList<>();
+        SseDecoder decoder = new SseDecoder((type, data) -> events.add(type + "|" + data));
+        // One byte at a time exercises CRLF and UTF-8 sequences split between chunks
+        for (byte b : stream) {
+            decoder.feed(new byte[]{b}, 0, 1);
+        }
+        decoder.finish();
+
+        assertEquals(List.of("delta|{\"a\":1}", "message|first\nsecond", "message|élan"), events);
+    }
+}
@@ -0,0 +1,67 @@
+package com.fklein.services.lexical;
+
+import com.fklein.services.vector.TopK;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class Bm25IndexTest {
+
+    @Test
+    void testTokenizerFoldsAccentsAndDropsStopWords() {
+        assertEquals(List.of("experience", "professionnelle", "chez", "entreprise"),
+                Tokenizer.tokenize("Les expériences professionnelles chez l'entreprise"));
+    }
+
+    @Test
+    void testRanksMatchingContentFirst() {
+        Bm25Index index = new Bm25Index();
+        index.add(0, "Formation: Master en informatique");
+        index.add(1, "Compétences: Java, Kubernetes, Spring Boot");
+        index.add(2, "Langues: français, anglais");
+
+        TopK hits = index.search("Quelles compétences en Java ?", 3, null);
+        int[] rows = new int[hits.size()];
+        hits.drainDescending(rows, new float[rows.length]);
+        assertEquals(1, rows.length);
+        assertEquals(1, rows[0]);
+    }
+
+    @Test
+    void testReplacedDocumentsDoNotInflateDocumentFrequency() {
+        Bm25Index replaced = new Bm25Index();
+        replaced.add(0, "Compétences: Java, Spring Boot");
+        replaced.add(1, "Formation: Master en informatique");
+        replaced.add(2, "Projets: microservices Java sur Kubernetes");
+        // Replace the first document a few times, each version under a new row
+        int row = 0;
+        for (int version = 3; version < 8; version++) {
+            replaced.remove(row);
+            row = version;
+            replaced.add(row, "Compétences: Java, Spring Boot");
+        }
+
+        Bm25Index fresh = new Bm25Index();
+        fresh.add(row, "Compétences: Java, Spring Boot");
+        fresh.add(1, "Formation: Master en informatique");
+        fresh.add(2, "Projets: microservices Java sur Kubernetes");
+
+        int[] replacedRows = new int[3];
+        float[] replacedScores = new float[3];
+        int count = replaced.search("Java Spring", 3, null).drainDescending(replacedRows, replacedScores);
+        int[] freshRows = new int[3];
+        float[] freshScores = new float[3];
+        assertEquals(count, fresh.search("Java Spring", 3, null).drainDescending(freshRows, freshScores));
+
+        assertEquals(2, count);
+        assertArrayEquals(freshRows, replacedRows);
+        assertArrayEquals(freshScores, replacedScores, 1e-6f);
+        for (int i = 0; i < count; i++) {
+            assertTrue(replacedScores[i] > 0, "score of row " + replacedRows[i]);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.fklein.services.llm;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.helpers.test.AssertSubscriber;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LlmRouterTest {
+
+    private static final Prompt PROMPT = Prompt.of("You are a CV assistant.", "Where did he study?");
+
+    @Test
+    void testHedgeFiresAfterTheDelayAndTheLoserIsCancelled() {
+        FakeProvider primary = new FakeProvider("openai");
+        FakeProvider backup = new FakeProvider("claude");
+        LlmRouter router = router(Duration.ofMillis(150), primary, backup);
+
+        long start = System.nanoTime();
+        AssertSubscriber<String> answer = router.streamChatCompletion(PROMPT).subscribe()
+                .withSubscriber(AssertSubscriber.create(Long.MAX_VALUE));
+        assertEquals(1, primary.calls.get());
+        assertEquals(0, backup.calls.get());
+
+        // Without latency samples the hedge waits max-delay
+        await(() -> backup.calls.get() == 1);
+        assertTrue((System.nanoTime() - start) / 1_000_000 >= 150);
+
+        backup.emit("He studied ");
+        backup.emit("in Paris.");
+        backup.complete();
+        answer.assertCompleted().assertItems("He studied ", "in Paris.");
+        assertTrue(primary.cancelled);
+        assertEquals(new LlmRouter.Stats(1, 1, 1, 0), router.stats());
+    }
+
+    @Test
+    void testHedgeDelayFollowsTheLatencyPercentile() {
+        FakeProvider primary = new FakeProvider("openai");
+        FakeProvider backup = new FakeProvider("claude");
+        LlmRouter router = router(Duration.ofSeconds(4), primary, backup);
+        assertEquals(Duration.ofSeconds(4), router.hedgeDelay(primary));
+
+        for (int i = 0; i < 3; i++) {
+            AssertSubscriber<String> answer = router.streamChatCompletion(PROMPT).subscribe()
+                    .withSubscriber(AssertSubscriber.create(Long.MAX_VALUE));
+            primary.emit("token");
+            primary.complete();
+            answer.assertCompleted();
+        }
+
+        // Near-instant first tokens clamp the delay to min-delay
+        assertEquals(Duration.ofMillis(50), router.hedgeDelay(primary));
+        assertEquals(0, backup.calls.get());
+    }
+
+    @Test
+    void testOnlyTheOutwaitedLoserRecordsALatencySample() {
+        FakeProvider primary = new FakeProvider("openai");
+        FakeProvider backup = new FakeProvider("claude");
+        LlmRouter router = router(Duration.ofMillis(100), primary, backup);
+        router.hedgeMinSamples = 1;
+
+        AssertSubscriber<String> answer = router.streamChatCompletion(PROMPT).subscribe()
+                .withSubscriber(AssertSubscriber.create(Long.MAX_VALUE));
+        await(() -> backup.calls.get() == 1);
+        // The primary answers right after the hedge: the backup had no chance, so it gets no sample
+        primary.emit("answer");
+        primary.complete();
+        answer.assertCompleted();
+        assertTrue(backup.cancelled);
+        assertEquals(Duration.ofMillis(100), router.hedgeDelay(backup));
+
+        answer = router.streamChatCompletion(PROMPT).subscribe()
+                .withSubscriber(AssertSubscriber.create(Long.MAX_VALUE));
+        await(() -> backup.calls.get() == 2);
+        // Now the hedge wins: the primary outlasted its delay, so it records at least that much
+        backup.emit("answer");
+        backup.complete();
+        answer.assertCompleted();
+        assertEquals(Duration.ofMillis(100), router.hedgeDelay(primary));
+        assertEquals(new LlmRouter.Stats(2, 2, 1, 0), router.stats());
+    }
+
+    @Test
+    void testFailureBeforeFirstTokenFailsOverImmediately() {
+        FakeProvider primary = new FakeProvider("openai");
+        FakeProvider backup = new FakeProvider("claude");
+        LlmRouter router = router(Duration.ofSeconds(30), primary, backup);
+
+        AssertSubscriber<String> answer = router.streamChatCompletion(PROMPT).subscribe()
+                .withSubscriber(AssertSubscriber.create(Long.MAX_VALUE));
+        primary.fail(new RuntimeException("OpenAI API error: 503 - unavailable"));
+
+        assertEquals(1, backup.calls.get());
+        backup.emit("answer");
+        backup.complete();
+        answer.assertCompleted().assertItems("answer");
+        assertEquals(1, router.stats().failovers());
+    }
+
+    @Test
+    void testFailureAfterFirstTokenIsPassedOn() {
+        FakeProvider primary = new FakeProvider("openai");
+        FakeProvider backup = new FakeProvider("claude");
+        LlmRouter router = router(Duration.ofSeconds(30), primary, backup);
+
+        AssertSubscriber<String> answer = router.streamChatCompletion(PROMPT).subscribe()
+                .withSubscriber(AssertSubscriber.create(Long.MAX_VALUE));
+        primary.emit("He studied ");
+        primary.fail(new RuntimeException("connection reset"));
+
+        answer.assertFailedWith(RuntimeException.class, "connection reset").assertItems("He studied ");
+        assertEquals(0, backup.calls.get());
+        assertEquals(0, router.stats().failovers());
+    }
+
+    @Test
+    void testLastProviderFailureReachesTheSubscriber() {
+        FakeProvider only = new FakeProvider("claude");
+        LlmRouter router = router(Duration.ofSeconds(30), only);
+
+        AssertSubscriber<String> answer = router.streamChatCompletion(PROMPT).subscribe()
+                .withSubscriber(AssertSubscriber.create(1));
+        only.fail(new RuntimeException("Claude API error: 401 - invalid x-api-key"));
+
+        answer.assertFailedWith(RuntimeException.class, "401");
+    }
+
+    @Test
+    void testDemandIsForwardedToTheWinner() {
+        FakeProvider primary = new FakeProvider("openai");
+        FakeProvider backup = new FakeProvider("claude");
+        LlmRouter router = router(Duration.ofSeconds(30), primary, backup);
+
+        AssertSubscriber<String> answer = router.streamChatCompletion(PROMPT).subscribe()
+                .withSubscriber(AssertSubscriber.create(0));
+        // Nothing is sent before the first request
+        assertEquals(0, primary.calls.get());
+
+        answer.request(3);
+        // Before a winner is known an attempt is asked for one token only
+        assertEquals(1, primary.requested.get());
+        primary.emit("a");
+        assertEquals(3, primary.requested.get());
+
+        answer.request(5);
+        assertEquals(8, primary.requested.get());
+        answer.cancel();
+        assertTrue(primary.cancelled);
+        assertFalse(backup.cancelled);
+    }
+
+    private static LlmRouter router(Duration maxDelay, LlmProvider... providers) {
+        LlmRouter router = new LlmRouter();
+        router.providerNames = Arrays.stream(providers).map(LlmProvider::name).toList();
+        router.hedgeEnabled = true;
+        router.hedgePercentile = 0.95;
+        router.hedgeMinDelay = Duration.ofMillis(50);
+        router.hedgeMaxDelay = maxDelay;
+        router.hedgeWindow = 10;
+        router.hedgeMinSamples = 3;
+        router.configure(List.of(providers));
+        return router;
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Condition not met within 5 s");
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * A provider whose stream is driven by the test; every call replaces the current stream
+     */
+    private static final class FakeProvider implements LlmProvider {
+
+        final String name;
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicLong requested = new AtomicLong();
+        volatile boolean cancelled;
+        private volatile Flow.Subscriber<? super String> subscriber;
+
+        FakeProvider(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public boolean isConfigured() {
+            return true;
+        }
+
+        @Override
+        public Multi<String> streamChatCompletion(Prompt prompt) {
+            return Multi.createFrom().publisher(subscriber -> {
+                calls.incrementAndGet();
+                requested.set(0);
+                cancelled = false;
+                this.subscriber = subscriber;
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                        requested.addAndGet(n);
+                    }
+
+                    @Override
+                    public void cancel() {
+                        cancelled = true;
+                    }
+                });
+            });
+        }
+
+        @Override
+        public TokenUsage usageTotals() {
+            return new TokenUsage(0, 0, 0, 0);
+        }
+
+        void emit(String token) {
+            subscriber.onNext(token);
+        }
+
+        void complete() {
+            subscriber.onComplete();
+        }
+
+        void fail(Throwable failure) {
+            subscriber.onError(failure);
+        }
+    }
+}
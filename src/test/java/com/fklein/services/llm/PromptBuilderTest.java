@@ -0,0 +1,43 @@
+package com.fklein.services.llm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PromptBuilderTest {
+
+    @Test
+    void testStablePartsFormOneBreakpointBlockBeforeTheVariableOnes() {
+        Prompt prompt = new PromptBuilder()
+                .stable("persona")
+                .stable("instructions")
+                .variable("context 1")
+                .variable("context 2")
+                .build("question");
+
+        assertEquals(List.of(
+                new Prompt.Block("persona\n\ninstructions", true),
+                new Prompt.Block("context 1", false),
+                new Prompt.Block("context 2", false)), prompt.system());
+        assertEquals("question", prompt.user());
+        assertEquals("persona\n\ninstructions\n\ncontext 1\n\ncontext 2", prompt.systemText());
+    }
+
+    @Test
+    void testOnlyTheStablePrefixIsABreakpoint() {
+        assertEquals(1, new PromptBuilder().stable("a").stable("b").stable("c").build("q").system().stream()
+                .filter(Prompt.Block::cacheBreakpoint).count());
+        // Without stable parts there is no prefix to cache
+        assertEquals(List.of(new Prompt.Block("context", false)),
+                new PromptBuilder().variable("context").build("q").system());
+    }
+
+    @Test
+    void testStablePartAfterAVariableOneIsRejected() {
+        PromptBuilder builder = new PromptBuilder().stable("persona").variable("context");
+        assertThrows(IllegalStateException.class, () -> builder.stable("instructions"));
+    }
+}
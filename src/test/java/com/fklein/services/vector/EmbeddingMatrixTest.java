@@ -0,0 +1,119 @@
+package com.fklein.services.vector;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EmbeddingMatrixTest {
+
+    @Test
+    void testRemoveTombstonesWithoutRenumbering() {
+        EmbeddingMatrix matrix = matrix("a", "b", "c");
+
+        assertEquals(1, matrix.remove("b"));
+        assertEquals(-1, matrix.remove("b"));
+
+        assertFalse(matrix.isLive(1));
+        assertEquals(-1, matrix.rowOf("b"));
+        assertEquals(2, matrix.rowOf("c"));
+        assertEquals(2, matrix.size());
+        assertEquals(3, matrix.rowCount());
+        assertEquals(1, matrix.deletedCount());
+    }
+
+    @Test
+    void testReplacingAnIdTombstonesItsPreviousRow() {
+        EmbeddingMatrix matrix = matrix("a", "b");
+
+        assertEquals(2, matrix.add("a", "new a", Map.of(), new float[]{0, 0, 1}));
+
+        assertFalse(matrix.isLive(0));
+        assertEquals(2, matrix.rowOf("a"));
+        assertEquals("new a", matrix.content(2));
+        assertEquals(2, matrix.size());
+    }
+
+    @Test
+    void testCompactRenumbersLiveRowsDensely() {
+        EmbeddingMatrix matrix = matrix("a", "b", "c", "d");
+        matrix.remove("a");
+        matrix.remove("c");
+
+        matrix.compact();
+
+        assertEquals(2, matrix.rowCount());
+        assertEquals(0, matrix.deletedCount());
+        assertEquals(0, matrix.rowOf("b"));
+        assertEquals(1, matrix.rowOf("d"));
+        for (int row = 0; row < matrix.rowCount(); row++) {
+            String id = matrix.id(row);
+            assertTrue(matrix.isLive(row));
+            assertEquals("content " + id, matrix.content(row));
+            assertEquals(Map.of("id", id), matrix.metadata(row));
+            assertArrayEquals(embeddingOf(id), matrix.embedding(row));
+        }
+        // The block itself is packed: row r starts at r * dimension
+        assertArrayEquals(new float[]{0, 1, 0, 0, 0, 1}, Arrays.copyOf(matrix.data(), 6));
+    }
+
+    @Test
+    void testCopyIsIndependent() {
+        EmbeddingMatrix original = matrix("a", "b");
+        EmbeddingMatrix copy = original.copy();
+
+        copy.remove("a");
+        copy.add("c", "content c", Map.of("id", "c"), embeddingOf("c"));
+        copy.compact();
+        original.add("d", "content d", Map.of("id", "d"), embeddingOf("d"));
+
+        assertEquals(0, original.rowOf("a"));
+        assertEquals(-1, original.rowOf("c"));
+        assertEquals(3, original.size());
+        assertArrayEquals(embeddingOf("a"), original.embedding(0));
+        assertEquals(-1, copy.rowOf("a"));
+        assertEquals(-1, copy.rowOf("d"));
+        assertEquals(0, copy.rowOf("b"));
+        assertEquals(2, copy.size());
+        assertArrayEquals(embeddingOf("b"), copy.embedding(0));
+        assertArrayEquals(embeddingOf("c"), copy.embedding(1));
+    }
+
+    @Test
+    void testRejectsMismatchedDimension() {
+        EmbeddingMatrix matrix = matrix("a");
+        assertThrows(IllegalArgumentException.class,
+                () -> matrix.add("b", "content b", Map.of(), new float[]{1, 0}));
+    }
+
+    @Test
+    void testGrowthIsCappedInsteadOfOverflowing() {
+        // 1536 dims: doubling past 1,048,576 rows would overflow capacity * dimension
+        int maxRows = Integer.MAX_VALUE / 1536;
+        assertEquals(32, EmbeddingMatrix.grownCapacity(16, 17, 1536));
+        assertEquals(maxRows, EmbeddingMatrix.grownCapacity(1 << 20, (1 << 20) + 1, 1536));
+        IllegalStateException full = assertThrows(IllegalStateException.class,
+                () -> EmbeddingMatrix.grownCapacity(maxRows, maxRows + 1, 1536));
+        assertTrue(full.getMessage().contains(maxRows + " rows x 1536 dims"));
+    }
+
+    private static EmbeddingMatrix matrix(String... ids) {
+        EmbeddingMatrix matrix = new EmbeddingMatrix();
+        for (String id : ids) {
+            matrix.add(id, "content " + id, Map.of("id", id), embeddingOf(id));
+        }
+        return matrix;
+    }
+
+    // Distinct 3-dimensional vectors per single-letter id
+    private static float[] embeddingOf(String id) {
+        int bits = id.charAt(0) - 'a' + 1;
+        return new float[]{bits & 1, (bits >> 1) & 1, (bits >> 2) & 1};
+    }
+}
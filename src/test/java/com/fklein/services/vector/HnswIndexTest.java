@@ -0,0 +1,94 @@
+package com.fklein.services.vector;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Random;
+
+import static com.fklein.services.vector.VectorTestSupport.drain;
+import static com.fklein.services.vector.VectorTestSupport.randomUnitVector;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HnswIndexTest {
+
+    private static final int DIMENSION = 32;
+
+    @Test
+    void testRecallAgainstExactScan() {
+        EmbeddingMatrix matrix = new EmbeddingMatrix();
+        SimilarityKernel kernel = SimilarityKernels.scalar();
+        HnswIndex index = new HnswIndex(matrix, kernel, 16, 200, 64);
+        Random random = new Random(7);
+        for (int i = 0; i < 2000; i++) {
+            add(matrix, index, "chunk-" + i, randomUnitVector(random, DIMENSION));
+        }
+
+        double recall = recallAt10(matrix, index, kernel, random);
+        assertTrue(recall > 0.9, "recall@10 was " + recall);
+    }
+
+    @Test
+    void testRecallHoldsAfterChurn() {
+        EmbeddingMatrix matrix = new EmbeddingMatrix();
+        SimilarityKernel kernel = SimilarityKernels.scalar();
+        HnswIndex index = new HnswIndex(matrix, kernel, 16, 200, 64);
+        Random random = new Random(13);
+        for (int i = 0; i < 2000; i++) {
+            add(matrix, index, "chunk-" + i, randomUnitVector(random, DIMENSION));
+        }
+        for (int i = 0; i < 2000; i += 2) {
+            index.remove(matrix.remove("chunk-" + i));
+        }
+        // Rows inserted among tombstones must still link to live neighbours
+        for (int i = 2000; i < 3000; i++) {
+            add(matrix, index, "chunk-" + i, randomUnitVector(random, DIMENSION));
+        }
+
+        double recall = recallAt10(matrix, index, kernel, random);
+        assertTrue(recall > 0.9, "recall@10 after churn was " + recall);
+    }
+
+    @Test
+    void testRemovedRowsAreNotReturned() {
+        EmbeddingMatrix matrix = new EmbeddingMatrix();
+        HnswIndex index = new HnswIndex(matrix, SimilarityKernels.scalar(), 8, 50, 32);
+        Random random = new Random(11);
+        float[] target = randomUnitVector(random, DIMENSION);
+        add(matrix, index, "target", target);
+        for (int i = 0; i < 200; i++) {
+            add(matrix, index, "chunk-" + i, randomUnitVector(random, DIMENSION));
+        }
+
+        assertEquals(matrix.rowOf("target"), drain(index.search(target, 1))[0]);
+
+        int removed = matrix.remove("target");
+        index.remove(removed);
+        assertNotEquals(removed, drain(index.search(target, 1))[0]);
+    }
+
+    private static double recallAt10(EmbeddingMatrix matrix, HnswIndex index, SimilarityKernel kernel,
+                                     Random random) {
+        int matched = 0;
+        int queries = 50;
+        for (int q = 0; q < queries; q++) {
+            float[] query = randomUnitVector(random, DIMENSION);
+            int[] exact = drain(MatrixScan.topK(matrix, query, 10, kernel, Integer.MAX_VALUE));
+            int[] approximate = drain(index.search(query, 10));
+            for (int hit : exact) {
+                for (int candidate : approximate) {
+                    if (candidate == hit) {
+                        matched++;
+                        break;
+                    }
+                }
+            }
+        }
+        return matched / (queries * 10.0);
+    }
+
+    private static void add(EmbeddingMatrix matrix, HnswIndex index, String id, float[] vector) {
+        index.add(matrix.add(id, "content", Map.of(), vector), vector);
+    }
+}
@@ -0,0 +1,40 @@
+package com.fklein.services.vector;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Random;
+
+import static com.fklein.services.vector.VectorTestSupport.drain;
+import static com.fklein.services.vector.VectorTestSupport.randomUnitVector;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MatrixScanTest {
+
+    private static final int DIMENSION = 64;
+
+    @Test
+    void testBatchMatchesSingleQueryScans() {
+        EmbeddingMatrix matrix = new EmbeddingMatrix();
+        SimilarityKernel kernel = SimilarityKernels.scalar();
+        Random random = new Random(3);
+        for (int i = 0; i < 10000; i++) {
+            matrix.add("chunk-" + i, "content", Map.of(), randomUnitVector(random, DIMENSION));
+        }
+        matrix.remove("chunk-42");
+
+        float[][] queries = new float[20][];
+        for (int q = 0; q < queries.length; q++) {
+            queries[q] = randomUnitVector(random, DIMENSION);
+        }
+
+        // Parallel threshold of 1 forces the fork-join path
+        TopK[] batch = MatrixScan.topKBatch(matrix, queries, 10, kernel, 1);
+        assertEquals(queries.length, batch.length);
+        for (int q = 0; q < queries.length; q++) {
+            int[] expected = drain(MatrixScan.topK(matrix, queries[q], 10, kernel, Integer.MAX_VALUE));
+            assertArrayEquals(expected, drain(batch[q]), "query " + q);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.fklein.services.vector;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetadataIndexTest {
+
+    @Test
+    void testClausesUnionValuesAndIntersectKeys() {
+        MetadataIndex index = new MetadataIndex();
+        index.add(0, Map.of("type", "education"));
+        index.add(1, Map.of("type", "skills", "category", "technical"));
+        index.add(2, Map.of("type", "skills", "category", "soft"));
+        index.add(3, Map.of("type", "certifications", "category", "technical"));
+
+        assertEquals(rows(0, 1, 2), index.candidates(Filter.where("type", "education", "skills")));
+        assertEquals(rows(1, 3), index.candidates(Filter.where("category", "technical")));
+        assertEquals(rows(1), index.candidates(Filter.where("type", "skills").and("category", "technical")));
+        assertTrue(index.candidates(Filter.where("type", "languages")).isEmpty());
+        assertTrue(index.candidates(Filter.where("type", "education").and("type", "skills")).isEmpty());
+    }
+
+    @Test
+    void testRemoveAndCopyAreIndependent() {
+        MetadataIndex index = new MetadataIndex();
+        index.add(0, Map.of("type", "skills"));
+        index.add(1, Map.of("type", "skills"));
+
+        MetadataIndex copy = index.copy();
+        index.remove(0, Map.of("type", "skills"));
+
+        assertEquals(rows(1), index.candidates(Filter.where("type", "skills")));
+        assertEquals(rows(0, 1), copy.candidates(Filter.where("type", "skills")));
+    }
+
+    @Test
+    void testFilterMatchesMetadata() {
+        Filter filter = Filter.where("type", "skills", "projects").and("category", "technical");
+
+        assertTrue(filter.matches(Map.of("type", "projects", "category", "technical")));
+        assertFalse(filter.matches(Map.of("type", "projects")));
+        assertFalse(filter.matches(Map.of("type", "education", "category", "technical")));
+        assertFalse(filter.matches(null));
+    }
+
+    private static BitSet rows(int... rows) {
+        BitSet set = new BitSet();
+        for (int row : rows) {
+            set.set(row);
+        }
+        return set;
+    }
+}
@@ -0,0 +1,113 @@
+package com.fklein.services.vector;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.fklein.services.vector.VectorTestSupport.drain;
+import static com.fklein.services.vector.VectorTestSupport.randomUnitVector;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QuantizedIndexTest {
+
+    private static final int DIMENSION = 64;
+
+    @Test
+    void testQuantizerRoundTripAndQueryScoring() {
+        Random random = new Random(5);
+        List<float[]> vectors = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            vectors.add(randomUnitVector(random, DIMENSION));
+        }
+        ScalarQuantizer quantizer = ScalarQuantizer.train(vectors, DIMENSION);
+        assertTrue(quantizer.isTrained());
+
+        byte[] codes = new byte[DIMENSION];
+        float[] query = randomUnitVector(random, DIMENSION);
+        ScalarQuantizer.QueryCodes prepared = quantizer.prepare(query);
+        for (float[] vector : vectors) {
+            quantizer.encode(vector, codes, 0);
+            float[] decoded = quantizer.decode(codes, 0);
+            for (int d = 0; d < DIMENSION; d++) {
+                assertEquals(vector[d], decoded[d], 0.01f);
+            }
+            float exact = SimilarityKernels.scalar().dot(query, 0, vector, 0, DIMENSION);
+            assertEquals(exact, prepared.score(codes, 0), 0.05f);
+        }
+    }
+
+    @Test
+    void testRerankedSearchMatchesExactScan() {
+        assertTrue(recallAt10(true) >= 0.95);
+    }
+
+    @Test
+    void testCodesOnlySearchKeepsUsefulRecall() {
+        assertTrue(recallAt10(false) >= 0.7);
+    }
+
+    @Test
+    void testTrickledRowsAreNotClampedByAnEarlyTraining() {
+        Random random = new Random(3);
+        EmbeddingMatrix matrix = new EmbeddingMatrix(false, true);
+        QuantizedIndex index = new QuantizedIndex(matrix, SimilarityKernels.scalar(), 4, Integer.MAX_VALUE);
+        List<float[]> vectors = new ArrayList<>();
+        for (int i = 0; i < 2 * QuantizedIndex.MIN_TRAINING_ROWS; i++) {
+            float[] vector = randomUnitVector(random, DIMENSION);
+            vectors.add(vector);
+            // One row per batch, as single addChunk calls arrive
+            index.prepareBatch(List.of(vector));
+            index.add(matrix.add("chunk-" + i, "content", Map.of(), vector), vector);
+            if (i == 0) {
+                assertFalse(matrix.quantizer().isTrained());
+            }
+        }
+
+        assertTrue(matrix.quantizer().isTrained());
+        for (int i = 0; i < vectors.size(); i++) {
+            float[] decoded = matrix.embedding(matrix.rowOf("chunk-" + i));
+            for (int d = 0; d < DIMENSION; d++) {
+                assertEquals(vectors.get(i)[d], decoded[d], 0.05f, "chunk-" + i);
+            }
+        }
+    }
+
+    private static double recallAt10(boolean retainFloats) {
+        Random random = new Random(9);
+        List<float[]> vectors = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            vectors.add(randomUnitVector(random, DIMENSION));
+        }
+        EmbeddingMatrix exactMatrix = new EmbeddingMatrix();
+        EmbeddingMatrix quantizedMatrix = new EmbeddingMatrix(retainFloats, true);
+        SimilarityKernel kernel = SimilarityKernels.scalar();
+        QuantizedIndex index = new QuantizedIndex(quantizedMatrix, kernel, 4, Integer.MAX_VALUE);
+        index.prepareBatch(vectors);
+        for (int i = 0; i < vectors.size(); i++) {
+            exactMatrix.add("chunk-" + i, "content", Map.of(), vectors.get(i));
+            index.add(quantizedMatrix.add("chunk-" + i, "content", Map.of(), vectors.get(i)), vectors.get(i));
+        }
+
+        int matched = 0;
+        int queries = 50;
+        for (int q = 0; q < queries; q++) {
+            float[] query = randomUnitVector(random, DIMENSION);
+            int[] exact = drain(MatrixScan.topK(exactMatrix, query, 10, kernel, Integer.MAX_VALUE));
+            int[] approximate = drain(index.search(query, 10));
+            for (int hit : exact) {
+                for (int candidate : approximate) {
+                    if (candidate == hit) {
+                        matched++;
+                        break;
+                    }
+                }
+            }
+        }
+        return matched / (queries * 10.0);
+    }
+}
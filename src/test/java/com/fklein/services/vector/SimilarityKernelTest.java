@@ -0,0 +1,49 @@
+package com.fklein.services.vector;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static com.fklein.services.vector.VectorTestSupport.randomUnitVector;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SimilarityKernelTest {
+
+    @Test
+    void testVectorApiKernelAgreesWithScalarKernel() {
+        SimilarityKernel simd = SimilarityKernels.select(true);
+        SimilarityKernel scalar = SimilarityKernels.scalar();
+        // Surefire starts the JVM with jdk.incubator.vector, see pom.xml
+        assertTrue(simd.name().startsWith("vector-api"), simd.name());
+
+        Random random = new Random(42);
+        // Lane multiples and lengths that leave a scalar tail, down to a single element
+        for (int dimension : new int[]{1, 3, 7, 8, 15, 16, 17, 31, 100, 384, 1023, 1024, 1536}) {
+            for (int trial = 0; trial < 20; trial++) {
+                float[] a = randomUnitVector(random, dimension);
+                float[] b = randomUnitVector(random, dimension);
+                assertEquals(scalar.dot(a, 0, b, 0, dimension), simd.dot(a, 0, b, 0, dimension), 1e-5f,
+                        "dimension " + dimension);
+            }
+        }
+    }
+
+    @Test
+    void testKernelsAgreeOnMatrixRowSlices() {
+        SimilarityKernel simd = SimilarityKernels.select(true);
+        SimilarityKernel scalar = SimilarityKernels.scalar();
+        Random random = new Random(7);
+        int dimension = 37;
+        float[] rows = new float[5 * dimension];
+        for (int row = 0; row < 5; row++) {
+            System.arraycopy(randomUnitVector(random, dimension), 0, rows, row * dimension,
+                    dimension);
+        }
+        float[] query = randomUnitVector(random, dimension);
+        for (int row = 0; row < 5; row++) {
+            assertEquals(scalar.dot(query, 0, rows, row * dimension, dimension),
+                    simd.dot(query, 0, rows, row * dimension, dimension), 1e-5f, "row " + row);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.fklein.services.vector;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static com.fklein.services.vector.VectorTestSupport.drain;
+import static com.fklein.services.vector.VectorTestSupport.randomUnitVector;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TopKTest {
+
+    @Test
+    void testHeapKeepsTheBestScoresOfAFullSort() {
+        Random random = new Random(11);
+        float[] scores = new float[5000];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = random.nextFloat() * 2 - 1;
+        }
+        for (int k : new int[]{1, 10, 100, scores.length, scores.length + 5}) {
+            TopK heap = new TopK(k);
+            for (int row = 0; row < scores.length; row++) {
+                heap.offer(row, scores[row]);
+            }
+            int[] rows = new int[heap.size()];
+            float[] heapScores = new float[heap.size()];
+            assertEquals(Math.min(k, scores.length), heap.drainDescending(rows, heapScores));
+            assertArrayEquals(bestRows(scores, k), rows, "k " + k);
+            for (int i = 0; i < rows.length; i++) {
+                assertEquals(scores[rows[i]], heapScores[i]);
+            }
+        }
+    }
+
+    @Test
+    void testMergedHeapsMatchASingleHeap() {
+        Random random = new Random(5);
+        float[] scores = new float[1000];
+        TopK single = new TopK(20);
+        TopK left = new TopK(20);
+        TopK right = new TopK(20);
+        for (int row = 0; row < scores.length; row++) {
+            scores[row] = random.nextFloat();
+            single.offer(row, scores[row]);
+            (row % 3 == 0 ? left : right).offer(row, scores[row]);
+        }
+        left.merge(right);
+        assertArrayEquals(drain(single), drain(left));
+    }
+
+    @Test
+    void testParallelScanMatchesAFullSort() {
+        int dimension = 32;
+        Random random = new Random(9);
+        EmbeddingMatrix matrix = new EmbeddingMatrix();
+        for (int i = 0; i < 20000; i++) {
+            matrix.add("chunk-" + i, "content", Map.of(), randomUnitVector(random, dimension));
+        }
+        matrix.remove("chunk-7");
+        float[] query = randomUnitVector(random, dimension);
+        SimilarityKernel kernel = SimilarityKernels.scalar();
+
+        float[] scores = new float[matrix.rowCount()];
+        for (int row = 0; row < scores.length; row++) {
+            scores[row] = matrix.isLive(row)
+                    ? kernel.dot(query, 0, matrix.data(), row * dimension, dimension) : Float.NEGATIVE_INFINITY;
+        }
+        int[] expected = bestRows(scores, 25);
+
+        // Threshold 1 forces the fork-join partitions; the store is large enough to split several times
+        assertArrayEquals(expected, drain(MatrixScan.topK(matrix, query, 25, kernel, 1)));
+        assertArrayEquals(expected, drain(MatrixScan.topK(matrix, query, 25, kernel, Integer.MAX_VALUE)));
+    }
+
+    // Rows of the k highest scores, best first
+    private static int[] bestRows(float[] scores, int k) {
+        return IntStream.range(0, scores.length).boxed()
+                .sorted(Comparator.comparingDouble((Integer row) -> scores[row]).reversed())
+                .limit(k)
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+}
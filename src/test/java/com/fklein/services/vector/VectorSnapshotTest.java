@@ -0,0 +1,54 @@
+package com.fklein.services.vector;
+
+import com.fklein.models.DocumentChunk;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class VectorSnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testRoundTripKeepsFullPrecisionAndHash() throws IOException {
+        DocumentChunk first = chunk("skills-0", "Java, Quarkus", Map.of("section", "skills"), 0.123456789f, -0.5f, 0.25f);
+        DocumentChunk second = chunk("work-1", "Platform engineer", Map.of(), 0.001f, 0.999f, -0.0001f);
+        Path path = dir.resolve("store.snapshot");
+
+        VectorSnapshot.write(path, List.of(first, second), "abc123");
+
+        assertEquals("abc123", VectorSnapshot.readSourceHash(path));
+        List<DocumentChunk> read = VectorSnapshot.read(path);
+        assertEquals(2, read.size());
+        assertEquals("skills-0", read.get(0).getId());
+        assertEquals("Java, Quarkus", read.get(0).getContent());
+        assertEquals(Map.of("section", "skills"), read.get(0).getMetadata());
+        assertArrayEquals(first.getEmbedding(), read.get(0).getEmbedding());
+        assertEquals("work-1", read.get(1).getId());
+        assertArrayEquals(second.getEmbedding(), read.get(1).getEmbedding());
+    }
+
+    @Test
+    void testUnreadableFilesHaveNoHash() throws IOException {
+        assertNull(VectorSnapshot.readSourceHash(dir.resolve("missing.snapshot")));
+        Path garbage = dir.resolve("garbage.snapshot");
+        Files.write(garbage, new byte[256]);
+        assertNull(VectorSnapshot.readSourceHash(garbage));
+    }
+
+    private static DocumentChunk chunk(String id, String content, Map<String, String> metadata, float... embedding) {
+        DocumentChunk chunk = new DocumentChunk(id, content, metadata);
+        chunk.setEmbedding(embedding);
+        return chunk;
+    }
+}
@@ -0,0 +1,29 @@
+package com.fklein.services.vector;
+
+import java.util.Random;
+
+/**
+ * Fixtures shared by the vector engine tests
+ */
+final class VectorTestSupport {
+
+    private VectorTestSupport() {
+    }
+
+    static float[] randomUnitVector(Random random, int dimension) {
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return VectorMath.normalize(vector);
+    }
+
+    /**
+     * Rows of a heap, best first
+     */
+    static int[] drain(TopK heap) {
+        int[] rows = new int[heap.size()];
+        heap.drainDescending(rows, new float[heap.size()]);
+        return rows;
+    }
+}